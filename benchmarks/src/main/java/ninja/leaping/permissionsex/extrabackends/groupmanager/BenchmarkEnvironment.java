@@ -0,0 +1,105 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.logging.TranslatableLogger;
+
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Creates GroupManager data stores outside of a running server.
+ * The PermissionsEx instance backing the data store is a mock that only provides what the data store uses, with all logging discarded.
+ */
+final class BenchmarkEnvironment {
+    private BenchmarkEnvironment() {
+    }
+
+    static PermissionsEx createManager(Path baseDir) {
+        final PermissionsEx manager = mock(PermissionsEx.class);
+        when(manager.getLogger()).thenReturn(mock(TranslatableLogger.class));
+        when(manager.getBaseDirectory()).thenReturn(baseDir);
+        when(manager.getAsyncExecutor()).thenReturn(ForkJoinPool.commonPool());
+        return manager;
+    }
+
+    /**
+     * Create a GroupManager data store reading from the given directory, without initializing it.
+     *
+     * @param groupManagerRoot The generated GroupManager directory
+     * @param parseCache Whether the data store's parse cache should be used
+     * @return A new data store
+     * @throws PermissionsLoadingException if the configuration is not accepted
+     */
+    static DataStore createDataStore(Path groupManagerRoot, boolean parseCache) throws PermissionsLoadingException {
+        return createDataStore(groupManagerRoot, parseCache, false);
+    }
+
+    /**
+     * Create a GroupManager data store reading from the given directory, without initializing it.
+     *
+     * @param groupManagerRoot The generated GroupManager directory
+     * @param parseCache Whether the data store's parse cache should be used
+     * @param asyncLoad Whether the data store should load its data in the background once initialized
+     * @return A new data store
+     * @throws PermissionsLoadingException if the configuration is not accepted
+     */
+    static DataStore createDataStore(Path groupManagerRoot, boolean parseCache, boolean asyncLoad) throws PermissionsLoadingException {
+        final ConfigurationNode config = SimpleConfigurationNode.root();
+        config.getNode("group-manager-root").setValue(groupManagerRoot.toAbsolutePath().toString());
+        config.getNode("parse-cache-dir").setValue(parseCache ? "groupmanager-cache" : "");
+        config.getNode("async-load").setValue(asyncLoad);
+        return GroupManagerDataStore.FACTORY.createDataStore("benchmark", config);
+    }
+
+    /**
+     * Create and initialize a GroupManager data store.
+     *
+     * @param groupManagerRoot The generated GroupManager directory
+     * @param baseDir The PermissionsEx base directory, holding the parse cache
+     * @param parseCache Whether the data store's parse cache should be used
+     * @return A loaded data store
+     * @throws PermissionsLoadingException if the data could not be loaded
+     */
+    static DataStore load(Path groupManagerRoot, Path baseDir, boolean parseCache) throws PermissionsLoadingException {
+        return load(groupManagerRoot, baseDir, parseCache, false);
+    }
+
+    /**
+     * Create and initialize a GroupManager data store.
+     *
+     * @param groupManagerRoot The generated GroupManager directory
+     * @param baseDir The PermissionsEx base directory, holding the parse cache
+     * @param parseCache Whether the data store's parse cache should be used
+     * @param asyncLoad Whether the data store should load its data in the background, in which case it may still be loading when returned
+     * @return An initialized data store
+     * @throws PermissionsLoadingException if the data could not be loaded
+     */
+    static DataStore load(Path groupManagerRoot, Path baseDir, boolean parseCache, boolean asyncLoad) throws PermissionsLoadingException {
+        final DataStore store = createDataStore(groupManagerRoot, parseCache, asyncLoad);
+        store.initialize(createManager(baseDir));
+        return store;
+    }
+}
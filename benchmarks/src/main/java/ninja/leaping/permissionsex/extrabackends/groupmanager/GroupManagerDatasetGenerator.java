@@ -0,0 +1,244 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Writes synthetic GroupManager data directories for benchmarking.
+ *
+ * <p>Every generated world has a chain of {@link #setGroupDepth(int) ranked groups}, each inheriting the one below it,
+ * with the lowest rank inheriting a global group. Users are spread across the ranks and have a few permissions of their own.
+ * Mirrored worlds take both their users and their groups from the first world, and get no directory of their own.
+ * Output is deterministic for a given set of parameters and seed.</p>
+ */
+public class GroupManagerDatasetGenerator {
+    private static final String[] PLUGINS = {"essentials", "worldedit", "worldguard", "lwc", "mcmmo", "chestshop", "multiverse", "towny"};
+    private static final String[] ACTIONS = {"use", "build", "break", "teleport", "create", "remove", "list", "info", "admin", "bypass"};
+    private int worlds = 4;
+    private int mirroredWorlds = 2;
+    private int usersPerWorld = 1000;
+    private int groupDepth = 5;
+    private int globalGroups = 3;
+    private int permissionsPerGroup = 40;
+    private int permissionsPerUser = 3;
+    private long seed = 0x5eedL;
+
+    public GroupManagerDatasetGenerator setWorlds(int worlds) {
+        this.worlds = worlds;
+        return this;
+    }
+
+    public GroupManagerDatasetGenerator setMirroredWorlds(int mirroredWorlds) {
+        this.mirroredWorlds = mirroredWorlds;
+        return this;
+    }
+
+    public GroupManagerDatasetGenerator setUsersPerWorld(int usersPerWorld) {
+        this.usersPerWorld = usersPerWorld;
+        return this;
+    }
+
+    public GroupManagerDatasetGenerator setGroupDepth(int groupDepth) {
+        this.groupDepth = groupDepth;
+        return this;
+    }
+
+    public GroupManagerDatasetGenerator setGlobalGroups(int globalGroups) {
+        this.globalGroups = globalGroups;
+        return this;
+    }
+
+    public GroupManagerDatasetGenerator setPermissionsPerGroup(int permissionsPerGroup) {
+        this.permissionsPerGroup = permissionsPerGroup;
+        return this;
+    }
+
+    public GroupManagerDatasetGenerator setPermissionsPerUser(int permissionsPerUser) {
+        this.permissionsPerUser = permissionsPerUser;
+        return this;
+    }
+
+    public GroupManagerDatasetGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public static String worldName(int world) {
+        return "world" + world;
+    }
+
+    public static String userName(int world, int user) {
+        return "player" + (world % 2 == 0 ? user : user + world * 7); // Worlds share part of their users, as real servers do
+    }
+
+    public static String rankName(int rank) {
+        return "rank" + rank;
+    }
+
+    /**
+     * Write a full GroupManager directory.
+     *
+     * @param root The directory to write to, which will be created if necessary
+     * @throws IOException if any file could not be written
+     */
+    public void generate(Path root) throws IOException {
+        final Random random = new Random(this.seed);
+        Files.createDirectories(root);
+        writeConfig(root.resolve("config.yml"));
+        writeGlobalGroups(root.resolve("globalgroups.yml"), random);
+        for (int world = 0; world < this.worlds; ++world) {
+            final Path worldDir = root.resolve("worlds").resolve(worldName(world));
+            Files.createDirectories(worldDir);
+            writeGroups(worldDir.resolve("groups.yml"), random);
+            writeUsers(worldDir.resolve("users.yml"), world, random);
+        }
+    }
+
+    private void writeConfig(Path file) throws IOException {
+        try (Writer out = newWriter(file)) {
+            out.write("settings:\n  mirrors:\n");
+            if (this.mirroredWorlds > 0 && this.worlds > 0) {
+                out.write("    " + worldName(0) + ":\n");
+                for (int i = 0; i < this.mirroredWorlds; ++i) {
+                    out.write("      " + worldName(0) + "_mirror" + i + ":\n      - users\n      - groups\n");
+                }
+            }
+        }
+    }
+
+    private void writeGlobalGroups(Path file, Random random) throws IOException {
+        try (Writer out = newWriter(file)) {
+            out.write("groups:\n");
+            for (int i = 0; i < this.globalGroups; ++i) {
+                out.write("  g:global" + i + ":\n");
+                writePermissions(out, this.permissionsPerGroup, random);
+            }
+        }
+    }
+
+    private void writeGroups(Path file, Random random) throws IOException {
+        try (Writer out = newWriter(file)) {
+            out.write("groups:\n");
+            for (int rank = 0; rank < this.groupDepth; ++rank) {
+                out.write("  " + rankName(rank) + ":\n");
+                out.write("    default: " + (rank == 0) + "\n");
+                writePermissions(out, this.permissionsPerGroup, random);
+                out.write("    inheritance:\n");
+                if (rank > 0) {
+                    out.write("    - " + rankName(rank - 1) + "\n");
+                } else if (this.globalGroups > 0) {
+                    out.write("    - g:global" + random.nextInt(this.globalGroups) + "\n");
+                }
+                out.write("    info:\n      prefix: '&" + Integer.toHexString(rank % 16) + "[" + rankName(rank) + "] '\n      build: true\n      suffix: ''\n");
+            }
+        }
+    }
+
+    private void writeUsers(Path file, int world, Random random) throws IOException {
+        try (Writer out = newWriter(file)) {
+            out.write("users:\n");
+            for (int user = 0; user < this.usersPerWorld; ++user) {
+                out.write("  " + userName(world, user) + ":\n");
+                out.write("    subgroups: []\n");
+                writePermissions(out, random.nextInt(this.permissionsPerUser + 1), random);
+                // Rank distribution is skewed towards the lower ranks
+                out.write("    group: " + rankName(this.groupDepth <= 1 ? 0 : (int) (Math.pow(random.nextDouble(), 3) * this.groupDepth)) + "\n");
+            }
+        }
+    }
+
+    private static void writePermissions(Writer out, int count, Random random) throws IOException {
+        if (count == 0) {
+            out.write("    permissions: []\n");
+            return;
+        }
+        out.write("    permissions:\n");
+        for (int i = 0; i < count; ++i) {
+            final int roll = random.nextInt(20);
+            final String plugin = PLUGINS[random.nextInt(PLUGINS.length)];
+            final String action = ACTIONS[random.nextInt(ACTIONS.length)];
+            if (roll == 0) {
+                out.write("    - " + plugin + ".*\n");
+            } else if (roll < 3) {
+                out.write("    - -" + plugin + "." + action + "\n");
+            } else {
+                out.write("    - " + plugin + "." + action + "." + random.nextInt(8) + "\n");
+            }
+        }
+    }
+
+    private static Writer newWriter(Path file) throws IOException {
+        return Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Recursively delete a generated directory.
+     *
+     * @param root The directory to delete
+     * @throws IOException if any file could not be deleted
+     */
+    public static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Generate a dataset from the command line.
+     * Arguments are the output directory, followed by optional world, user and group depth counts.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: GroupManagerDatasetGenerator <output dir> [worlds] [users per world] [group depth]");
+            System.exit(1);
+        }
+        final GroupManagerDatasetGenerator generator = new GroupManagerDatasetGenerator();
+        if (args.length > 1) {
+            generator.setWorlds(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            generator.setUsersPerWorld(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            generator.setGroupDepth(Integer.parseInt(args[3]));
+        }
+        generator.generate(Paths.get(args[0]));
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading a full GroupManager directory, as done by {@code GroupManagerDataStore.initializeBase()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupManagerLoadBenchmark {
+    @Param({"4"})
+    public int worlds;
+    @Param({"1000", "10000"})
+    public int usersPerWorld;
+    @Param({"5"})
+    public int groupDepth;
+    @Param({"false", "true"})
+    public boolean parseCache;
+
+    private Path dataDir;
+    private DataStore store;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException, PermissionsLoadingException {
+        this.dataDir = Files.createTempDirectory("pex-gm-bench");
+        new GroupManagerDatasetGenerator()
+                .setWorlds(this.worlds)
+                .setUsersPerWorld(this.usersPerWorld)
+                .setGroupDepth(this.groupDepth)
+                .generate(this.dataDir.resolve("GroupManager"));
+        if (this.parseCache) { // Populate the cache, so every measured load reads from it
+            BenchmarkEnvironment.load(this.dataDir.resolve("GroupManager"), this.dataDir, true).close();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeStore() {
+        if (this.store != null) {
+            this.store.close();
+            this.store = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        GroupManagerDatasetGenerator.delete(this.dataDir);
+    }
+
+    @Benchmark
+    public DataStore initialize() throws PermissionsLoadingException {
+        this.store = BenchmarkEnvironment.load(this.dataDir.resolve("GroupManager"), this.dataDir, this.parseCache);
+        return this.store;
+    }
+}
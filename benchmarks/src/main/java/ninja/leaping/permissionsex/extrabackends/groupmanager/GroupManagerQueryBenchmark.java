@@ -0,0 +1,139 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+
+/**
+ * Measures lookups against a loaded GroupManager data store.
+ * Each invocation queries the next subject from a fixed, randomly ordered sample, so results are not dominated by a single hot entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupManagerQueryBenchmark {
+    private static final int SAMPLE_SIZE = 1024; // Power of two, see next()
+
+    @Param({"4"})
+    public int worlds;
+    @Param({"1000", "10000"})
+    public int usersPerWorld;
+    @Param({"5"})
+    public int groupDepth;
+
+    private Path dataDir;
+    private DataStore store;
+    private String[] names;
+    private ImmutableSubjectData[] data;
+    private Set<Map.Entry<String, String>> worldContext;
+    private int position;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException, PermissionsLoadingException {
+        this.dataDir = Files.createTempDirectory("pex-gm-bench");
+        new GroupManagerDatasetGenerator()
+                .setWorlds(this.worlds)
+                .setUsersPerWorld(this.usersPerWorld)
+                .setGroupDepth(this.groupDepth)
+                .generate(this.dataDir.resolve("GroupManager"));
+        this.store = BenchmarkEnvironment.load(this.dataDir.resolve("GroupManager"), this.dataDir, false);
+
+        final Random random = new Random(42);
+        this.names = new String[SAMPLE_SIZE];
+        this.data = new ImmutableSubjectData[SAMPLE_SIZE];
+        for (int i = 0; i < SAMPLE_SIZE; ++i) {
+            this.names[i] = GroupManagerDatasetGenerator.userName(0, random.nextInt(this.usersPerWorld));
+            this.data[i] = this.store.getData(SUBJECTS_USER, this.names[i], null).join();
+        }
+        this.worldContext = ImmutableSet.of(Maps.immutableEntry("world", GroupManagerDatasetGenerator.worldName(0)));
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        this.store.close();
+        GroupManagerDatasetGenerator.delete(this.dataDir);
+    }
+
+    private int next() {
+        return this.position = (this.position + 1) & (SAMPLE_SIZE - 1);
+    }
+
+    @Benchmark
+    public ImmutableSubjectData getData() {
+        return this.store.getData(SUBJECTS_USER, this.names[next()], null).join();
+    }
+
+    @Benchmark
+    public Map<String, Integer> getPermissions() {
+        return this.data[next()].getPermissions(this.worldContext);
+    }
+
+    @Benchmark
+    public Map<Set<Map.Entry<String, String>>, Map<String, Integer>> getAllPermissions() {
+        return this.data[next()].getAllPermissions();
+    }
+
+    @Benchmark
+    public Boolean isRegistered() {
+        return this.store.isRegistered(SUBJECTS_USER, this.names[next()]).join();
+    }
+
+    @Benchmark
+    public void getAllIdentifiers(Blackhole hole) {
+        for (String identifier : this.store.getAllIdentifiers(SUBJECTS_USER)) {
+            hole.consume(identifier);
+        }
+    }
+
+    @Benchmark
+    public void getAll(Blackhole hole) {
+        for (Map.Entry<Map.Entry<String, String>, ImmutableSubjectData> subject : this.store.getAll()) {
+            hole.consume(subject);
+        }
+    }
+}
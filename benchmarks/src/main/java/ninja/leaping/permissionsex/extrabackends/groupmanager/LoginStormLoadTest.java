@@ -0,0 +1,505 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+
+/**
+ * A load test simulating a wave of players joining a server right after it has been restarted.
+ *
+ * <p>Each round initializes a fresh data store on a generated GroupManager directory, then releases every simulated login at once.
+ * A login checks whether the player is registered, gets their data and resolves all of their permissions, as a server does on join,
+ * then does the same for each group the player directly belongs to. The latency of every call is recorded into a histogram per operation,
+ * and the bytes allocated by each call are measured on the calling thread where the JVM supports it.</p>
+ *
+ * <p>Players are drawn from the generated worlds with a Zipf distribution, so the first worlds are the busiest,
+ * and a share of them are new players without any stored data. Logins run on a fixed pool of platform threads,
+ * or with {@code --virtual-threads} on one virtual thread each, which requires Java 21.</p>
+ */
+public final class LoginStormLoadTest {
+    private static final com.sun.management.ThreadMXBean THREADS = getThreadBean();
+    private final Options options;
+    private final Path root;
+    private final Path baseDir;
+
+    /**
+     * The measured operations.
+     */
+    private enum Operation {
+        IS_REGISTERED("isRegistered"),
+        GET_DATA("getData"),
+        GET_ALL_PERMISSIONS("getAllPermissions"),
+        LOGIN("login");
+
+        private final String displayName;
+
+        Operation(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    /**
+     * Command line options. Every option has the form {@code --name=value}, except flags, which take no value.
+     */
+    private static final class Options {
+        private int players = 5000;
+        private int threads = 64;
+        private boolean virtualThreads = false;
+        private int worlds = 4;
+        private int usersPerWorld = 10000;
+        private int groupDepth = 5;
+        private double newPlayers = 0.05;
+        private int warmupRounds = 2;
+        private int rounds = 5;
+        private boolean asyncLoad = false;
+        private boolean parseCache = false;
+        private Path histogramDir;
+        private long seed = 42;
+
+        private static Options parse(String[] args) {
+            final Options ret = new Options();
+            for (String arg : args) {
+                final int split = arg.indexOf('=');
+                final String name = split == -1 ? arg : arg.substring(0, split);
+                final String value = split == -1 ? null : arg.substring(split + 1);
+                switch (name) {
+                    case "--players":
+                        ret.players = Integer.parseInt(require(name, value));
+                        break;
+                    case "--threads":
+                        ret.threads = Integer.parseInt(require(name, value));
+                        break;
+                    case "--virtual-threads":
+                        if (getVirtualThreadFactory() == null) {
+                            throw new IllegalArgumentException("Virtual threads require Java 21 or newer");
+                        }
+                        ret.virtualThreads = true;
+                        break;
+                    case "--worlds":
+                        ret.worlds = Integer.parseInt(require(name, value));
+                        break;
+                    case "--users-per-world":
+                        ret.usersPerWorld = Integer.parseInt(require(name, value));
+                        break;
+                    case "--group-depth":
+                        ret.groupDepth = Integer.parseInt(require(name, value));
+                        break;
+                    case "--new-players":
+                        ret.newPlayers = Double.parseDouble(require(name, value));
+                        break;
+                    case "--warmup-rounds":
+                        ret.warmupRounds = Integer.parseInt(require(name, value));
+                        break;
+                    case "--rounds":
+                        ret.rounds = Integer.parseInt(require(name, value));
+                        break;
+                    case "--async-load":
+                        ret.asyncLoad = true;
+                        break;
+                    case "--parse-cache":
+                        ret.parseCache = true;
+                        break;
+                    case "--histogram-dir":
+                        ret.histogramDir = Paths.get(require(name, value));
+                        break;
+                    case "--seed":
+                        ret.seed = Long.parseLong(require(name, value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (ret.players < 1 || ret.threads < 1 || ret.worlds < 1 || ret.usersPerWorld < 1 || ret.rounds < 1 || ret.warmupRounds < 0) {
+                throw new IllegalArgumentException("Counts must be positive");
+            }
+            return ret;
+        }
+
+        private static String require(String name, String value) {
+            if (value == null || value.isEmpty()) {
+                throw new IllegalArgumentException("Option " + name + " requires a value");
+            }
+            return value;
+        }
+    }
+
+    /**
+     * The measurements of one round.
+     */
+    private static final class Stats {
+        private final Map<Operation, Recorder> latencies = new EnumMap<>(Operation.class);
+        private final Map<Operation, LongAdder> allocatedBytes = new EnumMap<>(Operation.class);
+        private final Map<Operation, LongAdder> allocationSamples = new EnumMap<>(Operation.class);
+        private final LongAdder permissions = new LongAdder();
+
+        private Stats() {
+            for (Operation operation : Operation.values()) {
+                this.latencies.put(operation, new Recorder(3));
+                this.allocatedBytes.put(operation, new LongAdder());
+                this.allocationSamples.put(operation, new LongAdder());
+            }
+        }
+
+        /**
+         * Record a call that started at the given time and thread allocation counter.
+         */
+        private void record(Operation operation, long startNanos, long startAllocated) {
+            final long allocated = currentThreadAllocatedBytes();
+            this.latencies.get(operation).recordValue(System.nanoTime() - startNanos);
+            if (startAllocated >= 0 && allocated >= 0) {
+                this.allocatedBytes.get(operation).add(allocated - startAllocated);
+                this.allocationSamples.get(operation).increment();
+            }
+        }
+    }
+
+    private LoginStormLoadTest(Options options, Path root, Path baseDir) {
+        this.options = options;
+        this.root = root;
+        this.baseDir = baseDir;
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            ((com.sun.management.ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+            return (com.sun.management.ThreadMXBean) bean;
+        }
+        return null;
+    }
+
+    /**
+     * Get the bytes allocated so far by the current thread.
+     *
+     * @return The allocated bytes, or -1 if not supported for this thread, as for virtual threads
+     */
+    private static long currentThreadAllocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Get the bytes allocated so far by every live platform thread, including the carrier threads of virtual threads.
+     * Threads that exit during a round are not counted, so this is a lower bound.
+     *
+     * @return The allocated bytes, or -1 if not supported
+     */
+    private static long totalAllocatedBytes() {
+        if (THREADS == null) {
+            return -1;
+        }
+        long ret = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            if (bytes > 0) {
+                ret += bytes;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get {@code Executors.newVirtualThreadPerTaskExecutor()}, which is only available from Java 21.
+     *
+     * @return The method, or null if not available
+     */
+    private static Method getVirtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private ExecutorService createExecutor() {
+        if (!this.options.virtualThreads) {
+            return Executors.newFixedThreadPool(this.options.threads);
+        }
+        try {
+            return (ExecutorService) getVirtualThreadFactory().invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create a virtual thread executor", e);
+        }
+    }
+
+    /**
+     * Choose the distinct players joining in each round. Worlds are weighted by a Zipf distribution, and players within a world uniformly.
+     *
+     * @return The players, in random order
+     */
+    private List<String> choosePlayers() {
+        final Random random = new Random(this.options.seed);
+        final double[] cumulative = new double[this.options.worlds];
+        double total = 0;
+        for (int i = 0; i < cumulative.length; ++i) {
+            cumulative[i] = total += 1.0 / (i + 1);
+        }
+
+        final Set<String> players = new LinkedHashSet<>();
+        int newPlayers = 0;
+        for (int attempts = 0; players.size() < this.options.players && attempts < this.options.players * 20; ++attempts) {
+            if (random.nextDouble() < this.options.newPlayers) {
+                players.add("newplayer" + newPlayers++);
+                continue;
+            }
+            final double pick = random.nextDouble() * total;
+            int world = 0;
+            while (cumulative[world] < pick) {
+                ++world;
+            }
+            players.add(GroupManagerDatasetGenerator.userName(world, random.nextInt(this.options.usersPerWorld)));
+        }
+        final List<String> ret = new ArrayList<>(players);
+        Collections.shuffle(ret, random);
+        return ret;
+    }
+
+    /**
+     * Perform the calls a server makes when a player joins.
+     */
+    private static void login(DataStore store, String player, Stats stats) {
+        final long loginStart = System.nanoTime();
+        final long loginAllocated = currentThreadAllocatedBytes();
+
+        long start = System.nanoTime();
+        long allocated = currentThreadAllocatedBytes();
+        store.isRegistered(SUBJECTS_USER, player).join();
+        stats.record(Operation.IS_REGISTERED, start, allocated);
+
+        final Set<Map.Entry<String, String>> seen = new HashSet<>();
+        resolve(store, SUBJECTS_USER, player, stats, seen);
+
+        stats.record(Operation.LOGIN, loginStart, loginAllocated);
+    }
+
+    private static void resolve(DataStore store, String type, String identifier, Stats stats, Set<Map.Entry<String, String>> seen) {
+        long start = System.nanoTime();
+        long allocated = currentThreadAllocatedBytes();
+        final ImmutableSubjectData data = store.getData(type, identifier, null).join();
+        stats.record(Operation.GET_DATA, start, allocated);
+
+        start = System.nanoTime();
+        allocated = currentThreadAllocatedBytes();
+        final Map<Set<Map.Entry<String, String>>, Map<String, Integer>> permissions = data.getAllPermissions();
+        stats.record(Operation.GET_ALL_PERMISSIONS, start, allocated);
+        for (Map<String, Integer> contextPermissions : permissions.values()) {
+            stats.permissions.add(contextPermissions.size());
+        }
+
+        if (type.equals(SUBJECTS_USER)) {
+            for (Map.Entry<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> parents : data.getAllParents().entrySet()) {
+                // Every group the player inherits from is resolved, as the server does when calculating their permissions
+                final List<Map.Entry<String, String>> groups = data instanceof GroupManagerSubjectData
+                        ? ((GroupManagerSubjectData) data).getEffectiveParents(parents.getKey()) : parents.getValue();
+                for (Map.Entry<String, String> parent : groups) {
+                    if (seen.add(parent)) {
+                        resolve(store, parent.getKey(), parent.getValue(), stats, seen);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Restart the data store and let every player join at once.
+     *
+     * @param players The joining players
+     * @param round The round's number, or a negative number for warmup rounds, which are not reported
+     * @return The round's measurements
+     */
+    private Stats runRound(List<String> players, int round) throws Exception {
+        final ExecutorService executor = createExecutor();
+        final long loadStart = System.nanoTime();
+        final DataStore store;
+        try {
+            store = BenchmarkEnvironment.load(this.root, this.baseDir, this.options.parseCache, this.options.asyncLoad);
+        } catch (Exception e) {
+            executor.shutdownNow();
+            throw e;
+        }
+        final long loadNanos = System.nanoTime() - loadStart;
+        final Stats stats = new Stats();
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Future<?>> logins = new ArrayList<>(players.size());
+        int failures = 0;
+        Throwable firstFailure = null;
+        final long stormNanos, allocatedBytes;
+        try {
+            for (String player : players) {
+                logins.add(executor.submit(() -> {
+                    gate.await();
+                    login(store, player, stats);
+                    return null;
+                }));
+            }
+            final long allocatedStart = totalAllocatedBytes();
+            final long stormStart = System.nanoTime();
+            gate.countDown();
+            for (Future<?> login : logins) {
+                try {
+                    login.get();
+                } catch (ExecutionException e) {
+                    if (failures++ == 0) {
+                        firstFailure = e.getCause();
+                    }
+                }
+            }
+            stormNanos = System.nanoTime() - stormStart;
+            allocatedBytes = allocatedStart < 0 ? -1 : totalAllocatedBytes() - allocatedStart;
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            store.close();
+        }
+
+        if (round >= 0) {
+            System.out.printf(Locale.ROOT, "Round %d: initialized in %d ms, %d logins in %d ms (%.0f logins/s), %s allocated per login by all threads%n",
+                    round + 1, TimeUnit.NANOSECONDS.toMillis(loadNanos), players.size(), TimeUnit.NANOSECONDS.toMillis(stormNanos),
+                    players.size() / (stormNanos / 1e9), allocatedBytes < 0 ? "n/a" : formatBytes((double) allocatedBytes / players.size()));
+            if (failures > 0) {
+                System.out.printf(Locale.ROOT, "  %d logins failed, the first with:%n", failures);
+                firstFailure.printStackTrace(System.out);
+            }
+        }
+        return stats;
+    }
+
+    private static String formatBytes(double bytes) {
+        return bytes < 1024 ? String.format(Locale.ROOT, "%.0f B", bytes) : String.format(Locale.ROOT, "%.1f KiB", bytes / 1024);
+    }
+
+    private static void printSummary(String title, Map<Operation, Histogram> latencies, Map<Operation, long[]> allocations) {
+        System.out.println(title);
+        System.out.printf(Locale.ROOT, "  %-18s %10s %10s %10s %10s %10s %12s%n", "operation", "count", "p50 us", "p99 us", "p99.9 us", "max us", "alloc/call");
+        for (Operation operation : Operation.values()) {
+            final Histogram histogram = latencies.get(operation);
+            final long[] allocation = allocations.get(operation);
+            System.out.printf(Locale.ROOT, "  %-18s %10d %10.1f %10.1f %10.1f %10.1f %12s%n", operation.displayName, histogram.getTotalCount(),
+                    histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0,
+                    allocation[1] == 0 ? "n/a" : formatBytes((double) allocation[0] / allocation[1]));
+        }
+    }
+
+    private void run() throws Exception {
+        final List<String> players = choosePlayers();
+        System.out.printf(Locale.ROOT, "%d players joining %s, %d worlds of %d users%s%s%n", players.size(),
+                this.options.virtualThreads ? "on virtual threads" : "on " + this.options.threads + " threads",
+                this.options.worlds, this.options.usersPerWorld, this.options.asyncLoad ? ", async load" : "", this.options.parseCache ? ", parse cache" : "");
+        if (this.options.parseCache) {
+            BenchmarkEnvironment.load(this.root, this.baseDir, true).close(); // Every round should find an up to date cache
+        }
+        for (int i = 0; i < this.options.warmupRounds; ++i) {
+            runRound(players, -1);
+        }
+
+        final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+        final Map<Operation, long[]> allocations = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new Histogram(3));
+            allocations.put(operation, new long[2]);
+        }
+        for (int round = 0; round < this.options.rounds; ++round) {
+            final Stats stats = runRound(players, round);
+            final Map<Operation, Histogram> roundLatencies = new EnumMap<>(Operation.class);
+            final Map<Operation, long[]> roundAllocations = new EnumMap<>(Operation.class);
+            for (Operation operation : Operation.values()) {
+                final Histogram histogram = stats.latencies.get(operation).getIntervalHistogram();
+                final long[] allocation = {stats.allocatedBytes.get(operation).sum(), stats.allocationSamples.get(operation).sum()};
+                roundLatencies.put(operation, histogram);
+                roundAllocations.put(operation, allocation);
+                latencies.get(operation).add(histogram);
+                allocations.get(operation)[0] += allocation[0];
+                allocations.get(operation)[1] += allocation[1];
+            }
+            printSummary("  " + stats.permissions.sum() + " permissions resolved", roundLatencies, roundAllocations);
+        }
+        printSummary("All rounds", latencies, allocations);
+
+        if (this.options.histogramDir != null) {
+            Files.createDirectories(this.options.histogramDir);
+            for (Operation operation : Operation.values()) {
+                try (PrintStream out = new PrintStream(Files.newOutputStream(this.options.histogramDir.resolve(operation.displayName + ".hgrm")), false, "UTF-8")) {
+                    latencies.get(operation).outputPercentileDistribution(out, 1000.0); // Microseconds
+                }
+            }
+            System.out.println("Wrote latency distributions to " + this.options.histogramDir);
+        }
+    }
+
+    /**
+     * Run the load test. Options are described in the project README, and listed when an unknown option is passed.
+     */
+    public static void main(String[] args) throws Exception {
+        final Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: LoginStormLoadTest [--players=N] [--threads=N] [--virtual-threads] [--worlds=N] [--users-per-world=N] [--group-depth=N]"
+                    + " [--new-players=RATIO] [--warmup-rounds=N] [--rounds=N] [--async-load] [--parse-cache] [--histogram-dir=DIR] [--seed=N]");
+            System.exit(1);
+            return;
+        }
+
+        final Path dataDir = Files.createTempDirectory("pex-gm-loadtest");
+        try {
+            new GroupManagerDatasetGenerator()
+                    .setWorlds(options.worlds)
+                    .setUsersPerWorld(options.usersPerWorld)
+                    .setGroupDepth(options.groupDepth)
+                    .generate(dataDir.resolve("GroupManager"));
+            new LoginStormLoadTest(options, dataDir.resolve("GroupManager"), dataDir).run();
+        } finally {
+            try {
+                GroupManagerDatasetGenerator.delete(dataDir);
+            } catch (IOException e) {
+                System.err.println("Unable to delete " + dataDir + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Load statistics, data sizes and call latencies for a single data store.
+ *
+ * <p>Metrics are tracked once {@link #publish(String)} has been called for the data store they belong to, as it is initialized,
+ * and until they are closed. Tracked metrics are exposed over JMX once {@link #registerMBeans()} has been called,
+ * which the plugin entry points do on startup, under {@value #MBEAN_DOMAIN}{@code :type=<data store class>,name=<data store identifier>}.
+ * The name stays the same when a data store is reloaded, and the metrics of the newest instance replace those of the previous one.</p>
+ */
+public final class BackendMetrics implements BackendMetricsMXBean {
+    public static final String MBEAN_DOMAIN = "ninja.leaping.permissionsex.extrabackends";
+    public static final String GLOBAL_WORLD = "global";
+    private static final Map<ObjectName, BackendMetrics> INSTANCES = new HashMap<>();
+    private static MBeanServer mbeanServer;
+
+    private final String dataStoreType;
+    private ObjectName objectName;
+    private final Map<String, Long> fileLoadNanos = new ConcurrentHashMap<>();
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private volatile long lastFullLoadNanos = -1;
+    private volatile Map<String, Integer> userCounts = ImmutableMap.of();
+    private volatile Map<String, Integer> groupCounts = ImmutableMap.of();
+    private volatile long estimatedRetainedBytes;
+
+    /**
+     * The data store calls that are timed.
+     */
+    public enum Operation {
+        GET_DATA,
+        IS_REGISTERED,
+        GET_ALL_IDENTIFIERS,
+        GET_ALL
+    }
+
+    public BackendMetrics(String dataStoreType) {
+        this.dataStoreType = dataStoreType;
+        for (Operation op : Operation.values()) {
+            this.latencies.put(op, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Start tracking these metrics, and expose them over JMX if MBeans are registered.
+     *
+     * @param dataStoreIdentifier A name identifying the data store among others of the same type, which is the same every time the data store is loaded
+     */
+    public void publish(String dataStoreIdentifier) {
+        final ObjectName name;
+        try {
+            name = new ObjectName(MBEAN_DOMAIN + ":type=" + ObjectName.quote(this.dataStoreType) + ",name=" + ObjectName.quote(dataStoreIdentifier));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid data store identifier " + dataStoreIdentifier, e);
+        }
+        synchronized (BackendMetrics.class) {
+            if (this.objectName != null) {
+                throw new IllegalStateException("These metrics have already been published as " + this.objectName);
+            }
+            this.objectName = name;
+            INSTANCES.put(name, this);
+            if (mbeanServer != null) {
+                register(mbeanServer);
+            }
+        }
+    }
+
+    /**
+     * Expose the metrics of every data store, current and future, through the platform MBean server.
+     */
+    public static synchronized void registerMBeans() {
+        if (mbeanServer != null) {
+            return;
+        }
+        mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (BackendMetrics metrics : INSTANCES.values()) {
+            metrics.register(mbeanServer);
+        }
+    }
+
+    /**
+     * Remove every data store's metrics from the platform MBean server, and stop registering new ones.
+     */
+    public static synchronized void unregisterMBeans() {
+        final MBeanServer server = mbeanServer;
+        mbeanServer = null;
+        if (server != null) {
+            for (BackendMetrics metrics : INSTANCES.values()) {
+                metrics.unregister(server);
+            }
+        }
+    }
+
+    /**
+     * Register these metrics, replacing the metrics of a previous instance of the same data store that has not been closed yet.
+     */
+    private void register(MBeanServer server) {
+        try {
+            if (server.isRegistered(this.objectName)) {
+                server.unregisterMBean(this.objectName);
+            }
+            server.registerMBean(this, this.objectName);
+        } catch (JMException ignore) { // Metrics are best-effort, and never prevent a data store from working
+        }
+    }
+
+    private void unregister(MBeanServer server) {
+        try {
+            if (server.isRegistered(this.objectName)) {
+                server.unregisterMBean(this.objectName);
+            }
+        } catch (JMException ignore) {
+        }
+    }
+
+    /**
+     * Stop tracking these metrics, once the data store they belong to is closed.
+     * Metrics that have since been replaced by a newer instance of the same data store are left registered.
+     */
+    public void close() {
+        synchronized (BackendMetrics.class) {
+            if (this.objectName != null && INSTANCES.remove(this.objectName, this) && mbeanServer != null) {
+                unregister(mbeanServer);
+            }
+        }
+    }
+
+    /**
+     * Record the completion of a call started at {@code startNanos}, as returned by {@link System#nanoTime()}.
+     *
+     * @param operation The call that completed
+     * @param startNanos The time the call started
+     */
+    public void record(Operation operation, long startNanos) {
+        this.latencies.get(operation).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Wrap an iterator so that one call is recorded once it has been fully iterated, timed from when this method is called.
+     * Iterations that are abandoned part-way are not recorded.
+     *
+     * @param operation The call that produced the iterator
+     * @param iterator The iterator to time
+     * @param <T> The type of element
+     * @return A timed iterator
+     */
+    public <T> Iterator<T> timeIteration(Operation operation, Iterator<T> iterator) {
+        final long start = System.nanoTime();
+        return new Iterator<T>() {
+            private boolean recorded;
+
+            @Override
+            public boolean hasNext() {
+                final boolean ret = iterator.hasNext();
+                if (!ret && !this.recorded) {
+                    this.recorded = true;
+                    record(operation, start);
+                }
+                return ret;
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+        };
+    }
+
+    public void recordFileLoad(String file, long nanos) {
+        this.fileLoadNanos.put(file, nanos);
+    }
+
+    public void recordFullLoad(long nanos) {
+        this.lastFullLoadNanos = nanos;
+    }
+
+    /**
+     * Replace the recorded subject counts.
+     *
+     * @param userCounts The number of users in each world
+     * @param groupCounts The number of groups in each world
+     */
+    public void setSubjectCounts(Map<String, Integer> userCounts, Map<String, Integer> groupCounts) {
+        this.userCounts = ImmutableMap.copyOf(userCounts);
+        this.groupCounts = ImmutableMap.copyOf(groupCounts);
+    }
+
+    public void setEstimatedRetainedBytes(long estimatedRetainedBytes) {
+        this.estimatedRetainedBytes = estimatedRetainedBytes;
+    }
+
+    @Override
+    public String getDataStoreType() {
+        return this.dataStoreType;
+    }
+
+    @Override
+    public long getLastFullLoadMillis() {
+        final long nanos = this.lastFullLoadNanos;
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Override
+    public Map<String, Long> getFileLoadMillis() {
+        final ImmutableMap.Builder<String, Long> ret = ImmutableMap.builder();
+        for (Map.Entry<String, Long> entry : this.fileLoadNanos.entrySet()) {
+            ret.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue()));
+        }
+        return ret.build();
+    }
+
+    @Override
+    public Map<String, Integer> getUserCounts() {
+        return this.userCounts;
+    }
+
+    @Override
+    public Map<String, Integer> getGroupCounts() {
+        return this.groupCounts;
+    }
+
+    @Override
+    public long getEstimatedRetainedBytes() {
+        return this.estimatedRetainedBytes;
+    }
+
+    @Override
+    public Map<String, Long> getCallCounts() {
+        final ImmutableMap.Builder<String, Long> ret = ImmutableMap.builder();
+        for (Map.Entry<Operation, LatencyHistogram> entry : this.latencies.entrySet()) {
+            ret.put(entry.getKey().name(), entry.getValue().count.sum());
+        }
+        return ret.build();
+    }
+
+    private Map<String, Double> latencyMicros(ToDoubleFunction<LatencyHistogram> statistic) {
+        final ImmutableMap.Builder<String, Double> ret = ImmutableMap.builder();
+        for (Map.Entry<Operation, LatencyHistogram> entry : this.latencies.entrySet()) {
+            ret.put(entry.getKey().name(), statistic.applyAsDouble(entry.getValue()) / 1000);
+        }
+        return ret.build();
+    }
+
+    @Override
+    public Map<String, Double> getMeanLatencyMicros() {
+        return latencyMicros(LatencyHistogram::mean);
+    }
+
+    @Override
+    public Map<String, Double> getMedianLatencyMicros() {
+        return latencyMicros(histogram -> histogram.percentile(0.5));
+    }
+
+    @Override
+    public Map<String, Double> getP99LatencyMicros() {
+        return latencyMicros(histogram -> histogram.percentile(0.99));
+    }
+
+    @Override
+    public Map<String, Double> getMaxLatencyMicros() {
+        return latencyMicros(histogram -> histogram.max.get());
+    }
+
+    @Override
+    public void resetCallMetrics() {
+        for (LatencyHistogram histogram : this.latencies.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * A lock-free latency histogram with one bucket per power of two nanoseconds.
+     * Percentiles are reported as the upper bound of the bucket they fall in, so are accurate to within a factor of two.
+     */
+    private static final class LatencyHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            this.buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos) - (nanos == 0 ? 0 : 1));
+            this.count.increment();
+            this.totalNanos.add(nanos);
+            this.max.accumulateAndGet(nanos, Math::max);
+        }
+
+        private double mean() {
+            final long count = this.count.sum();
+            return count == 0 ? 0 : (double) this.totalNanos.sum() / count;
+        }
+
+        private double percentile(double percentile) {
+            final long[] counts = new long[this.buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                counts[i] = this.buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long target = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min((double) ((2L << i) - 1), this.max.get());
+                }
+            }
+            return this.max.get();
+        }
+
+        private void reset() {
+            for (int i = 0; i < this.buckets.length(); ++i) {
+                this.buckets.set(i, 0);
+            }
+            this.count.reset();
+            this.totalNanos.reset();
+            this.max.set(0);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a data store's {@link BackendMetrics}.
+ */
+public interface BackendMetricsMXBean {
+    /**
+     * Get the type of data store these metrics are for.
+     *
+     * @return The data store's class name
+     */
+    String getDataStoreType();
+
+    /**
+     * Get the time taken by the most recent full load of the data store.
+     *
+     * @return The load time in milliseconds, or -1 if the data store has not loaded yet
+     */
+    long getLastFullLoadMillis();
+
+    /**
+     * Get the time taken by the most recent load of each file the data store read.
+     *
+     * @return A map of file to load time in milliseconds
+     */
+    Map<String, Long> getFileLoadMillis();
+
+    /**
+     * Get the number of users loaded for each world.
+     *
+     * @return A map of world to user count
+     */
+    Map<String, Integer> getUserCounts();
+
+    /**
+     * Get the number of groups loaded for each world, with global groups under {@value BackendMetrics#GLOBAL_WORLD}.
+     *
+     * @return A map of world to group count
+     */
+    Map<String, Integer> getGroupCounts();
+
+    /**
+     * Get a rough estimate of the heap retained by the loaded data.
+     *
+     * @return The estimated size in bytes
+     */
+    long getEstimatedRetainedBytes();
+
+    Map<String, Long> getCallCounts();
+
+    Map<String, Double> getMeanLatencyMicros();
+
+    Map<String, Double> getMedianLatencyMicros();
+
+    Map<String, Double> getP99LatencyMicros();
+
+    Map<String, Double> getMaxLatencyMicros();
+
+    /**
+     * Reset all call counters and latency histograms.
+     */
+    void resetCallMetrics();
+}
@@ -22,5 +22,11 @@ public class BukkitPlugin extends JavaPlugin {
     @Override
     public void onLoad() {
         Registry.register();
+        BackendMetrics.registerMBeans();
+    }
+
+    @Override
+    public void onDisable() {
+        BackendMetrics.unregisterMBeans();
     }
 }
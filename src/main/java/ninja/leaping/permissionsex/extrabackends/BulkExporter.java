@@ -0,0 +1,343 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.rank.RankLadder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Copies every subject from a read-only data store into another data store.
+ *
+ * <p>The source's subjects are split into partitions through {@link Iterable#spliterator()}, which are read in parallel on the conversion executor.
+ * Each batch read is copied into plain immutable collections and written to the target through the target's bulk operation,
+ * with several batches in flight at once. A source whose subjects cannot be split is read one batch at a time, while earlier batches are written.
+ * Once every subject has been written, the source's rank ladders and context inheritance are copied in one more bulk operation.</p>
+ */
+public class BulkExporter {
+    private final ReadOnlyDataStore source;
+    private final DataStore target;
+    private int batchSize = 1000;
+    private int maxBatchesInFlight = Runtime.getRuntime().availableProcessors() * 2;
+    private Executor executor = ForkJoinPool.commonPool();
+    private Consumer<Progress> progressListener = progress -> {};
+
+    public BulkExporter(ReadOnlyDataStore source, DataStore target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    /**
+     * Set the number of subjects read, converted and written together.
+     *
+     * @param batchSize The batch size
+     * @return this
+     */
+    public BulkExporter setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of batches that may be read or written at once.
+     * This bounds the memory used by an export, and the number of partitions the source's subjects are read in.
+     *
+     * @param maxBatchesInFlight The number of batches
+     * @return this
+     */
+    public BulkExporter setMaxBatchesInFlight(int maxBatchesInFlight) {
+        if (maxBatchesInFlight < 1) {
+            throw new IllegalArgumentException("At least one batch must be allowed in flight");
+        }
+        this.maxBatchesInFlight = maxBatchesInFlight;
+        return this;
+    }
+
+    public BulkExporter setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Set a listener to be notified after each batch has been written to the target.
+     * The listener may be called from several threads, but never concurrently.
+     *
+     * @param progressListener The listener
+     * @return this
+     */
+    public BulkExporter setProgressListener(Consumer<Progress> progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Start the export. Nothing blocks on the calling thread.
+     * If writing any batch fails, or the returned future is cancelled, no further batches are started and the batches in flight are cancelled.
+     *
+     * @return A future completing with the final progress of the export once every subject, rank ladder and the context inheritance have been written
+     */
+    public CompletableFuture<Progress> run() {
+        return new Export().start();
+    }
+
+    /**
+     * The state of a single run of the exporter.
+     */
+    private final class Export {
+        private final long start = System.nanoTime();
+        private final CompletableFuture<Progress> result = new CompletableFuture<>();
+        private final Deque<Spliterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>>> readable = new ArrayDeque<>();
+        private final Set<CompletableFuture<?>> inFlight = new HashSet<>();
+        private int activeBatches;
+        private boolean finishing;
+        private long exported;
+
+        private CompletableFuture<Progress> start() {
+            this.result.whenComplete((progress, error) -> {
+                if (error != null) {
+                    cancelInFlight();
+                }
+            });
+            this.readable.addAll(split(source.getAll().spliterator()));
+            pump();
+            return this.result;
+        }
+
+        /**
+         * Divide the source's subjects into as many partitions as batches may be in flight, splitting each partition in turn.
+         */
+        private List<Spliterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>>> split(Spliterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> all) {
+            final List<Spliterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>>> parts = new ArrayList<>();
+            parts.add(all);
+            boolean split = true;
+            while (split && parts.size() < maxBatchesInFlight) {
+                split = false;
+                for (int i = 0, size = parts.size(); i < size && parts.size() < maxBatchesInFlight; ++i) {
+                    final Spliterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> prefix = parts.get(i).trySplit();
+                    if (prefix != null) {
+                        parts.add(prefix);
+                        split = true;
+                    }
+                }
+            }
+            return parts;
+        }
+
+        /**
+         * Start reading batches from idle partitions while fewer than the maximum number of batches are in flight.
+         * A partition is only read by one batch at a time, and is made available again once that batch has been read.
+         */
+        private synchronized void pump() {
+            while (!this.result.isDone() && this.activeBatches < maxBatchesInFlight && !this.readable.isEmpty()) {
+                final Spliterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> part = this.readable.poll();
+                this.activeBatches++;
+                final CompletableFuture<List<SubjectCopy>> read = CompletableFuture.supplyAsync(() -> readBatch(part), executor);
+                final CompletableFuture<Void> written = read.thenCompose(batch -> batch.isEmpty() ? CompletableFuture.<Void>completedFuture(null)
+                        : target.performBulkOperation(store -> writeBatch(store, batch))
+                                .thenAccept(ignore -> batchWritten(batch.size())));
+                this.inFlight.add(read);
+                this.inFlight.add(written);
+                written.whenComplete((ignore, error) -> batchDone(read, written, error));
+            }
+            if (this.activeBatches == 0 && this.readable.isEmpty() && !this.finishing) {
+                this.finishing = true;
+                final CompletableFuture<Void> copied = target.performBulkOperation(store -> copyRankLaddersAndInheritance(store));
+                this.inFlight.add(copied);
+                copied.whenComplete((ignore, error) -> {
+                    if (error != null) {
+                        this.result.completeExceptionally(unwrap(error));
+                    } else {
+                        this.result.complete(new Progress(this.exported, System.nanoTime() - this.start));
+                    }
+                });
+            }
+        }
+
+        private List<SubjectCopy> readBatch(Spliterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> part) {
+            final List<SubjectCopy> batch = new ArrayList<>(batchSize);
+            boolean remaining = true;
+            while (remaining && batch.size() < batchSize) {
+                remaining = part.tryAdvance(subject -> batch.add(new SubjectCopy(subject.getKey(), subject.getValue())));
+            }
+            if (remaining) {
+                synchronized (this) {
+                    this.readable.add(part);
+                }
+                pump();
+            }
+            return batch;
+        }
+
+        private synchronized void batchWritten(int subjects) {
+            this.exported += subjects;
+            progressListener.accept(new Progress(this.exported, System.nanoTime() - this.start));
+        }
+
+        private void batchDone(CompletableFuture<?> read, CompletableFuture<?> written, Throwable error) {
+            synchronized (this) {
+                this.inFlight.remove(read);
+                this.inFlight.remove(written);
+                this.activeBatches--;
+            }
+            if (error != null) {
+                this.result.completeExceptionally(unwrap(error));
+            } else {
+                pump();
+            }
+        }
+
+        private void cancelInFlight() {
+            final List<CompletableFuture<?>> cancelled;
+            synchronized (this) {
+                cancelled = new ArrayList<>(this.inFlight);
+            }
+            for (CompletableFuture<?> future : cancelled) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Write a batch within the target's bulk operation, returning only once every subject has been written
+     * so the bulk operation does not end while its writes are still pending.
+     */
+    private static Void writeBatch(DataStore store, List<SubjectCopy> batch) {
+        final List<CompletableFuture<ImmutableSubjectData>> writes = new ArrayList<>(batch.size());
+        for (SubjectCopy subject : batch) {
+            final String type = subject.key.getKey(), identifier = subject.key.getValue();
+            writes.add(store.getData(type, identifier, null)
+                    .thenCompose(existing -> store.setData(type, identifier, subject.applyTo(existing))));
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[writes.size()])).join();
+    }
+
+    private Void copyRankLaddersAndInheritance(DataStore store) {
+        final List<CompletableFuture<?>> writes = new ArrayList<>();
+        for (String ladder : this.source.getAllRankLadders()) {
+            final RankLadder copy = this.source.getRankLadder(ladder, null).join();
+            writes.add(store.setRankLadder(ladder, copy));
+        }
+        writes.add(store.setContextInheritance(this.source.getContextInheritance(null).join()));
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[writes.size()])).join();
+    }
+
+    /**
+     * A fully materialized copy of a subject's data, independent of the store it was read from.
+     */
+    private static final class SubjectCopy {
+        private final Map.Entry<String, String> key;
+        private final Map<Set<Map.Entry<String, String>>, Map<String, Integer>> permissions;
+        private final Map<Set<Map.Entry<String, String>>, Map<String, String>> options;
+        private final Map<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> parents;
+        private final Map<Set<Map.Entry<String, String>>, Integer> defaultValues;
+
+        private SubjectCopy(Map.Entry<String, String> key, ImmutableSubjectData data) {
+            this.key = key;
+            final ImmutableMap.Builder<Set<Map.Entry<String, String>>, Map<String, Integer>> permissions = ImmutableMap.builder();
+            for (Map.Entry<Set<Map.Entry<String, String>>, Map<String, Integer>> entry : data.getAllPermissions().entrySet()) {
+                permissions.put(entry.getKey(), ImmutableMap.copyOf(entry.getValue()));
+            }
+            this.permissions = permissions.build();
+            final ImmutableMap.Builder<Set<Map.Entry<String, String>>, Map<String, String>> options = ImmutableMap.builder();
+            for (Map.Entry<Set<Map.Entry<String, String>>, Map<String, String>> entry : data.getAllOptions().entrySet()) {
+                options.put(entry.getKey(), ImmutableMap.copyOf(entry.getValue()));
+            }
+            this.options = options.build();
+            final ImmutableMap.Builder<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> parents = ImmutableMap.builder();
+            for (Map.Entry<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> entry : data.getAllParents().entrySet()) {
+                parents.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+            }
+            this.parents = parents.build();
+            this.defaultValues = ImmutableMap.copyOf(data.getAllDefaultValues());
+        }
+
+        private ImmutableSubjectData applyTo(ImmutableSubjectData data) {
+            for (Map.Entry<Set<Map.Entry<String, String>>, Map<String, Integer>> entry : this.permissions.entrySet()) {
+                data = data.setPermissions(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<Set<Map.Entry<String, String>>, Map<String, String>> entry : this.options.entrySet()) {
+                data = data.setOptions(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> entry : this.parents.entrySet()) {
+                data = data.setParents(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<Set<Map.Entry<String, String>>, Integer> entry : this.defaultValues.entrySet()) {
+                data = data.setDefaultValue(entry.getKey(), entry.getValue());
+            }
+            return data;
+        }
+    }
+
+    /**
+     * The state of an export after a batch has been written.
+     */
+    public static final class Progress {
+        private final long exportedSubjects;
+        private final long elapsedNanos;
+
+        Progress(long exportedSubjects, long elapsedNanos) {
+            this.exportedSubjects = exportedSubjects;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getExportedSubjects() {
+            return this.exportedSubjects;
+        }
+
+        public long getElapsed(TimeUnit unit) {
+            return unit.convert(this.elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Get the average throughput of the export so far.
+         *
+         * @return Subjects written per second
+         */
+        public double getSubjectsPerSecond() {
+            return this.elapsedNanos == 0 ? 0 : this.exportedSubjects / (this.elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d subjects in %dms (%.1f subjects/s)", this.exportedSubjects, getElapsed(TimeUnit.MILLISECONDS), getSubjectsPerSecond());
+        }
+    }
+}
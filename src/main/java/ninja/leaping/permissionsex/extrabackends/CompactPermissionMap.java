@@ -0,0 +1,306 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable map of permission to value for read-only backends.
+ *
+ * <p>Entries are held in an open-addressing table made of three parallel arrays: the permission nodes,
+ * their precomputed hashes, and their values as bytes. Nothing is allocated per entry, and
+ * {@link #getValue(Object, int)} and {@link #forEachPermission(ObjIntConsumer)} read values without boxing.
+ * Entries are iterated in no particular order.</p>
+ *
+ * <p>Only values that fit in a byte can be stored, which covers every permission a read-only backend usually holds.
+ * The factory methods return an {@link ImmutableMap} instead when a value does not fit.</p>
+ */
+public final class CompactPermissionMap extends AbstractMap<String, Integer> {
+    private final String[] keys;
+    private final int[] hashes;
+    private final byte[] values;
+    private final int size;
+    private int hashCode;
+
+    private CompactPermissionMap(String[] keys, int[] hashes, byte[] values, int size) {
+        this.keys = keys;
+        this.hashes = hashes;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Get a map holding the same entries as {@code permissions}.
+     *
+     * @param permissions The permissions to copy
+     * @return An immutable map, compact unless a value does not fit in a byte
+     */
+    public static Map<String, Integer> copyOf(Map<String, Integer> permissions) {
+        if (permissions instanceof CompactPermissionMap || (permissions instanceof ImmutableMap && permissions.isEmpty())) {
+            return permissions;
+        }
+        final Builder ret = builder(permissions.size());
+        for (Map.Entry<String, Integer> entry : permissions.entrySet()) {
+            ret.put(entry.getKey(), checkNotNull(entry.getValue(), "value"));
+        }
+        return ret.build();
+    }
+
+    /**
+     * Create a builder for a map of roughly the given size.
+     *
+     * @param expectedSize The expected number of entries
+     * @return A new builder
+     */
+    public static Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+
+    /**
+     * Call {@code action} with each entry of a permissions map, without boxing values when the map is compact.
+     *
+     * @param permissions The permissions to iterate
+     * @param action The action to perform
+     */
+    public static void forEachPermission(Map<String, Integer> permissions, ObjIntConsumer<? super String> action) {
+        if (permissions instanceof CompactPermissionMap) {
+            ((CompactPermissionMap) permissions).forEachPermission(action);
+        } else {
+            for (Map.Entry<String, Integer> entry : permissions.entrySet()) {
+                action.accept(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private int indexOf(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        final int hash = key.hashCode();
+        final int mask = this.keys.length - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            final String existing = this.keys[i];
+            if (existing == null) {
+                return -1;
+            } else if (this.hashes[i] == hash && (existing == key || existing.equals(key))) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Get the value of a permission without boxing it.
+     *
+     * @param key The permission
+     * @param defaultValue The value to return if the permission is not present
+     * @return The permission's value, or {@code defaultValue}
+     */
+    public int getValue(Object key, int defaultValue) {
+        final int idx = indexOf(key);
+        return idx < 0 ? defaultValue : this.values[idx];
+    }
+
+    /**
+     * Call {@code action} with each permission and its value, without boxing values.
+     *
+     * @param action The action to perform
+     */
+    public void forEachPermission(ObjIntConsumer<? super String> action) {
+        for (int i = 0; i < this.keys.length; ++i) {
+            if (this.keys[i] != null) {
+                action.accept(this.keys[i], this.values[i]);
+            }
+        }
+    }
+
+    /**
+     * Estimate the heap used by this map, not including the strings it refers to.
+     *
+     * @return The estimated size in bytes
+     */
+    public long estimateRetainedBytes() {
+        return 32 + 3 * 16 + 8L * this.keys.length + this.values.length;
+    }
+
+    @Override
+    public Integer get(Object key) {
+        final int idx = indexOf(key);
+        return idx < 0 ? null : (int) this.values[idx];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int ret = this.hashCode;
+        if (ret == 0) {
+            for (int i = 0; i < this.keys.length; ++i) {
+                if (this.keys[i] != null) {
+                    ret += this.hashes[i] ^ this.values[i];
+                }
+            }
+            this.hashCode = ret;
+        }
+        return ret;
+    }
+
+    @Override
+    public Set<Entry<String, Integer>> entrySet() {
+        return new EntrySet();
+    }
+
+    private class EntrySet extends AbstractSet<Entry<String, Integer>> {
+        @Override
+        public Iterator<Entry<String, Integer>> iterator() {
+            return new Iterator<Entry<String, Integer>>() {
+                private int next = advance(0);
+
+                private int advance(int from) {
+                    while (from < keys.length && keys[from] == null) {
+                        ++from;
+                    }
+                    return from;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return this.next < keys.length;
+                }
+
+                @Override
+                public Entry<String, Integer> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final int idx = this.next;
+                    this.next = advance(idx + 1);
+                    return new SimpleImmutableEntry<>(keys[idx], (int) values[idx]);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * A builder for permission maps. Later values for a permission replace earlier ones.
+     */
+    public static final class Builder {
+        private String[] keys;
+        private int[] values;
+        private int size;
+        private boolean compact = true;
+
+        private Builder(int expectedSize) {
+            this.keys = new String[Math.max(expectedSize, 4)];
+            this.values = new int[this.keys.length];
+        }
+
+        /**
+         * Add a permission.
+         *
+         * @param permission The permission node
+         * @param value The permission's value
+         * @return this
+         */
+        public Builder put(String permission, int value) {
+            checkNotNull(permission, "permission");
+            if (this.size == this.keys.length) {
+                this.keys = Arrays.copyOf(this.keys, this.size * 2);
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.keys[this.size] = permission;
+            this.values[this.size++] = value;
+            if (value != (byte) value) {
+                this.compact = false;
+            }
+            return this;
+        }
+
+        /**
+         * Build the map.
+         *
+         * @return An immutable map, compact unless a value does not fit in a byte
+         */
+        public Map<String, Integer> build() {
+            if (this.size == 0) {
+                return ImmutableMap.of();
+            } else if (!this.compact) {
+                final Map<String, Integer> ret = new LinkedHashMap<>();
+                for (int i = 0; i < this.size; ++i) {
+                    ret.put(this.keys[i], this.values[i]);
+                }
+                return ImmutableMap.copyOf(ret);
+            }
+
+            // Keep the table at most two thirds full so probe sequences stay short
+            final int capacity = Integer.highestOneBit((this.size * 3 / 2) | 1) << 1;
+            final String[] keys = new String[capacity];
+            final int[] hashes = new int[capacity];
+            final byte[] values = new byte[capacity];
+            final int mask = capacity - 1;
+            int size = 0;
+            for (int j = 0; j < this.size; ++j) {
+                final String key = this.keys[j];
+                final int hash = key.hashCode();
+                int i = spread(hash) & mask;
+                while (keys[i] != null && !(hashes[i] == hash && keys[i].equals(key))) {
+                    i = (i + 1) & mask;
+                }
+                if (keys[i] == null) {
+                    keys[i] = key;
+                    hashes[i] = hash;
+                    ++size;
+                }
+                values[i] = (byte) this.values[j];
+            }
+            return new CompactPermissionMap(keys, hashes, values, size);
+        }
+    }
+}
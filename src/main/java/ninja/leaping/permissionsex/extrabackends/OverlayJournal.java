@@ -0,0 +1,391 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.logging.TranslatableLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import static ninja.leaping.permissionsex.util.Translations.t;
+
+/**
+ * An append-only journal of subject data written to a read-only data store, applied over the data store's own data.
+ *
+ * <p>Each change is appended as one record holding the subject's complete new data, or a removal marker, so the latest record for a subject always wins.
+ * The journal is replayed into memory when opened. Records are length-prefixed and checksummed,
+ * and a torn record at the end of the file, left by a crash during a write, is discarded.
+ * A damaged record elsewhere ends the replay as well, since later records can't be told apart from garbage,
+ * so every discarded byte range is logged, and the journal is copied to {@code <journal>.corrupt-<timestamp>} before it is truncated.</p>
+ *
+ * <p>Once the journal holds more than {@code compactThreshold} records and at least twice as many records as live subjects,
+ * it is compacted by writing only the latest record for each subject to a new file, which replaces the journal atomically.
+ * Compaction failures are logged, and the journal keeps appending to the previous file.</p>
+ */
+final class OverlayJournal implements AutoCloseable {
+    private static final int MAGIC = 0x50584a31; // PXJ1
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte OP_REMOVE = 0;
+    private static final byte OP_SET = 1;
+    private final Path file;
+    private final int compactThreshold;
+    private final TranslatableLogger logger;
+    private final Map<Map.Entry<String, String>, OverlaySubjectData> entries = new ConcurrentHashMap<>();
+    private FileChannel channel;
+    private int recordCount;
+
+    private OverlayJournal(Path file, int compactThreshold, TranslatableLogger logger) {
+        this.file = file;
+        this.compactThreshold = compactThreshold;
+        this.logger = logger;
+    }
+
+    /**
+     * Open a journal, creating it if it does not exist, and replay its contents.
+     *
+     * @param file The journal file
+     * @param compactThreshold The number of records above which the journal may be compacted
+     * @param logger The logger to report discarded records and compaction failures to
+     * @return The opened journal
+     * @throws IOException if the journal could not be read or created
+     */
+    static OverlayJournal open(Path file, int compactThreshold, TranslatableLogger logger) throws IOException {
+        final OverlayJournal ret = new OverlayJournal(file, compactThreshold, logger);
+        ret.replay();
+        return ret;
+    }
+
+    private void replay() throws IOException {
+        final Path parent = this.file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (this.channel.size() == 0) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            this.channel.write(header);
+            this.channel.force(false);
+            return;
+        }
+
+        final ByteBuffer buf = ByteBuffer.allocate((int) Math.min(this.channel.size(), Integer.MAX_VALUE));
+        while (buf.hasRemaining() && this.channel.read(buf, buf.position()) > 0) {
+            // Read the whole journal
+        }
+        buf.flip();
+        if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            throw new IOException(this.file + " is not an overlay journal");
+        }
+        int validEnd = buf.position();
+        final CRC32 crc = new CRC32();
+        while (buf.remaining() >= 8) {
+            final int length = buf.getInt();
+            final int checksum = buf.getInt();
+            if (length < 0 || length > buf.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(buf.array(), buf.arrayOffset() + buf.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            final ByteBuffer record = ByteBuffer.wrap(buf.array(), buf.arrayOffset() + buf.position(), length);
+            buf.position(buf.position() + length);
+            try {
+                apply(record);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                break;
+            }
+            validEnd = buf.position();
+            this.recordCount++;
+        }
+        if (validEnd < this.channel.size()) {
+            // Keep the damaged journal, so records after a corrupt one can still be recovered by hand
+            final Path copy = this.file.resolveSibling(this.file.getFileName() + ".corrupt-" + System.currentTimeMillis());
+            Files.copy(this.file, copy);
+            this.logger.warn(t("Discarded %s bytes at offset %s of overlay journal %s that do not hold a complete, valid record, saved a copy as %s",
+                    this.channel.size() - validEnd, validEnd, this.file, copy.getFileName()));
+            this.channel.truncate(validEnd);
+        }
+        this.channel.position(validEnd);
+        compactIfNeeded();
+    }
+
+    private void apply(ByteBuffer record) {
+        final byte op = record.get();
+        final Map.Entry<String, String> key = Maps.immutableEntry(readString(record), readString(record));
+        if (op == OP_SET) {
+            this.entries.put(key, readData(record));
+        } else if (op == OP_REMOVE) {
+            this.entries.put(key, OverlaySubjectData.EMPTY);
+        } else {
+            throw new IllegalArgumentException("Unknown journal operation " + op);
+        }
+    }
+
+    /**
+     * Get the data stored for a subject.
+     *
+     * @param type The subject's type
+     * @param identifier The subject's identifier
+     * @return The subject's data, empty if the subject was removed, or null if the journal holds nothing for the subject
+     */
+    OverlaySubjectData get(String type, String identifier) {
+        return this.entries.get(Maps.immutableEntry(type, identifier));
+    }
+
+    /**
+     * Get every subject stored in the journal, including removed subjects, whose data is empty.
+     *
+     * @return A live view of the stored subjects
+     */
+    Map<Map.Entry<String, String>, OverlaySubjectData> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Get the number of records in the journal file, including records that have since been superseded.
+     *
+     * @return The number of records
+     */
+    synchronized int getRecordCount() {
+        return this.recordCount;
+    }
+
+    /**
+     * Durably record new data for a subject. The data is on disk once this method returns,
+     * even if compacting the journal afterwards fails.
+     *
+     * @param type The subject's type
+     * @param identifier The subject's identifier
+     * @param data The subject's new data, or null to remove the subject
+     * @return The data as stored
+     * @throws IOException if the record could not be written
+     */
+    synchronized OverlaySubjectData write(String type, String identifier, OverlaySubjectData data) throws IOException {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            writeRecord(out, type, identifier, data);
+        }
+        appendRecord(this.channel, payload.toByteArray());
+        this.channel.force(false);
+        this.recordCount++;
+        final OverlaySubjectData ret = data == null ? OverlaySubjectData.EMPTY : data;
+        this.entries.put(Maps.immutableEntry(type, identifier), ret);
+        compactIfNeeded();
+        return ret;
+    }
+
+    private static void appendRecord(FileChannel channel, byte[] payload) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        final ByteBuffer buf = ByteBuffer.allocate(8 + payload.length);
+        buf.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    private synchronized void compactIfNeeded() {
+        if (this.recordCount > this.compactThreshold && this.recordCount >= 2 * this.entries.size()) {
+            try {
+                compact();
+            } catch (IOException e) {
+                this.logger.warn(t("Unable to compact overlay journal %s, changes are still appended to the uncompacted journal", this.file), e);
+            }
+        }
+    }
+
+    /**
+     * Rewrite the journal with only the latest record for each subject.
+     * The compacted journal is written to a new file, which is opened before it replaces the journal.
+     * Until it is in place, the current journal stays open, so a failure leaves the journal usable as it was.
+     *
+     * @throws IOException if the compacted journal could not be written
+     */
+    synchronized void compact() throws IOException {
+        final Path tempFile = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        final FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            out.write(header);
+            for (Map.Entry<Map.Entry<String, String>, OverlaySubjectData> entry : this.entries.entrySet()) {
+                final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                try (DataOutputStream data = new DataOutputStream(payload)) {
+                    writeRecord(data, entry.getKey().getKey(), entry.getKey().getValue(), entry.getValue().isEmpty() ? null : entry.getValue());
+                }
+                appendRecord(out, payload.toByteArray());
+            }
+            out.force(true);
+            try {
+                Files.move(tempFile, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, this.file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(this.file.toAbsolutePath().getParent());
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        final FileChannel previous = this.channel;
+        this.channel = out;
+        this.recordCount = this.entries.size();
+        previous.close();
+    }
+
+    /**
+     * Flush a directory's entries to disk, so that a file moved into it is still in place after a crash.
+     */
+    private static void syncDirectory(Path dir) {
+        if (dir == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories can't be opened on some platforms, such as Windows, which offer no other way to sync them
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.channel.close();
+    }
+
+    // Record encoding
+
+    private static void writeRecord(DataOutputStream out, String type, String identifier, OverlaySubjectData data) throws IOException {
+        out.writeByte(data == null ? OP_REMOVE : OP_SET);
+        writeString(out, type);
+        writeString(out, identifier);
+        if (data == null) {
+            return;
+        }
+        final Set<Set<Map.Entry<String, String>>> contexts = data.getActiveContexts();
+        out.writeInt(contexts.size());
+        for (Set<Map.Entry<String, String>> context : contexts) {
+            writeEntries(out, context);
+            out.writeInt(data.getDefaultValue(context));
+            final Map<String, Integer> permissions = data.getPermissions(context);
+            out.writeInt(permissions.size());
+            for (Map.Entry<String, Integer> permission : permissions.entrySet()) {
+                writeString(out, permission.getKey());
+                out.writeInt(permission.getValue());
+            }
+            writeEntries(out, data.getOptions(context).entrySet());
+            writeEntries(out, data.getParents(context));
+        }
+    }
+
+    private static OverlaySubjectData readData(ByteBuffer buf) {
+        final ImmutableMap.Builder<Set<Map.Entry<String, String>>, Map<String, String>> options = ImmutableMap.builder();
+        final ImmutableMap.Builder<Set<Map.Entry<String, String>>, Map<String, Integer>> permissions = ImmutableMap.builder();
+        final ImmutableMap.Builder<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> parents = ImmutableMap.builder();
+        final ImmutableMap.Builder<Set<Map.Entry<String, String>>, Integer> defaultValues = ImmutableMap.builder();
+        final int contextCount = buf.getInt();
+        for (int i = 0; i < contextCount; ++i) {
+            final Set<Map.Entry<String, String>> context = ImmutableSet.copyOf(readEntries(buf));
+            final int defaultValue = buf.getInt();
+            if (defaultValue != 0) {
+                defaultValues.put(context, defaultValue);
+            }
+            final int permissionCount = buf.getInt();
+            if (permissionCount > 0) {
+                final CompactPermissionMap.Builder segmentPermissions = CompactPermissionMap.builder(permissionCount);
+                for (int j = 0; j < permissionCount; ++j) {
+                    segmentPermissions.put(readString(buf), buf.getInt());
+                }
+                permissions.put(context, segmentPermissions.build());
+            }
+            final List<Map.Entry<String, String>> segmentOptions = readEntries(buf);
+            if (!segmentOptions.isEmpty()) {
+                final ImmutableMap.Builder<String, String> optionsMap = ImmutableMap.builder();
+                for (Map.Entry<String, String> option : segmentOptions) {
+                    optionsMap.put(option);
+                }
+                options.put(context, optionsMap.build());
+            }
+            final List<Map.Entry<String, String>> segmentParents = readEntries(buf);
+            if (!segmentParents.isEmpty()) {
+                parents.put(context, segmentParents);
+            }
+        }
+        return new OverlaySubjectData(options.build(), permissions.build(), parents.build(), defaultValues.build());
+    }
+
+    private static void writeEntries(DataOutputStream out, Iterable<Map.Entry<String, String>> entries) throws IOException {
+        final List<Map.Entry<String, String>> list = ImmutableList.copyOf(entries);
+        out.writeInt(list.size());
+        for (Map.Entry<String, String> entry : list) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static List<Map.Entry<String, String>> readEntries(ByteBuffer buf) {
+        final int count = buf.getInt();
+        if (count < 0 || count > buf.remaining() / 8) {
+            throw new IllegalArgumentException("Invalid entry count " + count);
+        }
+        final List<Map.Entry<String, String>> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            ret.add(Maps.immutableEntry(readString(buf), readString(buf)));
+        }
+        return ImmutableList.copyOf(ret);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        final int length = buf.getInt();
+        if (length < 0 || length > buf.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Subject data held in memory, as stored in an {@link OverlayJournal}. Every modification returns a new instance.
+ *
+ * <p>Modifying {@link ReadOnlySubjectData} produces an instance of this class holding a copy of the original data,
+ * which can be stored by a {@link ReadOnlyDataStore} that has an overlay journal enabled.</p>
+ */
+final class OverlaySubjectData implements ImmutableSubjectData {
+    static final OverlaySubjectData EMPTY = new OverlaySubjectData(ImmutableMap.<Set<Map.Entry<String, String>>, Map<String, String>>of(),
+            ImmutableMap.<Set<Map.Entry<String, String>>, Map<String, Integer>>of(),
+            ImmutableMap.<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>>of(),
+            ImmutableMap.<Set<Map.Entry<String, String>>, Integer>of());
+    private final Map<Set<Map.Entry<String, String>>, Map<String, String>> options;
+    private final Map<Set<Map.Entry<String, String>>, Map<String, Integer>> permissions;
+    private final Map<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> parents;
+    private final Map<Set<Map.Entry<String, String>>, Integer> defaultValues;
+
+    OverlaySubjectData(Map<Set<Map.Entry<String, String>>, Map<String, String>> options, Map<Set<Map.Entry<String, String>>, Map<String, Integer>> permissions,
+                       Map<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> parents, Map<Set<Map.Entry<String, String>>, Integer> defaultValues) {
+        this.options = options;
+        this.permissions = permissions;
+        this.parents = parents;
+        this.defaultValues = defaultValues;
+    }
+
+    /**
+     * Copy any subject data into memory.
+     *
+     * @param data The data to copy
+     * @return The copy, or {@code data} itself if it is already an instance of this class
+     */
+    static OverlaySubjectData copyOf(ImmutableSubjectData data) {
+        if (data instanceof OverlaySubjectData) {
+            return (OverlaySubjectData) data;
+        }
+        return new OverlaySubjectData(copy(data.getAllOptions(), ImmutableMap::copyOf), copy(data.getAllPermissions(), ImmutableMap::copyOf),
+                copy(data.getAllParents(), ImmutableList::copyOf), copy(data.getAllDefaultValues(), Function.identity()));
+    }
+
+    private static <V> Map<Set<Map.Entry<String, String>>, V> copy(Map<Set<Map.Entry<String, String>>, V> values, Function<V, V> copyValue) {
+        final ImmutableMap.Builder<Set<Map.Entry<String, String>>, V> ret = ImmutableMap.builder();
+        for (Map.Entry<Set<Map.Entry<String, String>>, V> entry : values.entrySet()) {
+            ret.put(ImmutableSet.copyOf(entry.getKey()), copyValue.apply(entry.getValue()));
+        }
+        return ret.build();
+    }
+
+    /**
+     * Replace the value for one set of contexts. Values that are empty or zero remove the contexts' entry.
+     */
+    private static <V> Map<Set<Map.Entry<String, String>>, V> with(Map<Set<Map.Entry<String, String>>, V> values, Set<Map.Entry<String, String>> contexts, V value) {
+        final Map<Set<Map.Entry<String, String>>, V> ret = new LinkedHashMap<>(values);
+        final boolean empty = value == null || (value instanceof Map && ((Map<?, ?>) value).isEmpty())
+                || (value instanceof List && ((List<?>) value).isEmpty()) || (value instanceof Integer && (Integer) value == 0);
+        if (empty) {
+            ret.remove(contexts);
+        } else {
+            ret.put(ImmutableSet.copyOf(contexts), value);
+        }
+        return ImmutableMap.copyOf(ret);
+    }
+
+    private static <K, V> Map<K, V> get(Map<Set<Map.Entry<String, String>>, Map<K, V>> values, Set<Map.Entry<String, String>> contexts) {
+        final Map<K, V> ret = values.get(contexts);
+        return ret == null ? ImmutableMap.<K, V>of() : ret;
+    }
+
+    @Override
+    public Map<Set<Map.Entry<String, String>>, Map<String, String>> getAllOptions() {
+        return this.options;
+    }
+
+    @Override
+    public Map<String, String> getOptions(Set<Map.Entry<String, String>> contexts) {
+        return get(this.options, contexts);
+    }
+
+    @Override
+    public ImmutableSubjectData setOption(Set<Map.Entry<String, String>> contexts, String key, String value) {
+        final Map<String, String> options = new LinkedHashMap<>(getOptions(contexts));
+        if (value == null) {
+            options.remove(key);
+        } else {
+            options.put(key, value);
+        }
+        return setOptions(contexts, options);
+    }
+
+    @Override
+    public ImmutableSubjectData setOptions(Set<Map.Entry<String, String>> contexts, Map<String, String> values) {
+        return new OverlaySubjectData(with(this.options, contexts, values == null ? null : ImmutableMap.copyOf(values)), this.permissions, this.parents, this.defaultValues);
+    }
+
+    @Override
+    public ImmutableSubjectData clearOptions(Set<Map.Entry<String, String>> contexts) {
+        return setOptions(contexts, null);
+    }
+
+    @Override
+    public ImmutableSubjectData clearOptions() {
+        return new OverlaySubjectData(ImmutableMap.<Set<Map.Entry<String, String>>, Map<String, String>>of(), this.permissions, this.parents, this.defaultValues);
+    }
+
+    @Override
+    public Map<Set<Map.Entry<String, String>>, Map<String, Integer>> getAllPermissions() {
+        return this.permissions;
+    }
+
+    @Override
+    public Map<String, Integer> getPermissions(Set<Map.Entry<String, String>> contexts) {
+        return get(this.permissions, contexts);
+    }
+
+    @Override
+    public ImmutableSubjectData setPermission(Set<Map.Entry<String, String>> contexts, String permission, int value) {
+        final Map<String, Integer> permissions = new LinkedHashMap<>(getPermissions(contexts));
+        if (value == 0) {
+            permissions.remove(permission);
+        } else {
+            permissions.put(permission, value);
+        }
+        return setPermissions(contexts, permissions);
+    }
+
+    @Override
+    public ImmutableSubjectData setPermissions(Set<Map.Entry<String, String>> contexts, Map<String, Integer> values) {
+        return new OverlaySubjectData(this.options, with(this.permissions, contexts, values == null ? null : CompactPermissionMap.copyOf(values)), this.parents, this.defaultValues);
+    }
+
+    @Override
+    public ImmutableSubjectData clearPermissions() {
+        return new OverlaySubjectData(this.options, ImmutableMap.<Set<Map.Entry<String, String>>, Map<String, Integer>>of(), this.parents, this.defaultValues);
+    }
+
+    @Override
+    public ImmutableSubjectData clearPermissions(Set<Map.Entry<String, String>> contexts) {
+        return setPermissions(contexts, null);
+    }
+
+    @Override
+    public Map<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> getAllParents() {
+        return this.parents;
+    }
+
+    @Override
+    public List<Map.Entry<String, String>> getParents(Set<Map.Entry<String, String>> contexts) {
+        final List<Map.Entry<String, String>> ret = this.parents.get(contexts);
+        return ret == null ? ImmutableList.<Map.Entry<String, String>>of() : ret;
+    }
+
+    @Override
+    public ImmutableSubjectData addParent(Set<Map.Entry<String, String>> contexts, String type, String identifier) {
+        final Map.Entry<String, String> parent = Maps.immutableEntry(type, identifier);
+        final List<Map.Entry<String, String>> parents = new ArrayList<>(getParents(contexts));
+        if (parents.contains(parent)) {
+            return this;
+        }
+        parents.add(0, parent);
+        return setParents(contexts, parents);
+    }
+
+    @Override
+    public ImmutableSubjectData removeParent(Set<Map.Entry<String, String>> contexts, String type, String identifier) {
+        final List<Map.Entry<String, String>> parents = new ArrayList<>(getParents(contexts));
+        if (!parents.remove(Maps.immutableEntry(type, identifier))) {
+            return this;
+        }
+        return setParents(contexts, parents);
+    }
+
+    @Override
+    public ImmutableSubjectData setParents(Set<Map.Entry<String, String>> contexts, List<Map.Entry<String, String>> parents) {
+        return new OverlaySubjectData(this.options, this.permissions, with(this.parents, contexts, parents == null ? null : ImmutableList.copyOf(parents)), this.defaultValues);
+    }
+
+    @Override
+    public ImmutableSubjectData clearParents() {
+        return new OverlaySubjectData(this.options, this.permissions, ImmutableMap.<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>>of(), this.defaultValues);
+    }
+
+    @Override
+    public ImmutableSubjectData clearParents(Set<Map.Entry<String, String>> contexts) {
+        return setParents(contexts, null);
+    }
+
+    @Override
+    public int getDefaultValue(Set<Map.Entry<String, String>> contexts) {
+        final Integer ret = this.defaultValues.get(contexts);
+        return ret == null ? 0 : ret;
+    }
+
+    @Override
+    public ImmutableSubjectData setDefaultValue(Set<Map.Entry<String, String>> contexts, int defaultValue) {
+        return new OverlaySubjectData(this.options, this.permissions, this.parents, with(this.defaultValues, contexts, defaultValue));
+    }
+
+    @Override
+    public Map<Set<Map.Entry<String, String>>, Integer> getAllDefaultValues() {
+        return this.defaultValues;
+    }
+
+    @Override
+    public Set<Set<Map.Entry<String, String>>> getActiveContexts() {
+        return ImmutableSet.<Set<Map.Entry<String, String>>>builder()
+                .addAll(this.options.keySet())
+                .addAll(this.permissions.keySet())
+                .addAll(this.parents.keySet())
+                .addAll(this.defaultValues.keySet())
+                .build();
+    }
+
+    boolean isEmpty() {
+        return this.options.isEmpty() && this.permissions.isEmpty() && this.parents.isEmpty() && this.defaultValues.isEmpty();
+    }
+}
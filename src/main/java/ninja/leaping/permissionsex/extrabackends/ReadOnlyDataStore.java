@@ -16,28 +16,323 @@
  */
 package ninja.leaping.permissionsex.extrabackends;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import ninja.leaping.configurate.objectmapping.Setting;
+import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.backend.AbstractDataStore;
 import ninja.leaping.permissionsex.backend.DataStore;
 import ninja.leaping.permissionsex.data.ContextInheritance;
 import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
 import ninja.leaping.permissionsex.rank.RankLadder;
 import ninja.leaping.permissionsex.util.Util;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static ninja.leaping.permissionsex.util.Translations.t;
 
 /**
  * A specialization of AbstractDataStore that handles backends for a global data store
+ *
+ * <p>When the {@code overlay-journal} setting names a file, subject data written to this data store is recorded in an {@link OverlayJournal}
+ * and takes precedence over the backend's own data, which is never modified. Subjects read from the backend can be modified as usual,
+ * since the mutators of {@link ReadOnlySubjectData} produce in-memory copies. Rank ladders and context inheritance remain read-only.
+ * Journal entries are keyed by {@link #canonicalizeIdentifier(String, String) canonical identifier}, so that a subject reachable
+ * under several identifiers has a single entry, and writes are appended on the PermissionsEx async executor in the order they were made.</p>
  */
 public abstract class ReadOnlyDataStore extends AbstractDataStore {
+    protected final BackendMetrics metrics = new BackendMetrics(getClass().getSimpleName());
+    @Setting("overlay-journal")
+    private String overlayJournal = "";
+    @Setting("overlay-compact-threshold")
+    private int overlayCompactThreshold = 1000;
+    private volatile OverlayJournal overlay;
+    private final Object overlayWriteLock = new Object();
+    private CompletableFuture<?> pendingOverlayWrite = CompletableFuture.completedFuture(null);
 
     protected ReadOnlyDataStore(Factory factory) {
         super(factory);
     }
 
+    /**
+     * Get the load and call statistics recorded by this data store.
+     *
+     * @return This data store's metrics
+     */
+    public BackendMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    @Override
+    public void close() {
+        this.metrics.close();
+        if (this.overlay != null) {
+            try {
+                this.overlay.close();
+            } catch (IOException e) {
+                getManager().getLogger().warn(t("Unable to close overlay journal"), e);
+            }
+            this.overlay = null;
+        }
+    }
+
+    @Override
+    protected final void initializeInternal() throws PermissionsLoadingException {
+        this.metrics.publish(getMetricsIdentifier());
+        try {
+            initializeBase();
+        } catch (PermissionsLoadingException | RuntimeException e) {
+            this.metrics.close();
+            throw e;
+        }
+        if (!this.overlayJournal.isEmpty()) {
+            final Path path = getManager().getBaseDirectory().resolve(this.overlayJournal);
+            try {
+                this.overlay = OverlayJournal.open(path, this.overlayCompactThreshold, getManager().getLogger());
+            } catch (IOException e) {
+                close();
+                throw new PermissionsLoadingException(t("Unable to open overlay journal %s", path), e);
+            }
+            getManager().getLogger().info(t("Applied %s changed subjects from overlay journal %s", this.overlay.getEntries().size(), path));
+        }
+    }
+
+    /**
+     * Get a name identifying this data store among others of the same backend, such as the location its data is read from.
+     * It must be the same every time the data store is loaded, since it names the data store's metrics in JMX.
+     *
+     * @return The identifier
+     */
+    protected abstract String getMetricsIdentifier();
+
+    /**
+     * Load the backend's own data.
+     *
+     * @throws PermissionsLoadingException if the data could not be loaded
+     */
+    protected abstract void initializeBase() throws PermissionsLoadingException;
+
+    /**
+     * Get a future completing once the backend's data has been loaded.
+     * Overlay journal entries are only looked up and written once it completes,
+     * since identifiers can't be canonicalized before the backend knows its subjects.
+     *
+     * @return The load future, which is already complete for backends that load while being initialized
+     */
+    public CompletableFuture<Void> getLoadFuture() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Get when this data store's data, including the overlay journal, was last changed, without loading it.
+     * This may be called before the data store is initialized, for example to decide whether a copy of its data is out of date.
+     *
+     * @param manager The manager the data store is or would be initialized with
+     * @return The time of the most recent change, or null if the backend can't tell
+     * @throws IOException if the data could not be examined
+     */
+    public final FileTime getLastModified(PermissionsEx manager) throws IOException {
+        FileTime ret = getBaseLastModified();
+        if (ret != null && !this.overlayJournal.isEmpty()) {
+            final Path journal = manager.getBaseDirectory().resolve(this.overlayJournal);
+            if (Files.exists(journal)) {
+                final FileTime journalModified = Files.getLastModifiedTime(journal);
+                if (journalModified.compareTo(ret) > 0) {
+                    ret = journalModified;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get when the backend's own data was last changed, without loading it. This is called before the data store is initialized.
+     *
+     * @return The time of the most recent change, or null if the backend can't tell
+     * @throws IOException if the backend's data could not be examined
+     */
+    protected FileTime getBaseLastModified() throws IOException {
+        return null;
+    }
+
+    /**
+     * Get the identifier the backend stores a subject under, for example when subjects can also be found by an alias.
+     * Overlay journal entries are keyed by this identifier.
+     *
+     * @param type The subject's type
+     * @param identifier The requested identifier
+     * @return The canonical identifier, or {@code identifier} itself if the backend does not know the subject
+     */
+    protected String canonicalizeIdentifier(String type, String identifier) {
+        return identifier;
+    }
+
+    /**
+     * Run an operation on the overlay journal once the backend's data has been loaded.
+     */
+    private <T> CompletableFuture<T> afterLoad(Supplier<CompletableFuture<T>> action) {
+        final CompletableFuture<Void> loaded = getLoadFuture();
+        return loaded.isDone() ? action.get() : loaded.thenCompose(ignore -> action.get());
+    }
+
+    /**
+     * Get a subject's data from the backend, ignoring the overlay journal.
+     *
+     * @param type The subject's type
+     * @param identifier The subject's identifier
+     * @return The subject's data
+     */
+    protected abstract CompletableFuture<ImmutableSubjectData> getBaseData(String type, String identifier);
+
+    /**
+     * Check whether the backend holds data for a subject, ignoring the overlay journal.
+     *
+     * @param type The subject's type
+     * @param identifier The subject's identifier
+     * @return Whether the subject is registered
+     */
+    protected abstract CompletableFuture<Boolean> isRegisteredInBase(String type, String identifier);
+
+    /**
+     * Get the identifiers of every subject of a type in the backend, ignoring the overlay journal.
+     *
+     * @param type The type of subject
+     * @return The identifiers
+     */
+    protected abstract Set<String> getBaseIdentifiers(String type);
+
+    /**
+     * Get every subject in the backend, ignoring the overlay journal.
+     *
+     * @return All subjects
+     */
+    protected abstract Iterable<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> getBaseSubjects();
+
+    @Override
+    protected final CompletableFuture<ImmutableSubjectData> getDataInternal(String type, String identifier) {
+        final OverlayJournal overlay = this.overlay;
+        if (overlay == null) {
+            return getBaseData(type, identifier);
+        }
+        return afterLoad(() -> {
+            final ImmutableSubjectData ret = overlay.get(type, canonicalizeIdentifier(type, identifier));
+            return ret != null ? CompletableFuture.completedFuture(ret) : getBaseData(type, identifier);
+        });
+    }
+
     @Override
     protected CompletableFuture<ImmutableSubjectData> setDataInternal(String type, String identifier, ImmutableSubjectData data) {
-        return Util.failedFuture(new UnsupportedOperationException("The " + getClass().getSimpleName() + " backend is-read-only!"));
+        final OverlayJournal overlay = this.overlay;
+        if (overlay == null) {
+            return Util.failedFuture(new UnsupportedOperationException("The " + getClass().getSimpleName() + " backend is-read-only!"));
+        }
+        final OverlaySubjectData newData = data == null ? null : OverlaySubjectData.copyOf(data);
+        synchronized (this.overlayWriteLock) {
+            // Chained to the previous write, so that writes are appended in the order they were made
+            final CompletableFuture<ImmutableSubjectData> ret = CompletableFuture.allOf(this.pendingOverlayWrite, getLoadFuture()).thenApplyAsync(ignore -> {
+                try {
+                    return overlay.write(type, canonicalizeIdentifier(type, identifier), newData);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, getManager().getAsyncExecutor());
+            this.pendingOverlayWrite = ret.exceptionally(e -> null);
+            return ret;
+        }
+    }
+
+    @Override
+    public final CompletableFuture<Boolean> isRegistered(String type, String identifier) {
+        final OverlayJournal overlay = this.overlay;
+        if (overlay == null) {
+            return isRegisteredInBase(type, identifier);
+        }
+        return afterLoad(() -> {
+            final OverlaySubjectData data = overlay.get(type, canonicalizeIdentifier(type, identifier));
+            return data != null ? CompletableFuture.completedFuture(!data.isEmpty()) : isRegisteredInBase(type, identifier);
+        });
+    }
+
+    /**
+     * Get the journal's entries keyed by their current canonical identifiers.
+     * Entries recorded under an identifier that now resolves to another subject are merged into that subject,
+     * with the entry recorded under the canonical identifier itself taking precedence.
+     */
+    private Map<Map.Entry<String, String>, OverlaySubjectData> getCanonicalEntries(OverlayJournal overlay) {
+        final Map<Map.Entry<String, String>, OverlaySubjectData> ret = new LinkedHashMap<>();
+        for (Map.Entry<Map.Entry<String, String>, OverlaySubjectData> entry : overlay.getEntries().entrySet()) {
+            final String type = entry.getKey().getKey(), identifier = entry.getKey().getValue();
+            final String canonical = canonicalizeIdentifier(type, identifier);
+            if (canonical.equals(identifier)) {
+                ret.put(entry.getKey(), entry.getValue());
+            } else {
+                ret.putIfAbsent(Maps.immutableEntry(type, canonical), entry.getValue());
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public final Set<String> getAllIdentifiers(String type) {
+        final OverlayJournal overlay = this.overlay;
+        if (overlay == null || overlay.getEntries().isEmpty()) {
+            return getBaseIdentifiers(type);
+        }
+        final Set<String> ret = new LinkedHashSet<>(getBaseIdentifiers(type));
+        for (Map.Entry<Map.Entry<String, String>, OverlaySubjectData> entry : getCanonicalEntries(overlay).entrySet()) {
+            if (entry.getKey().getKey().equals(type)) {
+                if (entry.getValue().isEmpty()) {
+                    ret.remove(entry.getKey().getValue());
+                } else {
+                    ret.add(entry.getKey().getValue());
+                }
+            }
+        }
+        return ImmutableSet.copyOf(ret);
+    }
+
+    @Override
+    public final Iterable<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> getAll() {
+        final OverlayJournal overlay = this.overlay;
+        if (overlay == null || overlay.getEntries().isEmpty()) {
+            return getBaseSubjects();
+        }
+        final Map<Map.Entry<String, String>, OverlaySubjectData> entries = getCanonicalEntries(overlay);
+        return new Iterable<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>>() {
+            @Override
+            public Iterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> iterator() {
+                return Iterables.concat(Iterables.filter(getBaseSubjects(), subject -> !entries.containsKey(subject.getKey())),
+                        Iterables.transform(Iterables.filter(entries.entrySet(), entry -> !entry.getValue().isEmpty()),
+                                entry -> Maps.<Map.Entry<String, String>, ImmutableSubjectData>immutableEntry(entry.getKey(), entry.getValue()))).iterator();
+            }
+
+            @Override
+            public Spliterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> spliterator() {
+                // Keeps the base data's spliterator, so the subjects can still be split for parallel processing
+                return Stream.concat(StreamSupport.stream(getBaseSubjects().spliterator(), false).filter(subject -> !entries.containsKey(subject.getKey())),
+                        entries.entrySet().stream()
+                                .filter(entry -> !entry.getValue().isEmpty())
+                                .map(entry -> Maps.<Map.Entry<String, String>, ImmutableSubjectData>immutableEntry(entry.getKey(), entry.getValue())))
+                        .spliterator();
+            }
+        };
     }
 
     @Override
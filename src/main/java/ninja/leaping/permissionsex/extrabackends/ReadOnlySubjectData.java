@@ -22,74 +22,78 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * Subject data of a read-only backend. Modifications return an in-memory copy holding the change,
+ * which a {@link ReadOnlyDataStore} can only store when its overlay journal is enabled.
+ */
 public abstract class ReadOnlySubjectData implements ImmutableSubjectData {
     @Override
     public ImmutableSubjectData setOption(Set<Map.Entry<String, String>> contexts, String key, String value) {
-        return this;
+        return OverlaySubjectData.copyOf(this).setOption(contexts, key, value);
     }
 
     @Override
     public ImmutableSubjectData setOptions(Set<Map.Entry<String, String>> contexts, Map<String, String> values) {
-        return this;
+        return OverlaySubjectData.copyOf(this).setOptions(contexts, values);
     }
 
     @Override
     public ImmutableSubjectData clearOptions(Set<Map.Entry<String, String>> contexts) {
-        return this;
+        return OverlaySubjectData.copyOf(this).clearOptions(contexts);
     }
 
     @Override
     public ImmutableSubjectData clearOptions() {
-        return this;
+        return OverlaySubjectData.copyOf(this).clearOptions();
     }
 
     @Override
     public ImmutableSubjectData setPermission(Set<Map.Entry<String, String>> contexts, String permission, int value) {
-        return this;
+        return OverlaySubjectData.copyOf(this).setPermission(contexts, permission, value);
     }
 
     @Override
     public ImmutableSubjectData setPermissions(Set<Map.Entry<String, String>> contexts, Map<String, Integer> values) {
-        return this;
+        return OverlaySubjectData.copyOf(this).setPermissions(contexts, values);
     }
 
     @Override
     public ImmutableSubjectData clearPermissions() {
-        return this;
+        return OverlaySubjectData.copyOf(this).clearPermissions();
     }
 
     @Override
     public ImmutableSubjectData clearPermissions(Set<Map.Entry<String, String>> contexts) {
-        return this;
+        return OverlaySubjectData.copyOf(this).clearPermissions(contexts);
     }
 
     @Override
     public ImmutableSubjectData addParent(Set<Map.Entry<String, String>> contexts, String type, String identifier) {
-        return this;
+        return OverlaySubjectData.copyOf(this).addParent(contexts, type, identifier);
     }
 
     @Override
     public ImmutableSubjectData removeParent(Set<Map.Entry<String, String>> contexts, String type, String identifier) {
-        return this;
+        return OverlaySubjectData.copyOf(this).removeParent(contexts, type, identifier);
     }
 
     @Override
     public ImmutableSubjectData setParents(Set<Map.Entry<String, String>> contexts, List<Map.Entry<String, String>> parents) {
-        return this;
+        return OverlaySubjectData.copyOf(this).setParents(contexts, parents);
     }
 
     @Override
     public ImmutableSubjectData clearParents() {
-        return this;
+        return OverlaySubjectData.copyOf(this).clearParents();
     }
 
     @Override
     public ImmutableSubjectData clearParents(Set<Map.Entry<String, String>> contexts) {
-        return this;
+        return OverlaySubjectData.copyOf(this).clearParents(contexts);
     }
 
     @Override
     public ImmutableSubjectData setDefaultValue(Set<Map.Entry<String, String>> contexts, int defaultValue) {
-        return this;
+        return OverlaySubjectData.copyOf(this).setDefaultValue(contexts, defaultValue);
     }
 }
@@ -18,9 +18,11 @@ package ninja.leaping.permissionsex.extrabackends;
 
 import ninja.leaping.permissionsex.backend.DataStoreFactories;
 import ninja.leaping.permissionsex.extrabackends.groupmanager.GroupManagerDataStore;
+import ninja.leaping.permissionsex.extrabackends.pexbin.PexBinDataStore;
 
 class Registry {
     public static void register() {
         DataStoreFactories.register("groupmanager", GroupManagerDataStore.FACTORY);
+        DataStoreFactories.register("pexbin", PexBinDataStore.FACTORY);
     }
 }
@@ -16,6 +16,8 @@
  */
 package ninja.leaping.permissionsex.extrabackends;
 
+import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.game.state.GameStoppingServerEvent;
 import org.spongepowered.api.plugin.Dependency;
 import org.spongepowered.api.plugin.Plugin;
 
@@ -25,5 +27,11 @@ import org.spongepowered.api.plugin.Plugin;
 public class SpongePlugin {
     SpongePlugin() {
         Registry.register();
+        BackendMetrics.registerMBeans();
+    }
+
+    @Listener
+    public void onServerStopping(GameStoppingServerEvent event) {
+        BackendMetrics.unregisterMBeans();
     }
 }
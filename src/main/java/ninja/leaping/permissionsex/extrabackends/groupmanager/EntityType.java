@@ -16,29 +16,27 @@
  */
 package ninja.leaping.permissionsex.extrabackends.groupmanager;
 
-import ninja.leaping.configurate.ConfigurationNode;
-
 import java.util.Map;
 
 public enum  EntityType {
     USER {
         @Override
-        public ConfigurationNode getGlobalNode(GroupManagerDataStore dataStore) {
+        public Map<String, SubjectSnapshot> getGlobalSubjects(GroupManagerDataStore dataStore) {
             return null;
         }
 
         @Override
-        public ConfigurationNode getWorldNode(GroupManagerDataStore dataStore, String world) {
-            Map.Entry<ConfigurationNode, ConfigurationNode> worldPair = dataStore.getUserGroupsConfigForWorld(world);
-            if (worldPair == null) {
+        public Map<String, SubjectSnapshot> getWorldSubjects(GroupManagerDataStore dataStore, String world) {
+            WorldSnapshot worldData = dataStore.getUserGroupsConfigForWorld(world);
+            if (worldData == null) {
                 return null;
             }
-            return worldPair.getKey();
+            return worldData.getUsers();
         }
 
         @Override
-        public ConfigurationNode getNodeForSubject(ConfigurationNode root, String name) {
-            return root.getNode("users", name);
+        public SubjectSnapshot getWorldSubject(WorldSnapshot world, String identifier) {
+            return world.getUser(identifier);
         }
 
         @Override
@@ -48,54 +46,67 @@ public enum  EntityType {
     },
     GROUP {
         @Override
-        public ConfigurationNode getGlobalNode(GroupManagerDataStore dataStore) {
+        public Map<String, SubjectSnapshot> getGlobalSubjects(GroupManagerDataStore dataStore) {
             return dataStore.getGlobalGroups();
         }
 
         @Override
-        public ConfigurationNode getWorldNode(GroupManagerDataStore dataStore, String world) {
-            Map.Entry<ConfigurationNode, ConfigurationNode> worldPair = dataStore.getUserGroupsConfigForWorld(world);
-            if (worldPair == null) {
+        public Map<String, SubjectSnapshot> getWorldSubjects(GroupManagerDataStore dataStore, String world) {
+            WorldSnapshot worldData = dataStore.getUserGroupsConfigForWorld(world);
+            if (worldData == null) {
                 return null;
             }
-            return worldPair.getValue();
+            return worldData.getGroups();
         }
 
         @Override
-        public ConfigurationNode getNodeForSubject(ConfigurationNode root, String name) {
-            ConfigurationNode ret = root.getNode("groups", name);
-            if (ret.isVirtual()) {
-                ConfigurationNode global = root.getNode("groups", "g:" + name);
-                if (!global.isVirtual()) {
-                    return global;
-                }
-            }
-            return ret;
+        public SubjectSnapshot getWorldSubject(WorldSnapshot world, String identifier) {
+            return world.getGroups().get(identifier);
         }
     },
     OTHER {
         @Override
-        public ConfigurationNode getGlobalNode(GroupManagerDataStore dataStore) {
+        public Map<String, SubjectSnapshot> getGlobalSubjects(GroupManagerDataStore dataStore) {
             return null;
         }
 
         @Override
-        public ConfigurationNode getWorldNode(GroupManagerDataStore dataStore, String world) {
+        public Map<String, SubjectSnapshot> getWorldSubjects(GroupManagerDataStore dataStore, String world) {
             return null;
         }
 
         @Override
-        public ConfigurationNode getNodeForSubject(ConfigurationNode root, String name) {
+        public SubjectSnapshot getWorldSubject(WorldSnapshot world, String identifier) {
             return null;
         }
     };
 
 
-    public abstract ConfigurationNode getGlobalNode(GroupManagerDataStore dataStore);
+    public abstract Map<String, SubjectSnapshot> getGlobalSubjects(GroupManagerDataStore dataStore);
 
-    public abstract ConfigurationNode getWorldNode(GroupManagerDataStore dataStore, String world);
+    public abstract Map<String, SubjectSnapshot> getWorldSubjects(GroupManagerDataStore dataStore, String world);
+
+    /**
+     * Get a single subject defined in a world. Users are also found by UUID or last known name, ignoring case.
+     *
+     * @param dataStore The data store to read from
+     * @param world The world to look in
+     * @param identifier The subject's identifier
+     * @return The subject's data, or null if it is not defined in the world
+     */
+    public SubjectSnapshot getWorldSubject(GroupManagerDataStore dataStore, String world, String identifier) {
+        final WorldSnapshot worldData = dataStore.getUserGroupsConfigForWorld(world);
+        return worldData == null ? null : getWorldSubject(worldData, identifier);
+    }
 
-    public abstract ConfigurationNode getNodeForSubject(ConfigurationNode root, String name);
+    /**
+     * Get a single subject from a world's loaded data. Users are also found by UUID or last known name, ignoring case.
+     *
+     * @param world The world's data
+     * @param identifier The subject's identifier
+     * @return The subject's data, or null if it is not defined in the world
+     */
+    public abstract SubjectSnapshot getWorldSubject(WorldSnapshot world, String identifier);
 
     public String getInheritanceKey() {
         return "inheritance";
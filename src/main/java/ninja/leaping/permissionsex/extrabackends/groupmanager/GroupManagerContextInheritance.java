@@ -18,34 +18,137 @@ package ninja.leaping.permissionsex.extrabackends.groupmanager;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.permissionsex.data.ContextInheritance;
-import ninja.leaping.permissionsex.util.Util;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+/**
+ * Context inheritance built from GroupManager's {@code settings.mirrors} configuration.
+ * Every mirrored world has the world it mirrors as a context parent.
+ * The world each mirrored world takes its users and groups from is resolved once here, following chains of mirrors to the world actually holding the data.
+ */
 public class GroupManagerContextInheritance implements ContextInheritance {
     private final Map<String, List<Map.Entry<String, String>>> worlds;
+    private final Map<Map.Entry<String, String>, List<Map.Entry<String, String>>> allParents;
+    private final Map<String, String> userMirrors;
+    private final Map<String, String> groupMirrors;
 
     public GroupManagerContextInheritance(ConfigurationNode mirrorsNode) {
-        worlds = new HashMap<>();
+        final Map<String, List<Map.Entry<String, String>>> worlds = new LinkedHashMap<>();
+        final Map<String, String> userMirrors = new LinkedHashMap<>();
+        final Map<String, String> groupMirrors = new LinkedHashMap<>();
         for (Map.Entry<Object, ? extends ConfigurationNode> entry : mirrorsNode.getChildrenMap().entrySet()) {
-            final Map.Entry<String, String> worldContext = Maps.immutableEntry("world", entry.getKey().toString());
-            for (Object child : entry.getValue().getChildrenMap().keySet()) {
-                List<Map.Entry<String, String>> world = worlds.get(child.toString());
-                if (world == null) {
-                    world = new ArrayList<>();
-                    worlds.put(child.toString(), world);
+            final String source = entry.getKey().toString();
+            final Map.Entry<String, String> worldContext = Maps.immutableEntry("world", source);
+            final Map<String, Set<String>> children = new LinkedHashMap<>(); // world -> mirrored types, empty for all types
+            if (entry.getValue().hasListChildren()) { // Older configurations only list the mirrored worlds
+                for (ConfigurationNode child : entry.getValue().getChildrenList()) {
+                    children.put(child.getString(), ImmutableSet.<String>of());
+                }
+            } else {
+                for (Map.Entry<Object, ? extends ConfigurationNode> child : entry.getValue().getChildrenMap().entrySet()) {
+                    final Set<String> types = new HashSet<>();
+                    for (ConfigurationNode type : child.getValue().getChildrenList()) {
+                        types.add(type.getString("").toLowerCase());
+                    }
+                    children.put(child.getKey().toString(), types);
+                }
+            }
+
+            for (Map.Entry<String, Set<String>> child : children.entrySet()) {
+                final String world = child.getKey();
+                final Set<String> types = child.getValue();
+                List<Map.Entry<String, String>> parents = worlds.get(world);
+                if (parents == null) {
+                    parents = new ArrayList<>();
+                    worlds.put(world, parents);
+                }
+                parents.add(worldContext);
+
+                if (types.isEmpty() || types.contains("users")) {
+                    userMirrors.putIfAbsent(world, source);
+                }
+                if (types.isEmpty() || types.contains("groups")) {
+                    groupMirrors.putIfAbsent(world, source);
                 }
-                world.add(worldContext);
             }
         }
+
+        final ImmutableMap.Builder<String, List<Map.Entry<String, String>>> worldsBuilder = ImmutableMap.builder();
+        final ImmutableMap.Builder<Map.Entry<String, String>, List<Map.Entry<String, String>>> allParentsBuilder = ImmutableMap.builder();
+        for (Map.Entry<String, List<Map.Entry<String, String>>> entry : worlds.entrySet()) {
+            final List<Map.Entry<String, String>> parents = ImmutableList.copyOf(entry.getValue());
+            worldsBuilder.put(entry.getKey(), parents);
+            allParentsBuilder.put(Maps.immutableEntry("world", entry.getKey()), parents);
+        }
+        this.worlds = worldsBuilder.build();
+        this.allParents = allParentsBuilder.build();
+        this.userMirrors = resolveMirrors(userMirrors);
+        this.groupMirrors = resolveMirrors(groupMirrors);
     }
 
+    /**
+     * Follow each mirror to the end of its chain, dropping mirrors that form a cycle since no world in the cycle holds any data.
+     */
+    private static Map<String, String> resolveMirrors(Map<String, String> mirrors) {
+        final ImmutableMap.Builder<String, String> ret = ImmutableMap.builder();
+        for (String world : mirrors.keySet()) {
+            final Set<String> visited = new HashSet<>();
+            String source = world;
+            while (mirrors.containsKey(source) && visited.add(source)) {
+                source = mirrors.get(source);
+            }
+            if (!mirrors.containsKey(source)) {
+                ret.put(world, source);
+            }
+        }
+        return ret.build();
+    }
+
+    /**
+     * Get the world whose data of the given type is used for {@code world}.
+     *
+     * @param world The world to check
+     * @param type The type of data
+     * @return The world holding the data, or null if the world's data of this type is not mirrored
+     */
+    String getMirrorSource(String world, EntityType type) {
+        switch (type) {
+            case USER:
+                return this.userMirrors.get(world);
+            case GROUP:
+                return this.groupMirrors.get(world);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get every world that mirrors users or groups from another world.
+     *
+     * @return The mirrored worlds
+     */
+    Set<String> getMirroredWorlds() {
+        return ImmutableSet.<String>builder().addAll(this.userMirrors.keySet()).addAll(this.groupMirrors.keySet()).build();
+    }
+
+    /**
+     * Check whether a world mirrors users or groups from another world.
+     *
+     * @param world The world to check
+     * @return Whether any of the world's data is mirrored
+     */
+    boolean isMirrored(String world) {
+        return this.userMirrors.containsKey(world) || this.groupMirrors.containsKey(world);
+    }
 
     @Override
     public List<Map.Entry<String, String>> getParents(Map.Entry<String, String> context) {
@@ -67,10 +170,6 @@ public class GroupManagerContextInheritance implements ContextInheritance {
 
     @Override
     public Map<Map.Entry<String, String>, List<Map.Entry<String, String>>> getAllParents() {
-        final ImmutableMap.Builder<Map.Entry<String, String>, List<Map.Entry<String, String>>> ret = ImmutableMap.builder();
-        for (Map.Entry<String, List<Map.Entry<String, String>>> entry : worlds.entrySet()) {
-            ret.put(Util.subjectFromString(entry.getKey()), entry.getValue());
-        }
-        return ret.build();
+        return this.allParents;
     }
 }
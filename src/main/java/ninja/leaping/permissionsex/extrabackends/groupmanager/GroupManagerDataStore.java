@@ -16,12 +16,14 @@
  */
 package ninja.leaping.permissionsex.extrabackends.groupmanager;
 
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.Futures;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.loader.ConfigurationLoader;
 import ninja.leaping.configurate.objectmapping.Setting;
@@ -29,21 +31,38 @@ import ninja.leaping.configurate.yaml.YAMLConfigurationLoader;
 import ninja.leaping.permissionsex.data.ContextInheritance;
 import ninja.leaping.permissionsex.data.ImmutableSubjectData;
 import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.extrabackends.BackendMetrics;
 import ninja.leaping.permissionsex.extrabackends.ReadOnlyDataStore;
 import ninja.leaping.permissionsex.rank.FixedRankLadder;
 import ninja.leaping.permissionsex.rank.RankLadder;
 import org.yaml.snakeyaml.DumperOptions;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_GROUP;
 import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
@@ -57,11 +76,43 @@ public class GroupManagerDataStore extends ReadOnlyDataStore {
 
     @Setting("group-manager-root")
     private String groupManagerRoot = "plugins/GroupManager";
+    @Setting("parallel-load")
+    private boolean parallelLoad = false;
+    @Setting("load-threads")
+    private int loadThreads = 0;
+    @Setting("watch-files")
+    private boolean watchFiles = false;
+    @Setting("watch-debounce-ms")
+    private long watchDebounceMillis = 1000;
+    @Setting("parse-cache-dir")
+    private String parseCacheDir = "";
+    @Setting("lazy-worlds")
+    private boolean lazyWorlds = false;
+    @Setting("lazy-max-loaded-worlds")
+    private int lazyMaxLoadedWorlds = 0;
+    @Setting("lazy-max-memory-mb")
+    private long lazyMaxMemoryMb = 0;
+    @Setting("async-load")
+    private boolean asyncLoad = false;
 
-    private ConfigurationNode config;
-    private ConfigurationNode globalGroups;
-    private Map<String, Map.Entry<ConfigurationNode, ConfigurationNode>> worldUserGroups;
-    private GroupManagerContextInheritance contextInheritance;
+    private Path rootDir;
+    private volatile Map<String, SubjectSnapshot> globalGroups;
+    private volatile InheritanceClosure globalInheritance = InheritanceClosure.EMPTY;
+    private volatile Map<String, WorldSnapshot> worldUserGroups;
+    private volatile Map<String, WorldNames> worldNames = ImmutableMap.of();
+    private final WorldContexts worldContexts = new WorldContexts();
+    private volatile WorldSnapshot[] worldsByContext = new WorldSnapshot[0];
+    private volatile LoadingCache<String, LoadedWorld> lazyWorldCache;
+    private volatile SubjectIndex subjectIndex = SubjectIndex.EMPTY;
+    private volatile Map<EntityType, Cache<String, CompletableFuture<ImmutableSubjectData>>> subjectDataCache = createSubjectDataCache();
+    private volatile GroupManagerContextInheritance contextInheritance;
+    private volatile CompletableFuture<Void> loaded = CompletableFuture.completedFuture(null);
+    private volatile Map<String, WorldSnapshot> loadingWorlds = ImmutableMap.of();
+    private final Object reloadLock = new Object();
+    private volatile boolean closed;
+    private GroupManagerFileWatcher watcher; // Guarded by reloadLock
+    private SnapshotCache parseCache;
+    private SymbolTable symbols;
 
     protected GroupManagerDataStore() {
         super(FACTORY);
@@ -74,46 +125,887 @@ public class GroupManagerDataStore extends ReadOnlyDataStore {
                 .build();
     }
 
-    ConfigurationNode getGlobalGroups() {
+    Map<String, SubjectSnapshot> getGlobalGroups() {
         return globalGroups;
     }
 
-    Map.Entry<ConfigurationNode, ConfigurationNode> getUserGroupsConfigForWorld(String world) {
-        return worldUserGroups.get(world);
+    InheritanceClosure getGlobalInheritance() {
+        return globalInheritance;
+    }
+
+    WorldSnapshot getUserGroupsConfigForWorld(String world) {
+        if (this.lazyWorldCache == null) {
+            return worldUserGroups.get(world);
+        }
+        if (!this.worldNames.containsKey(world) && !this.contextInheritance.isMirrored(world)) {
+            return null;
+        }
+        final String userSource = this.contextInheritance.getMirrorSource(world, EntityType.USER);
+        if (userSource != null && userSource.equals(this.contextInheritance.getMirrorSource(world, EntityType.GROUP))) {
+            world = userSource; // Fully mirrored worlds share the cache entry of their source
+        }
+        return this.lazyWorldCache.getUnchecked(world).snapshot;
+    }
+
+    /**
+     * Get the data of a world by its interned context. With every world loaded, this is a direct array access.
+     *
+     * @param world The world's context
+     * @return The world's data, or null if the world is not loaded
+     */
+    WorldSnapshot getUserGroupsConfigForWorld(WorldContext world) {
+        if (this.lazyWorldCache != null) {
+            return getUserGroupsConfigForWorld(world.getWorld());
+        }
+        final WorldSnapshot[] worlds = this.worldsByContext;
+        return world.getIndex() < worlds.length ? worlds[world.getIndex()] : null;
+    }
+
+    /**
+     * Get the worlds whose data is currently held by the lazy world cache.
+     *
+     * @return The names of loaded worlds, or an empty set if worlds are not loaded lazily
+     */
+    Set<String> getLazyLoadedWorlds() {
+        final LoadingCache<String, LoadedWorld> cache = this.lazyWorldCache;
+        return cache == null ? ImmutableSet.<String>of() : ImmutableSet.copyOf(cache.asMap().keySet());
+    }
+
+    WorldContexts getWorldContexts() {
+        return this.worldContexts;
+    }
+
+    Map<String, WorldNames> getWorldNames() {
+        return worldNames;
+    }
+
+    SubjectIndex getSubjectIndex() {
+        return subjectIndex;
+    }
+
+    /**
+     * Create an empty cache of subject data for each subject type.
+     * Values are softly referenced, so data for subjects that are no longer in use can be collected under memory pressure.
+     */
+    private static Map<EntityType, Cache<String, CompletableFuture<ImmutableSubjectData>>> createSubjectDataCache() {
+        final Map<EntityType, Cache<String, CompletableFuture<ImmutableSubjectData>>> ret = new EnumMap<>(EntityType.class);
+        for (EntityType type : EntityType.values()) {
+            ret.put(type, CacheBuilder.newBuilder().softValues().<String, CompletableFuture<ImmutableSubjectData>>build());
+        }
+        return Collections.unmodifiableMap(ret);
     }
 
     @Override
-    protected void initializeInternal() throws PermissionsLoadingException {
+    protected String getMetricsIdentifier() {
+        return this.groupManagerRoot;
+    }
+
+    @Override
+    protected void initializeBase() throws PermissionsLoadingException {
         final Path rootFile = Paths.get(groupManagerRoot);
         if (!Files.isDirectory(rootFile)) {
             throw new PermissionsLoadingException(t("GroupManager directory %s does not exist", rootFile)); // TODO: Actual translations
         }
+        this.rootDir = rootFile;
+        this.symbols = new SymbolTable();
+        this.parseCache = parseCacheDir.isEmpty() ? null : new SnapshotCache(getManager().getBaseDirectory().resolve(parseCacheDir));
         try {
-            config = getLoader(rootFile.resolve("config.yml")).load();
-            globalGroups = getLoader(rootFile.resolve("globalgroups.yml")).load();
-            worldUserGroups = new HashMap<>();
-            Files.list(rootFile.resolve("worlds"))
-                    .filter(Files::isDirectory)
-                    .forEach(world -> {
-                        try {
-                            worldUserGroups.put(world.getFileName().toString(), Maps.immutableEntry(
-                                    getLoader(world.resolve("users.yml")).load(),
-                                    getLoader(world.resolve("groups.yml")).load()));
-                        } catch (IOException e) {
-                            throw new RuntimeException(e); // TODO
-                        }
-
-                    });
-            contextInheritance = new GroupManagerContextInheritance(config.getNode("settings", "mirrors"));
+            contextInheritance = loadContextInheritance();
+            if (asyncLoad) {
+                globalGroups = ImmutableMap.of();
+                worldUserGroups = ImmutableMap.of();
+                loaded = CompletableFuture.runAsync(() -> {
+                    try {
+                        load();
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, getManager().getAsyncExecutor());
+                loaded.whenComplete((ignore, error) -> {
+                    if (error != null && !closed) {
+                        getManager().getLogger().error(t("Unable to load GroupManager data, it will not be available"), error);
+                    }
+                });
+                getManager().getLogger().info(t("Loading GroupManager data in the background"));
+            } else {
+                load();
+            }
         } catch (IOException e) {
             throw new PermissionsLoadingException(e);
         }
+    }
+
+    /**
+     * Get the latest modification time of the YAML files this data store reads and the directories containing them,
+     * so that adding or removing a world also counts as a change.
+     */
+    @Override
+    protected FileTime getBaseLastModified() throws IOException {
+        final Path rootFile = Paths.get(groupManagerRoot);
+        if (!Files.isDirectory(rootFile)) {
+            return null;
+        }
+        FileTime ret = Files.getLastModifiedTime(rootFile);
+        try (Stream<Path> files = Files.walk(rootFile, 3)) { // root/worlds/<world>/users.yml
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isDirectory(file) || file.getFileName().toString().endsWith(".yml")) {
+                    final FileTime modified = Files.getLastModifiedTime(file);
+                    if (modified.compareTo(ret) > 0) {
+                        ret = modified;
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Load global groups and every world, then start watching for changes if enabled.
+     * Global groups are loaded first, and worlds in descending order of the size of their users file.
+     * A background load stops early once the data store has been closed, and the watcher is then not started.
+     */
+    private void load() throws IOException {
+        final long start = System.nanoTime();
+        reloadGlobalGroups();
+        checkNotClosed();
+        if (lazyWorlds) {
+            lazyWorldCache = buildLazyWorldCache();
+            worldUserGroups = new ConcurrentHashMap<>();
+            worldNames = scanWorldNames(rootDir.resolve("worlds"));
+        } else {
+            worldUserGroups = loadWorlds(rootDir.resolve("worlds"));
+        }
+        checkNotClosed();
+        rebuildIndex();
+        loadingWorlds = ImmutableMap.of();
+        metrics.recordFullLoad(System.nanoTime() - start);
+        if (lazyWorlds) {
+            getManager().getLogger().info(t("Indexed %s GroupManager worlds in %sms, their data will be loaded on first use",
+                    worldNames.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } else {
+            getManager().getLogger().info(t("Loaded %s GroupManager worlds in %sms", worldUserGroups.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        }
+        getManager().getLogger().info(t("Deduplicated %s loaded strings to %s unique strings (ratio %s)", symbols.getStringRequests(), symbols.getUniqueStrings(),
+                String.format("%.2f", symbols.getDeduplicationRatio())));
+        if (watchFiles) {
+            synchronized (this.reloadLock) {
+                checkNotClosed();
+                watcher = new GroupManagerFileWatcher(rootDir, watchDebounceMillis, this::handleFileChange);
+                watcher.start();
+            }
+        }
+    }
+
+    private void checkNotClosed() {
+        if (this.closed) {
+            throw new CancellationException("The GroupManager data store was closed while loading");
+        }
+    }
+
+    /**
+     * Fail a read once this data store has been closed. Closing cancels a background load, which also completes {@link #loaded},
+     * so without this check reads would be served from whatever part of the data that load had populated.
+     */
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("The GroupManager data store has been closed");
+        }
+    }
+
+    private static <T> CompletableFuture<T> closedFuture() {
+        final CompletableFuture<T> ret = new CompletableFuture<>();
+        ret.completeExceptionally(new IllegalStateException("The GroupManager data store has been closed"));
+        return ret;
+    }
+
+    /**
+     * Get a future completing once this data store's data has been loaded.
+     * Unless {@code async-load} is enabled, this is already complete when the data store has been initialized.
+     * Until it completes, requests for subject data wait for the load, {@code isRegistered} answers early for subjects that have already been loaded,
+     * and {@code getAllIdentifiers} and {@code getAll} return no subjects.
+     *
+     * @return The future, which completes exceptionally if loading failed
+     */
+    @Override
+    public CompletableFuture<Void> getLoadFuture() {
+        return this.loaded;
+    }
+
+    /**
+     * Users are canonicalized to the name they are stored under in GroupManager when requested by UUID or last name,
+     * so that overlay journal entries written through an alias replace the stored user instead of adding another.
+     */
+    @Override
+    protected String canonicalizeIdentifier(String type, String identifier) {
+        final String resolved = this.subjectIndex.resolve(EntityType.forTypeString(type), identifier);
+        return resolved == null ? identifier : resolved;
+    }
+
+    private GroupManagerContextInheritance loadContextInheritance() throws IOException {
+        return new GroupManagerContextInheritance(getLoader(this.rootDir.resolve("config.yml")).load().getNode("settings", "mirrors"));
+    }
+
+    /**
+     * Load the subjects stored in a GroupManager data file, using the parse cache when it is enabled and up to date.
+     *
+     * @param file The file to load
+     * @param type The type of subject the file holds
+     * @param symbols The symbol table to canonicalize data into
+     * @return The compiled subjects
+     * @throws IOException if the file could not be read
+     */
+    private Map<String, SubjectSnapshot> loadSubjects(Path file, EntityType type, SymbolTable symbols) throws IOException {
+        final long start = System.nanoTime();
+        if (this.parseCache != null) {
+            final Map<String, SubjectSnapshot> cached = this.parseCache.read(file, type, symbols);
+            if (cached != null) {
+                getManager().getLogger().debug(t("Loaded %s from the parse cache", file));
+                this.metrics.recordFileLoad(this.rootDir.relativize(file).toString(), System.nanoTime() - start);
+                return cached;
+            }
+        }
+
+        final Map<String, SubjectSnapshot> ret = this.parseCache == null ? parseSubjects(file, type, symbols) : parseAndCache(file, type, symbols);
+        this.metrics.recordFileLoad(this.rootDir.relativize(file).toString(), System.nanoTime() - start);
+        return ret;
+    }
+
+    /**
+     * Parse a GroupManager data file. Files are streamed through {@link GroupManagerYamlReader} where possible,
+     * only falling back to building a full configuration tree for files that use YAML features the streaming reader does not support.
+     */
+    private Map<String, SubjectSnapshot> parseSubjects(Path file, EntityType type, SymbolTable symbols) throws IOException {
+        try {
+            return GroupManagerYamlReader.read(file, type, symbols);
+        } catch (GroupManagerYamlReader.UnsupportedDocumentException e) {
+            getManager().getLogger().debug(t("Loading %s with the full YAML loader: %s", file, e.getMessage()));
+            return WorldSnapshot.compileSubjects(getLoader(file).load().getNode(type == EntityType.USER ? "users" : "groups"), type, symbols);
+        }
+    }
+
+    /**
+     * Parse a GroupManager data file and store the result in the parse cache.
+     * The cache entry must describe exactly the contents that were parsed, so the file is fingerprinted as it is streamed to the parser.
+     *
+     * @see #parseSubjects(Path, EntityType, SymbolTable)
+     */
+    private Map<String, SubjectSnapshot> parseAndCache(Path file, EntityType type, SymbolTable symbols) throws IOException {
+        try (SnapshotCache.Source source = SnapshotCache.Source.open(file)) {
+            if (source == null) {
+                return ImmutableMap.of();
+            }
+            final Map<String, SubjectSnapshot> ret = GroupManagerYamlReader.read(source.getReader(), file, type, symbols);
+            writeParseCache(source, type, ret);
+            return ret;
+        } catch (GroupManagerYamlReader.UnsupportedDocumentException e) {
+            getManager().getLogger().debug(t("Loading %s with the full YAML loader: %s", file, e.getMessage()));
+        }
+        try (SnapshotCache.Source source = SnapshotCache.Source.open(file)) {
+            if (source == null) {
+                return ImmutableMap.of();
+            }
+            final ConfigurationNode node = YAMLConfigurationLoader.builder()
+                    .setSource(() -> new BufferedReader(source.getReader()))
+                    .build()
+                    .load();
+            final Map<String, SubjectSnapshot> ret = WorldSnapshot.compileSubjects(node.getNode(type == EntityType.USER ? "users" : "groups"), type, symbols);
+            writeParseCache(source, type, ret);
+            return ret;
+        }
+    }
+
+    private void writeParseCache(SnapshotCache.Source source, EntityType type, Map<String, SubjectSnapshot> subjects) {
+        try {
+            this.parseCache.write(source, type, subjects);
+        } catch (IOException e) {
+            getManager().getLogger().warn(t("Unable to write parse cache for %s", source.getPath()), e);
+        }
+    }
+
+    /**
+     * Read only the names of the subjects in a GroupManager data file, and the aliases of users if {@code aliases} is not null.
+     */
+    private Set<String> readSubjectNames(Path file, EntityType type, UserAliases.Builder aliases) throws IOException {
+        try {
+            return GroupManagerYamlReader.readNames(file, type, aliases);
+        } catch (GroupManagerYamlReader.UnsupportedDocumentException e) {
+            final Map<String, SubjectSnapshot> subjects = parseSubjects(file, type, new SymbolTable());
+            if (aliases != null) {
+                aliases.addAll(UserAliases.of(subjects));
+            }
+            return subjects.keySet();
+        }
+    }
+
+    /**
+     * Run an action for every world directory, in parallel if parallel loading is enabled.
+     */
+    private void forEachWorldDir(Path worldsDir, Consumer<Path> action) throws IOException {
+        final List<Path> worldDirs;
+        try (Stream<Path> children = Files.list(worldsDir)) {
+            worldDirs = children.filter(Files::isDirectory).collect(Collectors.toList());
+        }
+        // The most populated worlds first, so they are available soonest and a parallel load is not left waiting on one large world
+        final Map<Path, Long> userFileSizes = new HashMap<>();
+        for (Path world : worldDirs) {
+            userFileSizes.put(world, getFileSize(world.resolve("users.yml")));
+        }
+        worldDirs.sort((a, b) -> Long.compare(userFileSizes.get(b), userFileSizes.get(a)));
+
+        if (parallelLoad && worldDirs.size() > 1) {
+            final ForkJoinPool loadPool = new ForkJoinPool(loadThreads > 0 ? loadThreads : Runtime.getRuntime().availableProcessors());
+            try {
+                CompletableFuture.allOf(worldDirs.stream()
+                        .map(world -> CompletableFuture.runAsync(() -> action.accept(world), loadPool))
+                        .toArray(CompletableFuture[]::new)).join();
+            } finally {
+                loadPool.shutdown();
+            }
+        } else {
+            for (Path world : worldDirs) {
+                action.accept(world);
+            }
+        }
+    }
+
+    private static long getFileSize(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Map<String, WorldSnapshot> loadWorlds(Path worldsDir) throws IOException {
+        final Map<String, WorldSnapshot> worlds = new ConcurrentHashMap<>();
+        this.loadingWorlds = worlds; // Lets isRegistered answer from worlds that have already been loaded during an asynchronous load
+        forEachWorldDir(worldsDir, world -> loadWorld(world, worlds));
+        applyMirrors(worlds);
+        return worlds;
+    }
+
+    /**
+     * Index the subject names of every world without loading the worlds' data, for lazy loading.
+     */
+    private Map<String, WorldNames> scanWorldNames(Path worldsDir) throws IOException {
+        final Map<String, WorldNames> names = new ConcurrentHashMap<>();
+        forEachWorldDir(worldsDir, world -> scanWorld(world, names));
+        removeMirroredNames(names);
+        return ImmutableMap.copyOf(names);
+    }
+
+    private void scanWorld(Path worldDir, Map<String, WorldNames> names) {
+        final String world = worldDir.getFileName().toString();
+        try {
+            final UserAliases.Builder aliases = UserAliases.builder();
+            names.put(world, new WorldNames(readSubjectNames(worldDir.resolve("users.yml"), EntityType.USER, aliases),
+                    readSubjectNames(worldDir.resolve("groups.yml"), EntityType.GROUP, null), aliases.build()));
+        } catch (IOException | RuntimeException e) {
+            getManager().getLogger().error(t("Unable to index GroupManager world %s, its data will not be available", world), e);
+        }
+    }
+
+    /**
+     * Remove the names of mirrored data from the scanned names of lazily loaded worlds, see {@link #getOwnNames(String, WorldNames)}.
+     */
+    private void removeMirroredNames(Map<String, WorldNames> names) {
+        for (String world : this.contextInheritance.getMirroredWorlds()) {
+            final WorldNames scanned = names.get(world);
+            if (scanned != null) {
+                final WorldNames own = getOwnNames(world, scanned);
+                if (own == null) {
+                    names.remove(world);
+                } else {
+                    names.put(world, own);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the names of the subjects a world defines itself. Data a world mirrors from another world is left out:
+     * it is reported for the world it is defined in, and applies to the mirrored world through context inheritance.
+     *
+     * @param world The world's name
+     * @param names The names of every subject available in the world
+     * @return The world's own names, or null if all of its data is mirrored
+     */
+    private WorldNames getOwnNames(String world, WorldNames names) {
+        final boolean usersMirrored = this.contextInheritance.getMirrorSource(world, EntityType.USER) != null;
+        final boolean groupsMirrored = this.contextInheritance.getMirrorSource(world, EntityType.GROUP) != null;
+        if (usersMirrored && groupsMirrored) {
+            return null;
+        } else if (!usersMirrored && !groupsMirrored) {
+            return names;
+        }
+        return new WorldNames(usersMirrored ? ImmutableSet.<String>of() : names.getUsers(), groupsMirrored ? ImmutableSet.<String>of() : names.getGroups(),
+                usersMirrored ? UserAliases.EMPTY : names.getUserAliases());
+    }
+
+    /**
+     * Build the cache of lazily loaded worlds. It has a single segment, since Guava divides size limits evenly between segments
+     * and evicts within each one: with several, a world weighing more than its segment's share would be evicted as soon as it was loaded,
+     * and eviction would not follow the least recently used world across the whole cache.
+     */
+    private LoadingCache<String, LoadedWorld> buildLazyWorldCache() {
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().concurrencyLevel(1);
+        if (lazyMaxMemoryMb > 0) {
+            builder.maximumWeight(lazyMaxMemoryMb * 1024).weigher((String world, LoadedWorld loaded) -> loaded.weightKb);
+        } else if (lazyMaxLoadedWorlds > 0) {
+            builder.maximumSize(lazyMaxLoadedWorlds);
+        }
+        return builder.removalListener(notification -> updateRetainedSize())
+                .build(new CacheLoader<String, LoadedWorld>() {
+                    @Override
+                    public LoadedWorld load(String world) {
+                        return loadLazyWorld(world);
+                    }
+                });
+    }
+
+    /**
+     * A lazily loaded world, weighed by an estimate of its size.
+     */
+    private static final class LoadedWorld {
+        private final WorldSnapshot snapshot;
+        private final int weightKb;
+
+        private LoadedWorld(WorldSnapshot snapshot, int weightKb) {
+            this.snapshot = snapshot;
+            this.weightKb = weightKb;
+        }
+    }
+
+    /**
+     * Load a world on first use. Each lazily loaded world has its own symbol table, so that evicting the world releases all of its data.
+     * A world that fails to load is logged once and cached as empty until its files change.
+     *
+     * @param world The world to load
+     * @return The loaded world
+     */
+    private LoadedWorld loadLazyWorld(String world) {
+        final long start = System.nanoTime();
+        final SymbolTable worldSymbols = new SymbolTable();
+        final Path worldDir = this.rootDir.resolve("worlds").resolve(world);
+        final String userSource = this.contextInheritance.getMirrorSource(world, EntityType.USER);
+        final String groupSource = this.contextInheritance.getMirrorSource(world, EntityType.GROUP);
+        WorldSnapshot snapshot;
+        try {
+            final Map<String, SubjectSnapshot> users = userSource == null ? loadSubjects(worldDir.resolve("users.yml"), EntityType.USER, worldSymbols)
+                    : this.lazyWorldCache.getUnchecked(userSource).snapshot.getUsers();
+            final Map<String, SubjectSnapshot> groups = groupSource == null ? loadSubjects(worldDir.resolve("groups.yml"), EntityType.GROUP, worldSymbols)
+                    : this.lazyWorldCache.getUnchecked(groupSource).snapshot.getGroups();
+            snapshot = linkWorld(world, users, groups, worldSymbols);
+            getManager().getLogger().debug(t("Loaded GroupManager world %s on first use in %sms", world, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } catch (IOException | RuntimeException e) {
+            getManager().getLogger().error(t("Unable to load GroupManager world %s, its data will not be available", world), e);
+            snapshot = WorldSnapshot.EMPTY;
+        }
+        final long bytes = new RetainedSizeEstimator().addSubjects(snapshot.getUsers()).addSubjects(snapshot.getGroups()).getBytes();
+        final LoadedWorld ret = new LoadedWorld(snapshot, (int) Math.min(Integer.MAX_VALUE, (bytes >> 10) + 1));
+        this.metrics.setEstimatedRetainedBytes(new RetainedSizeEstimator().addSubjects(this.globalGroups).getBytes() + loadedWorldBytes() + ((long) ret.weightKb << 10));
+        return ret;
+    }
+
+    private long loadedWorldBytes() {
+        long ret = 0;
+        for (LoadedWorld loaded : this.lazyWorldCache.asMap().values()) {
+            ret += (long) loaded.weightKb << 10;
+        }
+        return ret;
+    }
+
+    private void updateRetainedSize() {
+        this.metrics.setEstimatedRetainedBytes(new RetainedSizeEstimator().addSubjects(this.globalGroups).getBytes() + loadedWorldBytes());
+    }
+
+    /**
+     * Load a single world into {@code worlds}. A world that fails to load is logged and left out,
+     * so that one broken file does not prevent the rest of the data from being available.
+     *
+     * @param worldDir The world's directory
+     * @param worlds The map to add the loaded world to
+     */
+    private void loadWorld(Path worldDir, Map<String, WorldSnapshot> worlds) {
+        if (this.closed) {
+            return; // Closed during a background load, which stops once the remaining worlds have been skipped
+        }
+        final String world = worldDir.getFileName().toString();
+        final boolean usersMirrored = this.contextInheritance.getMirrorSource(world, EntityType.USER) != null;
+        final boolean groupsMirrored = this.contextInheritance.getMirrorSource(world, EntityType.GROUP) != null;
+        if (usersMirrored && groupsMirrored) {
+            getManager().getLogger().debug(t("Not loading GroupManager world %s, its data is mirrored from another world", world));
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            worlds.put(world, linkWorld(world,
+                    usersMirrored ? ImmutableMap.<String, SubjectSnapshot>of() : loadSubjects(worldDir.resolve("users.yml"), EntityType.USER, this.symbols),
+                    groupsMirrored ? ImmutableMap.<String, SubjectSnapshot>of() : loadSubjects(worldDir.resolve("groups.yml"), EntityType.GROUP, this.symbols)));
+            getManager().getLogger().debug(t("Loaded GroupManager world %s in %sms", world, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } catch (IOException | RuntimeException e) {
+            getManager().getLogger().error(t("Unable to load GroupManager world %s, its data will not be available", world), e);
+        }
+    }
+
+    private WorldSnapshot linkWorld(String world, Map<String, SubjectSnapshot> users, Map<String, SubjectSnapshot> groups) {
+        return linkWorld(world, users, groups, this.symbols);
+    }
+
+    private WorldSnapshot linkWorld(String world, Map<String, SubjectSnapshot> users, Map<String, SubjectSnapshot> groups, SymbolTable symbols) {
+        return new WorldSnapshot(users, groups, linkInheritance(world, groups, users, symbols));
+    }
+
+    /**
+     * Compute the transitive group inheritance of a world, warning about any inheritance cycles.
+     * Cyclic edges are left out of the closure rather than failing the load.
+     *
+     * @param world The world to compute inheritance for, or null for global groups
+     * @param groups The groups defined in the world
+     * @param users The users defined in the world
+     * @param symbols The symbol table to canonicalize the closure into
+     * @return The computed closure
+     */
+    private InheritanceClosure linkInheritance(String world, Map<String, SubjectSnapshot> groups, Map<String, SubjectSnapshot> users, SymbolTable symbols) {
+        return InheritanceClosure.build(groups, world == null ? ImmutableMap.<String, SubjectSnapshot>of() : this.globalGroups, users.values(), symbols,
+                cycle -> getManager().getLogger().warn(t("Group inheritance cycle in GroupManager %s: %s",
+                        world == null ? "global groups" : "world " + world, Joiner.on(" -> ").join(cycle))));
+    }
+
+    /**
+     * Recompute the inheritance of every loaded world, after global groups they may refer to have changed.
+     */
+    private void relinkWorlds() {
+        for (Map.Entry<String, WorldSnapshot> world : this.worldUserGroups.entrySet()) {
+            this.worldUserGroups.put(world.getKey(), linkWorld(world.getKey(), world.getValue().getUsers(), world.getValue().getGroups()));
+        }
+    }
+
+    /**
+     * Point every mirrored world at the data of the world it mirrors.
+     * Worlds mirroring both users and groups from the same world share that world's snapshot,
+     * while partially mirrored worlds combine their own data with the mirrored half.
+     * Mirrored worlds are added even when they have no directory of their own, so that lookups in a mirrored world resolve to the shared data.
+     * Mirrored data is not indexed as defined in the mirrored world, see {@link #getOwnNames(String, WorldNames)}.
+     *
+     * @param worlds The loaded worlds to add mirrored worlds to
+     */
+    private void applyMirrors(Map<String, WorldSnapshot> worlds) {
+        for (String world : this.contextInheritance.getMirroredWorlds()) {
+            final String userSource = this.contextInheritance.getMirrorSource(world, EntityType.USER);
+            final String groupSource = this.contextInheritance.getMirrorSource(world, EntityType.GROUP);
+            final WorldSnapshot own = worlds.getOrDefault(world, WorldSnapshot.EMPTY);
+            final WorldSnapshot users = userSource == null ? own : worlds.getOrDefault(userSource, WorldSnapshot.EMPTY);
+            final WorldSnapshot groups = groupSource == null ? own : worlds.getOrDefault(groupSource, WorldSnapshot.EMPTY);
+            if (users == groups) {
+                worlds.put(world, users);
+            } else {
+                worlds.put(world, linkWorld(world, users.getUsers(), groups.getGroups()));
+            }
+        }
+    }
+
+    /**
+     * Rebuild the subject index after the set of subjects may have changed, and publish the new state to this data store's metrics.
+     * Cached subject data is kept, see {@link #publishChanges(LoadedState)}.
+     */
+    private void rebuildIndex() {
+        if (this.lazyWorldCache == null) {
+            final ImmutableMap.Builder<String, WorldNames> names = ImmutableMap.builder();
+            for (Map.Entry<String, WorldSnapshot> world : this.worldUserGroups.entrySet()) {
+                final WorldNames own = getOwnNames(world.getKey(), WorldNames.of(world.getValue()));
+                if (own != null) {
+                    names.put(world.getKey(), own);
+                }
+                this.worldContexts.intern(world.getKey());
+            }
+            this.worldNames = names.build();
+            final WorldSnapshot[] worlds = new WorldSnapshot[this.worldContexts.size()];
+            for (Map.Entry<String, WorldSnapshot> world : this.worldUserGroups.entrySet()) {
+                worlds[this.worldContexts.intern(world.getKey()).getIndex()] = world.getValue();
+            }
+            this.worldsByContext = worlds;
+        } else {
+            for (String world : this.contextInheritance.getMirroredWorlds()) { // Mirrored worlds are not indexed, but can still be looked up
+                this.worldContexts.intern(world);
+            }
+        }
+        this.subjectIndex = SubjectIndex.build(this.globalGroups.keySet(), this.worldNames, this.worldContexts);
+        updateMetrics();
+    }
+
+    /**
+     * The loaded data of this data store at one point in time, to compare the data of a reload against.
+     */
+    private static final class LoadedState {
+        private final Map<String, SubjectSnapshot> globalGroups;
+        private final InheritanceClosure globalInheritance;
+        private final Map<String, WorldSnapshot> worlds;
+        private final Map<String, WorldNames> worldNames;
+        private final SubjectIndex subjectIndex;
+
+        private LoadedState(Map<String, SubjectSnapshot> globalGroups, InheritanceClosure globalInheritance, Map<String, WorldSnapshot> worlds,
+                            Map<String, WorldNames> worldNames, SubjectIndex subjectIndex) {
+            this.globalGroups = globalGroups;
+            this.globalInheritance = globalInheritance;
+            this.worlds = worlds;
+            this.worldNames = worldNames;
+            this.subjectIndex = subjectIndex;
+        }
+    }
+
+    /**
+     * Capture the currently loaded data. With lazily loaded worlds, only the worlds loaded at the moment are included.
+     */
+    private LoadedState captureState() {
+        final ImmutableMap.Builder<String, WorldSnapshot> worlds = ImmutableMap.builder();
+        if (this.lazyWorldCache == null) {
+            worlds.putAll(this.worldUserGroups);
+        } else {
+            for (Map.Entry<String, LoadedWorld> world : this.lazyWorldCache.asMap().entrySet()) {
+                worlds.put(world.getKey(), world.getValue().snapshot);
+            }
+        }
+        return new LoadedState(this.globalGroups, this.globalInheritance, worlds.build(), this.worldNames, this.subjectIndex);
+    }
+
+    /**
+     * Compare the current data against the state before a reload, then discard cached data and notify listeners for changed subjects only.
+     * Lazily loaded worlds that were loaded before the reload are loaded again to be compared. Worlds that were not loaded
+     * were not in use, so only the subjects added to or removed from them are detected.
+     *
+     * @param previous The state before the reload
+     */
+    private void publishChanges(LoadedState previous) {
+        final SubjectDiff diff = new SubjectDiff();
+        diff.compareGlobal(previous.globalGroups, previous.globalInheritance, this.globalGroups, this.globalInheritance);
+        for (String world : ImmutableSet.<String>builder().addAll(previous.worldNames.keySet()).addAll(this.worldNames.keySet()).build()) {
+            final WorldSnapshot before = previous.worlds.get(world);
+            if (before != null) {
+                diff.compareWorld(before, previous.globalInheritance, getUserGroupsConfigForWorld(world), this.globalInheritance);
+            } else if (this.lazyWorldCache == null) {
+                diff.compareWorld(null, previous.globalInheritance, getUserGroupsConfigForWorld(world), this.globalInheritance);
+            } else {
+                diff.compareNames(previous.worldNames.get(world), this.worldNames.get(world));
+            }
+        }
 
+        final SubjectIndex oldIndex = previous.subjectIndex, newIndex = this.subjectIndex;
+        for (Map.Entry<EntityType, Cache<String, CompletableFuture<ImmutableSubjectData>>> cache : this.subjectDataCache.entrySet()) {
+            cache.getValue().asMap().keySet().removeIf(identifier -> diff.isAffected(cache.getKey(), identifier, oldIndex, newIndex));
+        }
+        int notified = 0;
+        for (Map.Entry<String, String> subject : this.listeners.getAllKeys()) {
+            final EntityType type = EntityType.forTypeString(subject.getKey());
+            if (type != EntityType.OTHER && diff.isAffected(type, subject.getValue(), oldIndex, newIndex)) {
+                getDataInternal(subject.getKey(), subject.getValue()).thenAccept(data -> this.listeners.call(subject, data));
+                ++notified;
+            }
+        }
+        getManager().getLogger().debug(t("GroupManager reload changed %s users and %s groups, notified %s subjects",
+                diff.getChanged(EntityType.USER).size(), diff.getChanged(EntityType.GROUP).size(), notified));
     }
 
+    /**
+     * Publish subject counts and the estimated size of the loaded data to this data store's metrics.
+     */
+    private void updateMetrics() {
+        final Map<String, Integer> users = new HashMap<>();
+        final Map<String, Integer> groups = new HashMap<>();
+        groups.put(BackendMetrics.GLOBAL_WORLD, this.globalGroups.size());
+        for (Map.Entry<String, WorldNames> world : this.worldNames.entrySet()) {
+            users.put(world.getKey(), world.getValue().getUsers().size());
+            groups.put(world.getKey(), world.getValue().getGroups().size());
+        }
+        this.metrics.setSubjectCounts(users, groups);
+        if (this.lazyWorldCache != null) {
+            updateRetainedSize();
+            return;
+        }
+
+        final Set<WorldSnapshot> distinctWorlds = Collections.newSetFromMap(new IdentityHashMap<WorldSnapshot, Boolean>());
+        final RetainedSizeEstimator size = new RetainedSizeEstimator().addSubjects(this.globalGroups);
+        for (WorldSnapshot world : this.worldUserGroups.values()) {
+            if (distinctWorlds.add(world)) {
+                size.addSubjects(world.getUsers()).addSubjects(world.getGroups());
+            }
+        }
+        this.metrics.setEstimatedRetainedBytes(size.getBytes());
+    }
+
+    /**
+     * Apply a change to a file in the GroupManager directory, re-reading only the data stored in that file.
+     * A changed world is replaced as a whole, so readers see either the previous or the new version of the world.
+     *
+     * @param changed The path that changed, or the GroupManager root directory if every file should be re-read
+     */
+    void handleFileChange(Path changed) {
+        synchronized (this.reloadLock) {
+            final Path relative = this.rootDir.relativize(changed);
+            try {
+                final long start = System.nanoTime();
+                final LoadedState previous = captureState();
+                if (!(this.lazyWorldCache == null ? applyChange(changed, relative) : applyLazyChange(changed, relative))) {
+                    return;
+                }
+                if (changed.equals(this.rootDir)) {
+                    this.metrics.recordFullLoad(System.nanoTime() - start);
+                }
+                rebuildIndex();
+                publishChanges(previous);
+                getManager().getLogger().info(t("Reloaded GroupManager data from %s", relative));
+            } catch (IOException | RuntimeException e) {
+                getManager().getLogger().error(t("Unable to reload GroupManager data from %s, previously loaded data will be kept", relative), e);
+            }
+        }
+    }
+
+    /**
+     * Reload the data affected by a changed file, with every world loaded.
+     *
+     * @return Whether the file holds any GroupManager data
+     */
+    private boolean applyChange(Path changed, Path relative) throws IOException {
+        if (changed.equals(this.rootDir)) {
+            this.symbols = new SymbolTable(); // Every subject is read again, so the statistics start over
+            this.contextInheritance = loadContextInheritance();
+            reloadGlobalGroups();
+            this.worldUserGroups = loadWorlds(this.rootDir.resolve("worlds"));
+        } else if (relative.getNameCount() == 1) {
+            switch (relative.toString()) {
+                case "config.yml": // Mirrors decide which world files are loaded
+                    this.contextInheritance = loadContextInheritance();
+                    this.worldUserGroups = loadWorlds(this.rootDir.resolve("worlds"));
+                    break;
+                case "globalgroups.yml":
+                    reloadGlobalGroups();
+                    relinkWorlds();
+                    break;
+                case "worlds":
+                    this.worldUserGroups = Files.isDirectory(changed) ? loadWorlds(changed) : new ConcurrentHashMap<>();
+                    break;
+                default:
+                    return false;
+            }
+        } else if (relative.getName(0).toString().equals("worlds")) {
+            final String world = relative.getName(1).toString();
+            final Path worldDir = this.rootDir.resolve("worlds").resolve(world);
+            if (!Files.isDirectory(worldDir)) {
+                this.worldUserGroups.remove(world);
+            } else if (relative.getNameCount() == 2) {
+                loadWorld(worldDir, this.worldUserGroups);
+            } else if (relative.getNameCount() == 3 && this.contextInheritance.getMirroredWorlds().contains(world)
+                    && (relative.getName(2).toString().equals("users.yml") || relative.getName(2).toString().equals("groups.yml"))) {
+                loadWorld(worldDir, this.worldUserGroups); // Only reads the half that is not mirrored
+            } else if (relative.getNameCount() == 3 && relative.getName(2).toString().equals("users.yml")) {
+                this.worldUserGroups.put(world, linkWorld(world, loadSubjects(changed, EntityType.USER, this.symbols),
+                        this.worldUserGroups.getOrDefault(world, WorldSnapshot.EMPTY).getGroups()));
+            } else if (relative.getNameCount() == 3 && relative.getName(2).toString().equals("groups.yml")) {
+                this.worldUserGroups.put(world, linkWorld(world, this.worldUserGroups.getOrDefault(world, WorldSnapshot.EMPTY).getUsers(),
+                        loadSubjects(changed, EntityType.GROUP, this.symbols)));
+            } else {
+                return false;
+            }
+        } else {
+            return false;
+        }
+        applyMirrors(this.worldUserGroups);
+        return true;
+    }
+
+    /**
+     * Re-index the data affected by a changed file when worlds are loaded lazily.
+     * Affected worlds are evicted, to be loaded again on their next use.
+     *
+     * @return Whether the file holds any GroupManager data
+     */
+    private boolean applyLazyChange(Path changed, Path relative) throws IOException {
+        if (changed.equals(this.rootDir)) {
+            this.symbols = new SymbolTable(); // Every subject is read again, so the statistics start over
+            this.contextInheritance = loadContextInheritance();
+            reloadGlobalGroups();
+            this.worldNames = scanWorldNames(this.rootDir.resolve("worlds"));
+            this.lazyWorldCache.invalidateAll();
+        } else if (relative.getNameCount() == 1) {
+            switch (relative.toString()) {
+                case "config.yml":
+                    this.contextInheritance = loadContextInheritance();
+                    this.worldNames = scanWorldNames(this.rootDir.resolve("worlds"));
+                    break;
+                case "globalgroups.yml": // Loaded worlds link to global groups
+                    reloadGlobalGroups();
+                    break;
+                case "worlds":
+                    this.worldNames = Files.isDirectory(changed) ? scanWorldNames(changed) : ImmutableMap.<String, WorldNames>of();
+                    break;
+                default:
+                    return false;
+            }
+            this.lazyWorldCache.invalidateAll();
+        } else if (relative.getName(0).toString().equals("worlds")) {
+            final String world = relative.getName(1).toString();
+            final Path worldDir = this.rootDir.resolve("worlds").resolve(world);
+            final Map<String, WorldNames> names = new HashMap<>(this.worldNames);
+            if (!Files.isDirectory(worldDir)) {
+                names.remove(world);
+            } else if (relative.getNameCount() == 2 || relative.getName(2).toString().equals("users.yml") || relative.getName(2).toString().equals("groups.yml")) {
+                scanWorld(worldDir, names);
+            } else {
+                return false;
+            }
+            removeMirroredNames(names);
+            this.worldNames = ImmutableMap.copyOf(names);
+            this.lazyWorldCache.invalidate(world);
+            for (String mirror : this.contextInheritance.getMirroredWorlds()) {
+                if (world.equals(this.contextInheritance.getMirrorSource(mirror, EntityType.USER))
+                        || world.equals(this.contextInheritance.getMirrorSource(mirror, EntityType.GROUP))) {
+                    this.lazyWorldCache.invalidate(mirror);
+                }
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void reloadGlobalGroups() throws IOException {
+        this.globalGroups = loadSubjects(this.rootDir.resolve("globalgroups.yml"), EntityType.GROUP, this.symbols);
+        this.globalInheritance = linkInheritance(null, this.globalGroups, ImmutableMap.<String, SubjectSnapshot>of(), this.symbols);
+    }
+
+    /**
+     * Get the data for a subject. Until the next reload, every request for the same subject returns the same completed future,
+     * whose data caches its results once computed.
+     * Users requested by UUID or last name share the data of the user they resolve to.
+     * While an asynchronous load is in progress, the returned future completes once loading has finished.
+     */
     @Override
-    protected CompletableFuture<ImmutableSubjectData> getDataInternal(String type, String identifier) {
-        return CompletableFuture.completedFuture(new GroupManagerSubjectData(identifier, this, EntityType.forTypeString(type)));
+    protected CompletableFuture<ImmutableSubjectData> getBaseData(String type, String identifier) {
+        if (this.closed) {
+            return closedFuture();
+        }
+        final CompletableFuture<Void> loaded = this.loaded;
+        if (!loaded.isDone()) {
+            return loaded.thenCompose(ignore -> getBaseData(type, identifier));
+        }
+        final long start = System.nanoTime();
+        try {
+            final EntityType entityType = EntityType.forTypeString(type);
+            final Cache<String, CompletableFuture<ImmutableSubjectData>> cache = this.subjectDataCache.get(entityType);
+            CompletableFuture<ImmutableSubjectData> ret = cache.getIfPresent(identifier);
+            if (ret == null) {
+                final String resolved = this.subjectIndex.resolve(entityType, identifier);
+                final String key = resolved == null ? identifier : resolved;
+                ret = cache.asMap().computeIfAbsent(key, k -> CompletableFuture.completedFuture(new GroupManagerSubjectData(k, this, entityType)));
+                if (!key.equals(identifier)) {
+                    cache.put(identifier, ret);
+                }
+            }
+            return ret;
+        } finally {
+            this.metrics.record(BackendMetrics.Operation.GET_DATA, start);
+        }
     }
 
     @Override
@@ -126,51 +1018,73 @@ public class GroupManagerDataStore extends ReadOnlyDataStore {
         return CompletableFuture.completedFuture(contextInheritance);
     }
 
+    /**
+     * Close this data store. A background load that is still running is cancelled:
+     * requests waiting for it complete exceptionally, and the load stops before reading the next world.
+     * Any later read fails with an {@link IllegalStateException}.
+     */
     @Override
     public void close() {
+        this.closed = true;
+        this.loaded.cancel(false);
+        super.close();
+        final GroupManagerFileWatcher watcher;
+        synchronized (this.reloadLock) { // Once released, a background load sees the closed flag and does not start a watcher
+            watcher = this.watcher;
+            this.watcher = null;
+        }
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                getManager().getLogger().warn(t("Unable to stop watching GroupManager files"), e);
+            }
+        }
     }
 
     @Override
-    public CompletableFuture<Boolean> isRegistered(String type, String identifier) {
-        if (type.equals(SUBJECTS_USER)) {
-            for (Map.Entry<String, Map.Entry<ConfigurationNode, ConfigurationNode>> ent : this.worldUserGroups.entrySet()) {
-                if (!ent.getValue().getKey().getNode("users", identifier).isVirtual()) {
-                    return CompletableFuture.completedFuture(true);
-                }
-
-            }
-        } else if (type.equals(SUBJECTS_GROUP)) {
-            if (!globalGroups.getNode("groups", "g:" + identifier).isVirtual()) {
+    protected CompletableFuture<Boolean> isRegisteredInBase(String type, String identifier) {
+        if (this.closed) {
+            return closedFuture();
+        }
+        final CompletableFuture<Void> loaded = this.loaded;
+        if (!loaded.isDone()) {
+            if (isLoadedSoFar(EntityType.forTypeString(type), identifier)) {
                 return CompletableFuture.completedFuture(true);
             }
-            for (Map.Entry<String, Map.Entry<ConfigurationNode, ConfigurationNode>> ent : this.worldUserGroups.entrySet()) {
-                if (!ent.getValue().getValue().getNode("groups", identifier).isVirtual()) {
-                    return CompletableFuture.completedFuture(true);
-                }
+            return loaded.thenCompose(ignore -> isRegisteredInBase(type, identifier));
+        }
+        final long start = System.nanoTime();
+        try {
+            return CompletableFuture.completedFuture(this.subjectIndex.resolve(EntityType.forTypeString(type), identifier) != null);
+        } finally {
+            this.metrics.record(BackendMetrics.Operation.IS_REGISTERED, start);
+        }
+    }
 
+    /**
+     * Check whether a subject is defined in the data loaded so far by an asynchronous load.
+     */
+    private boolean isLoadedSoFar(EntityType type, String identifier) {
+        if (type == EntityType.GROUP && this.globalGroups.containsKey(identifier)) {
+            return true;
+        }
+        for (WorldSnapshot world : this.loadingWorlds.values()) {
+            if (type == EntityType.USER ? world.getUser(identifier) != null : world.getGroups().containsKey(identifier)) {
+                return true;
             }
-
         }
-        return CompletableFuture.completedFuture(false);
+        return false;
     }
 
     @Override
-    public Set<String> getAllIdentifiers(String type) {
-        if (type.equals(SUBJECTS_USER)) {
-            return this.worldUserGroups.values().stream()
-                    .map(input -> input.getKey().getNode("users").getChildrenMap().keySet())
-                    .flatMap(Set::stream)
-                    .map(Object::toString)
-                    .collect(Collectors.toSet());
-        } else if (type.equals(SUBJECTS_GROUP)) {
-            return Sets.newHashSet(Iterables.transform(Iterables.concat(Iterables.concat(Iterables.transform(this.worldUserGroups.values(), input -> input.getValue().getNode("groups").getChildrenMap().keySet())), Iterables.transform(globalGroups.getNode("groups").getChildrenMap().keySet(), input -> {
-                if (input instanceof String && ((String) input).startsWith("g:")) {
-                    input = ((String) input).substring(2);
-                }
-                return input;
-            })), Object::toString));
-        } else {
-            return ImmutableSet.of();
+    protected Set<String> getBaseIdentifiers(String type) {
+        checkOpen();
+        final long start = System.nanoTime();
+        try {
+            return this.subjectIndex.getIdentifiers(EntityType.forTypeString(type));
+        } finally {
+            this.metrics.record(BackendMetrics.Operation.GET_ALL_IDENTIFIERS, start);
         }
     }
 
@@ -179,10 +1093,28 @@ public class GroupManagerDataStore extends ReadOnlyDataStore {
         return ImmutableSet.of(SUBJECTS_USER, SUBJECTS_GROUP);
     }
 
+    /**
+     * Get every subject stored in this data store. Subjects are read lazily from the loaded data as the result is iterated.
+     * The result's {@link Iterable#spliterator() spliterator} splits by world and subject type, so the subjects can be processed in parallel
+     * through {@link java.util.stream.StreamSupport#stream(Spliterator, boolean)}.
+     * Complete iterations through {@link Iterable#iterator()} are recorded in this data store's {@link #getMetrics() metrics}.
+     *
+     * @return All subjects
+     */
     @Override
-    public Iterable<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> getAll() {
-        return Iterables.transform(Iterables.concat(Iterables.transform(getAllIdentifiers(SUBJECTS_USER), name -> Maps.immutableEntry(SUBJECTS_USER, name)),
-                Iterables.transform(getAllIdentifiers(SUBJECTS_GROUP), name -> Maps.immutableEntry(SUBJECTS_GROUP, name))), input -> Maps.immutableEntry(input, Futures.getUnchecked(getData(input.getKey(), input.getValue(), null))));
+    protected Iterable<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> getBaseSubjects() {
+        checkOpen();
+        return new Iterable<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>>() {
+            @Override
+            public Iterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> iterator() {
+                return metrics.timeIteration(BackendMetrics.Operation.GET_ALL, Spliterators.iterator(spliterator()));
+            }
+
+            @Override
+            public Spliterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> spliterator() {
+                return new SubjectSpliterator(GroupManagerDataStore.this);
+            }
+        };
     }
 
     @Override
@@ -195,7 +1127,71 @@ public class GroupManagerDataStore extends ReadOnlyDataStore {
         return CompletableFuture.completedFuture(false);
     }
 
+    /**
+     * Resolve a single permission for a subject directly from the loaded data, without creating subject data.
+     *
+     * @param type The type of subject
+     * @param identifier The subject's identifier
+     * @param world The world to check in, or null to check the subject's global data
+     * @param permission The permission to check
+     * @return The value of the most specific matching node, otherwise the subject's default value
+     * @see GroupManagerSubjectData#getPermissionValue(Set, String)
+     */
+    public int getPermissionValue(String type, String identifier, String world, String permission) {
+        checkOpen();
+        final EntityType entityType = EntityType.forTypeString(type);
+        final SubjectSnapshot subject;
+        if (world == null) {
+            final Map<String, SubjectSnapshot> subjects = entityType.getGlobalSubjects(this);
+            subject = subjects == null ? null : subjects.get(identifier);
+        } else {
+            subject = entityType.getWorldSubject(this, world, identifier);
+        }
+        return subject == null ? 0 : subject.getPermissionValue(permission);
+    }
+
+    /**
+     * Get the ordered, transitive ancestors of a group, as precomputed when its world was loaded.
+     *
+     * @param world The world to resolve the group in, or null for global groups
+     * @param group The group's name
+     * @return The group's ancestors, not including the group itself
+     */
+    public List<Map.Entry<String, String>> getGroupAncestors(String world, String group) {
+        checkOpen();
+        if (world == null) {
+            return this.globalInheritance.getAncestors(group);
+        }
+        final WorldSnapshot snapshot = getUserGroupsConfigForWorld(world);
+        if (snapshot == null) {
+            return ImmutableList.of();
+        }
+        return snapshot.getInheritance().getAncestors(group, this.globalInheritance);
+    }
+
+    /**
+     * Get every group a user belongs to in a world, directly or through inheritance.
+     *
+     * @param world The world the user is defined in
+     * @param user The user's key, UUID or last known name
+     * @return The user's direct groups followed by their ancestors
+     */
+    public List<Map.Entry<String, String>> getEffectiveGroups(String world, String user) {
+        checkOpen();
+        final WorldSnapshot snapshot = getUserGroupsConfigForWorld(world);
+        final SubjectSnapshot subject = snapshot == null ? null : snapshot.getUser(user);
+        if (subject == null || subject.getParents().isEmpty()) {
+            return ImmutableList.of();
+        }
+        return snapshot.getInheritance().getEffectiveGroups(subject.getParents(), this.globalInheritance);
+    }
+
+    /**
+     * Get every world this data store has data for, including worlds whose data is entirely mirrored from another world.
+     *
+     * @return The worlds' names
+     */
     public Collection<String> getKnownWorlds() {
-        return this.worldUserGroups.keySet();
+        return ImmutableSet.<String>builder().addAll(this.worldNames.keySet()).addAll(this.contextInheritance.getMirroredWorlds()).build();
     }
 }
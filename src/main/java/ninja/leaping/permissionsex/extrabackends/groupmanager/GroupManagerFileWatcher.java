@@ -0,0 +1,134 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Watches a GroupManager directory for changes to its data files.
+ * Bursts of events are coalesced: changed paths are only passed on once no further events have arrived for the debounce period.
+ * If the watch service drops events, the root directory itself is reported as changed.
+ */
+class GroupManagerFileWatcher implements Runnable, Closeable {
+    private final Path rootDir;
+    private final Path worldsDir;
+    private final long debounceMillis;
+    private final Consumer<Path> changeHandler;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    GroupManagerFileWatcher(Path rootDir, long debounceMillis, Consumer<Path> changeHandler) throws IOException {
+        this.rootDir = rootDir;
+        this.worldsDir = rootDir.resolve("worlds");
+        this.debounceMillis = debounceMillis;
+        this.changeHandler = changeHandler;
+        this.watchService = rootDir.getFileSystem().newWatchService();
+        register(rootDir);
+        if (Files.isDirectory(worldsDir)) {
+            register(worldsDir);
+            try (Stream<Path> worlds = Files.list(worldsDir)) {
+                for (Path world : (Iterable<Path>) worlds.filter(Files::isDirectory)::iterator) {
+                    register(world);
+                }
+            }
+        }
+        this.thread = new Thread(this, "PEX GroupManager file watcher");
+        this.thread.setDaemon(true);
+    }
+
+    private void register(Path dir) throws IOException {
+        this.watchedDirs.put(dir.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+    }
+
+    public void start() {
+        this.thread.start();
+    }
+
+    @Override
+    public void run() {
+        final Set<Path> pending = new LinkedHashSet<>();
+        try {
+            while (true) {
+                final WatchKey key = pending.isEmpty() ? this.watchService.take() : this.watchService.poll(this.debounceMillis, TimeUnit.MILLISECONDS);
+                if (key == null) { // Quiet period has elapsed
+                    for (Path changed : pending) {
+                        this.changeHandler.accept(changed);
+                    }
+                    pending.clear();
+                    continue;
+                }
+
+                collectChanges(this.watchedDirs.get(key), key.pollEvents(), pending);
+                if (!key.reset()) {
+                    this.watchedDirs.remove(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
+        }
+    }
+
+    /**
+     * Add the paths changed by a batch of events to {@code pending}, and start watching newly created world directories.
+     *
+     * @param dir The directory the events were reported for, or null if it is no longer watched
+     * @param events The events
+     * @param pending The paths waiting to be passed on
+     */
+    void collectChanges(Path dir, List<WatchEvent<?>> events, Set<Path> pending) {
+        for (WatchEvent<?> event : events) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                pending.add(this.rootDir);
+                continue;
+            }
+            final Path changed = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)
+                    && (dir.equals(this.worldsDir) || changed.equals(this.worldsDir))) {
+                try {
+                    register(changed);
+                } catch (IOException e) {
+                    pending.add(this.rootDir);
+                }
+            }
+            pending.add(changed);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.watchService.close();
+        this.thread.interrupt();
+    }
+}
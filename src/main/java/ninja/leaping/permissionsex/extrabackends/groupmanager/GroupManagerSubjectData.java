@@ -18,25 +18,19 @@ package ninja.leaping.permissionsex.extrabackends.groupmanager;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.reflect.TypeToken;
-import ninja.leaping.configurate.ConfigurationNode;
-import ninja.leaping.configurate.objectmapping.ObjectMappingException;
-import ninja.leaping.permissionsex.PermissionsEx;
-import ninja.leaping.permissionsex.backend.ConversionUtils;
 import ninja.leaping.permissionsex.extrabackends.ReadOnlySubjectData;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 public class GroupManagerSubjectData extends ReadOnlySubjectData {
-    private static final TypeToken<Map<String, String>> TYPE_MAP_STRING_STRING = new TypeToken<Map<String, String>>() {};
     private final String identifier;
     private final GroupManagerDataStore dataStore;
     private final EntityType type;
+    private volatile Memoized memoized;
 
     public GroupManagerSubjectData(final String identifier, GroupManagerDataStore dataStore, EntityType type) {
         this.identifier = identifier;
@@ -44,146 +38,196 @@ public class GroupManagerSubjectData extends ReadOnlySubjectData {
         this.type = type;
     }
 
-    private static boolean isValidContexts(Set<Map.Entry<String, String>> contexts) {
-        if (contexts.size() == 1 && contexts.iterator().next().getKey().equals("world")) {
-            return true;
-        } else if (contexts.isEmpty()) {
-            return true;
+    /**
+     * Results of the getAll* methods, computed on first use against one subject index.
+     * Every reload replaces the index, so results computed before a reload are dropped even if this instance is still referenced.
+     */
+    private static final class Memoized {
+        private final SubjectIndex index;
+        private volatile Map<Set<Map.Entry<String, String>>, Map<String, String>> allOptions;
+        private volatile Map<Set<Map.Entry<String, String>>, Map<String, Integer>> allPermissions;
+        private volatile Map<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> allParents;
+        private volatile Map<Set<Map.Entry<String, String>>, Integer> allDefaultValues;
+
+        private Memoized(SubjectIndex index) {
+            this.index = index;
         }
-        return false;
     }
 
-    private ConfigurationNode getNodeForContexts(Set<Map.Entry<String, String>> contexts) {
-        if (!isValidContexts(contexts)) {
-            return null;
+    private Memoized getMemoized() {
+        final SubjectIndex index = this.dataStore.getSubjectIndex();
+        Memoized ret = this.memoized;
+        if (ret == null || ret.index != index) {
+            this.memoized = ret = new Memoized(index);
         }
+        return ret;
+    }
 
-        ConfigurationNode rootNode;
-        if (contexts.isEmpty()) {
-            rootNode = this.type.getGlobalNode(this.dataStore);
-        } else {
-            rootNode = this.type.getWorldNode(this.dataStore, contexts.iterator().next().getValue());
+    /**
+     * Get this subject's data in exactly the given contexts. Context sets returned from {@link #getActiveContexts()}
+     * are interned, and resolve to their world's data without any lookup by name.
+     */
+    private SubjectSnapshot getSnapshotForContexts(Set<Map.Entry<String, String>> contexts) {
+        if (!contexts.isEmpty()) {
+            final WorldContext world = this.dataStore.getWorldContexts().lookup(contexts);
+            if (world == null) {
+                return null;
+            }
+            final WorldSnapshot worldData = this.dataStore.getUserGroupsConfigForWorld(world);
+            return worldData == null ? null : this.type.getWorldSubject(worldData, this.identifier);
         }
 
-        if (rootNode != null) {
-            ConfigurationNode ret = this.type.getNodeForSubject(rootNode, this.identifier);
-            if (!ret.isVirtual()) {
-                return ret;
-            }
+        Map<String, SubjectSnapshot> subjects = this.type.getGlobalSubjects(this.dataStore);
+        if (subjects != null) {
+            return subjects.get(this.identifier);
         }
 
         return null;
     }
 
+    /**
+     * Collect one value from each context this subject is defined in, as recorded in the data store's subject index.
+     *
+     * @param getter The function extracting a value from the subject's data in one context
+     * @param include A predicate values must match to be included
+     * @param <T> The type of value
+     * @return An immutable map from context to value
+     */
+    private <T> Map<Set<Map.Entry<String, String>>, T> collectActive(Function<SubjectSnapshot, T> getter, Predicate<T> include) {
+        final ImmutableMap.Builder<Set<Map.Entry<String, String>>, T> ret = ImmutableMap.builder();
+        for (Set<Map.Entry<String, String>> contexts : getActiveContexts()) {
+            final SubjectSnapshot snapshot = getSnapshotForContexts(contexts);
+            if (snapshot != null) {
+                final T value = getter.apply(snapshot);
+                if (include.test(value)) {
+                    ret.put(contexts, value);
+                }
+            }
+        }
+        return ret.build();
+    }
+
     @Override
     public Map<Set<Map.Entry<String, String>>, Map<String, String>> getAllOptions() {
-        return Maps.filterValues(Maps.asMap(getActiveContexts(), this::getOptions), input -> input != null && !input.isEmpty());
+        final Memoized memoized = getMemoized();
+        Map<Set<Map.Entry<String, String>>, Map<String, String>> ret = memoized.allOptions;
+        if (ret == null) {
+            memoized.allOptions = ret = collectActive(SubjectSnapshot::getOptions, input -> !input.isEmpty());
+        }
+        return ret;
     }
 
     @Override
     public Map<String, String> getOptions(Set<Map.Entry<String, String>> contexts) {
-        ConfigurationNode specificNode = getNodeForContexts(contexts);
-        if (specificNode == null) {
-            return ImmutableMap.of();
-        }
-        try {
-            return specificNode.getNode("info").getValue(TYPE_MAP_STRING_STRING, ImmutableMap.<String, String>of());
-        } catch (ObjectMappingException e) {
+        SubjectSnapshot snapshot = getSnapshotForContexts(contexts);
+        if (snapshot == null) {
             return ImmutableMap.of();
         }
+        return snapshot.getOptions();
     }
 
     @Override
     public Map<Set<Map.Entry<String, String>>, Map<String, Integer>> getAllPermissions() {
-        return Maps.filterValues(Maps.asMap(getActiveContexts(), this::getPermissions), input -> input != null && !input.isEmpty());
+        final Memoized memoized = getMemoized();
+        Map<Set<Map.Entry<String, String>>, Map<String, Integer>> ret = memoized.allPermissions;
+        if (ret == null) {
+            memoized.allPermissions = ret = collectActive(SubjectSnapshot::getPermissions, input -> !input.isEmpty());
+        }
+        return ret;
     }
 
     @Override
     public Map<String, Integer> getPermissions(Set<Map.Entry<String, String>> contexts) {
-        ConfigurationNode specificNode = getNodeForContexts(contexts);
-        if (specificNode == null) {
+        SubjectSnapshot snapshot = getSnapshotForContexts(contexts);
+        if (snapshot == null) {
             return ImmutableMap.of();
         }
-        final Map<String, Integer> ret = Maps.newHashMap();
-        for (ConfigurationNode node : specificNode.getNode("permissions").getChildrenList()) {
-            String perm = node.getString();
-            if (perm == null) {
-                continue;
-            }
-            if (perm.equals("*")) {
-                continue;
-            }
-
-            int val = 1;
-            if (perm.startsWith("-")) {
-                val = -1;
-                perm = perm.substring(1);
-            }
-            perm = ConversionUtils.convertLegacyPermission(perm);
-            ret.put(perm, val);
-        }
-        return ret;
+        return snapshot.getPermissions();
     }
 
     @Override
     public Map<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> getAllParents() {
-        return Maps.filterValues(Maps.asMap(getActiveContexts(), this::getParents), input -> input != null && !input.isEmpty());
+        final Memoized memoized = getMemoized();
+        Map<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> ret = memoized.allParents;
+        if (ret == null) {
+            memoized.allParents = ret = collectActive(SubjectSnapshot::getParents, input -> !input.isEmpty());
+        }
+        return ret;
     }
 
     @Override
     public List<Map.Entry<String, String>> getParents(Set<Map.Entry<String, String>> contexts) {
-        ConfigurationNode specificNode = getNodeForContexts(contexts);
-        if (specificNode == null) {
+        SubjectSnapshot snapshot = getSnapshotForContexts(contexts);
+        if (snapshot == null) {
             return ImmutableList.of();
         }
+        return snapshot.getParents();
+    }
 
-        try {
-            return Lists.transform(specificNode.getNode(this.type.getInheritanceKey()).getList(TypeToken.of(String.class)), input -> {
-                    if (input.startsWith("g:")) {
-                        input = input.substring(2);
-                    }
-                    return Maps.immutableEntry(PermissionsEx.SUBJECTS_GROUP, input);
-            });
-        } catch (ObjectMappingException e) {
+    /**
+     * Get every group this subject inherits from in exactly the given contexts: its direct parents, each followed by its own ancestors,
+     * without duplicates. This is a lookup in the inheritance precomputed when the world was loaded, rather than a walk through each parent's data.
+     *
+     * @param contexts The contexts to resolve in
+     * @return The subject's effective groups, or an empty list if it has no parents in these contexts
+     */
+    public List<Map.Entry<String, String>> getEffectiveParents(Set<Map.Entry<String, String>> contexts) {
+        final InheritanceClosure inheritance;
+        final SubjectSnapshot snapshot;
+        if (contexts.isEmpty()) {
+            final Map<String, SubjectSnapshot> subjects = this.type.getGlobalSubjects(this.dataStore);
+            inheritance = this.dataStore.getGlobalInheritance();
+            snapshot = subjects == null ? null : subjects.get(this.identifier);
+        } else {
+            final WorldContext world = this.dataStore.getWorldContexts().lookup(contexts);
+            final WorldSnapshot worldData = world == null ? null : this.dataStore.getUserGroupsConfigForWorld(world);
+            inheritance = worldData == null ? null : worldData.getInheritance();
+            snapshot = worldData == null ? null : this.type.getWorldSubject(worldData, this.identifier);
+        }
+        if (snapshot == null || snapshot.getParents().isEmpty()) {
             return ImmutableList.of();
         }
+        final InheritanceClosure global = this.dataStore.getGlobalInheritance();
+        return this.type == EntityType.USER ? inheritance.getEffectiveGroups(snapshot.getParents(), global) : inheritance.getAncestors(this.identifier, global);
     }
 
     @Override
     public int getDefaultValue(Set<Map.Entry<String, String>> contexts) {
-        ConfigurationNode specificNode = getNodeForContexts(contexts);
-        if (specificNode == null) {
+        SubjectSnapshot snapshot = getSnapshotForContexts(contexts);
+        if (snapshot == null) {
             return 0;
         }
-        List<Object> values = specificNode.getNode("permissions").getList(input -> input);
-        if (values.contains("*")) {
-            return 1;
-        } else if (values.contains("-*")) {
-            return -1;
-        }
+        return snapshot.getDefaultValue();
+    }
 
-        return 0;
+    /**
+     * Resolve a single permission in the given contexts through the subject's precompiled permission trie.
+     * Only this subject's own data in exactly these contexts is considered, without any inheritance.
+     *
+     * @param contexts The contexts to check in
+     * @param permission The permission to check
+     * @return The value of the most specific matching node, otherwise the default value for the contexts
+     */
+    public int getPermissionValue(Set<Map.Entry<String, String>> contexts, String permission) {
+        SubjectSnapshot snapshot = getSnapshotForContexts(contexts);
+        if (snapshot == null) {
+            return 0;
+        }
+        return snapshot.getPermissionValue(permission);
     }
 
     @Override
     public Set<Set<Map.Entry<String, String>>> getActiveContexts() {
-        ImmutableSet.Builder<Set<Map.Entry<String, String>>> activeContextsBuilder = ImmutableSet.builder();
-        if (getNodeForContexts(PermissionsEx.GLOBAL_CONTEXT) != null) {
-            activeContextsBuilder.add(PermissionsEx.GLOBAL_CONTEXT);
-        }
-
-        for (String world : this.dataStore.getKnownWorlds()) {
-            final Set<Map.Entry<String, String>> worldContext = ImmutableSet.of(Maps.immutableEntry("world", world));
-            if (getNodeForContexts(worldContext) != null) {
-                activeContextsBuilder.add(worldContext);
-            }
-        }
-
-        return activeContextsBuilder.build();
+        return this.dataStore.getSubjectIndex().getActiveContexts(this.type, this.identifier);
     }
 
     @Override
     public Map<Set<Map.Entry<String, String>>, Integer> getAllDefaultValues() {
-        return Maps.filterValues(Maps.asMap(getActiveContexts(), this::getDefaultValue), input -> input != null && input != 0);
+        final Memoized memoized = getMemoized();
+        Map<Set<Map.Entry<String, String>>, Integer> ret = memoized.allDefaultValues;
+        if (ret == null) {
+            memoized.allDefaultValues = ret = collectActive(SubjectSnapshot::getDefaultValue, input -> input != 0);
+        }
+        return ret;
     }
 }
@@ -0,0 +1,366 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.CollectionEndEvent;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceEndEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+import org.yaml.snakeyaml.events.StreamEndEvent;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Reads GroupManager {@code users.yml}, {@code groups.yml} and {@code globalgroups.yml} files directly from the SnakeYAML event stream,
+ * compiling each entry as soon as it has been read instead of building a node tree for the whole file.
+ *
+ * <p>Anchors and aliases are not supported. Documents using them are rejected with an {@link UnsupportedDocumentException},
+ * and should be loaded through a full tree loader instead.</p>
+ */
+final class GroupManagerYamlReader {
+    private static final Pattern NULL_PATTERN = Pattern.compile("^(?:~|null|Null|NULL|)$");
+    private final Iterator<Event> events;
+    private final EntityType type;
+    private final SymbolTable symbols;
+    private Event peeked;
+    private boolean inDocument;
+
+    private GroupManagerYamlReader(Iterator<Event> events, EntityType type, SymbolTable symbols) {
+        this.events = events;
+        this.type = type;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Thrown when a file uses YAML features this reader does not handle.
+     */
+    static final class UnsupportedDocumentException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedDocumentException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Read every subject of the given type from a GroupManager file.
+     *
+     * @param file The file to read. A missing file is treated as empty
+     * @param type The type of subject stored in the file
+     * @param symbols The symbol table to canonicalize data into
+     * @return An immutable map of subject name to compiled data
+     * @throws IOException if the file could not be read or is not valid YAML
+     * @throws UnsupportedDocumentException if the file uses YAML features not supported by this reader
+     */
+    static Map<String, SubjectSnapshot> read(Path file, EntityType type, SymbolTable symbols) throws IOException, UnsupportedDocumentException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return read(reader, file, type, symbols);
+        } catch (NoSuchFileException e) {
+            return ImmutableMap.of();
+        }
+    }
+
+    /**
+     * Read every subject of the given type from a reader over the contents of a GroupManager file.
+     *
+     * @param reader The file's contents
+     * @param file The file the contents are read from, for error messages
+     * @param type The type of subject stored in the file
+     * @param symbols The symbol table to canonicalize data into
+     * @return An immutable map of subject name to compiled data
+     * @throws IOException if the contents could not be read or are not valid YAML
+     * @throws UnsupportedDocumentException if the contents use YAML features not supported by this reader
+     */
+    static Map<String, SubjectSnapshot> read(Reader reader, Path file, EntityType type, SymbolTable symbols) throws IOException, UnsupportedDocumentException {
+        try {
+            return new GroupManagerYamlReader(new Yaml().parse(reader).iterator(), type, symbols).readDocument();
+        } catch (YAMLException e) {
+            throw new IOException("Invalid YAML in " + file, e);
+        }
+    }
+
+    /**
+     * Read the names of every subject of the given type in a GroupManager file, skipping over the subjects' data.
+     *
+     * @param file The file to read. A missing file is treated as empty
+     * @param type The type of subject stored in the file
+     * @param aliases A builder receiving each user's key and last name, or null if aliases are not needed
+     * @return An immutable set of subject names
+     * @throws IOException if the file could not be read or is not valid YAML
+     * @throws UnsupportedDocumentException if the file uses YAML features not supported by this reader
+     */
+    static Set<String> readNames(Path file, EntityType type, UserAliases.Builder aliases) throws IOException, UnsupportedDocumentException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            final GroupManagerYamlReader yaml = new GroupManagerYamlReader(new Yaml().parse(reader).iterator(), type, null);
+            Set<String> ret = ImmutableSet.of();
+            while (yaml.nextSection()) {
+                ret = yaml.readSectionNames(aliases);
+            }
+            return ret;
+        } catch (NoSuchFileException e) {
+            return ImmutableSet.of();
+        } catch (YAMLException e) {
+            throw new IOException("Invalid YAML in " + file, e);
+        }
+    }
+
+    private Event peek() throws UnsupportedDocumentException {
+        if (this.peeked == null) {
+            this.peeked = this.events.next();
+            if (this.peeked instanceof AliasEvent) {
+                throw new UnsupportedDocumentException("YAML aliases are not supported");
+            }
+        }
+        return this.peeked;
+    }
+
+    private Event next() throws UnsupportedDocumentException {
+        final Event ret = peek();
+        this.peeked = null;
+        return ret;
+    }
+
+    private Map<String, SubjectSnapshot> readDocument() throws UnsupportedDocumentException {
+        Map<String, SubjectSnapshot> ret = ImmutableMap.of();
+        while (nextSection()) {
+            ret = readSection();
+        }
+        return ret;
+    }
+
+    /**
+     * Advance to the next top-level mapping holding subjects of this reader's type.
+     *
+     * @return Whether another section was found
+     */
+    private boolean nextSection() throws UnsupportedDocumentException {
+        if (!this.inDocument) {
+            while (!(peek() instanceof MappingStartEvent)) {
+                if (next() instanceof StreamEndEvent) {
+                    return false;
+                }
+            }
+            next();
+            this.inDocument = true;
+        }
+        final String sectionKey = this.type == EntityType.USER ? "users" : "groups";
+        while (!(peek() instanceof MappingEndEvent)) {
+            final String key = readScalarKey();
+            if (sectionKey.equals(key) && peek() instanceof MappingStartEvent) {
+                return true;
+            }
+            skipValue();
+        }
+        return false;
+    }
+
+    /**
+     * Read a mapping of subject name to subject data.
+     * Global group references ({@code g:name}) are stored under their bare name, unless an entry with the bare name also exists.
+     */
+    private Map<String, SubjectSnapshot> readSection() throws UnsupportedDocumentException {
+        final Map<String, SubjectSnapshot> ret = new LinkedHashMap<>();
+        next();
+        while (!(peek() instanceof MappingEndEvent)) {
+            String name = readScalarKey();
+            if (name == null || !(peek() instanceof MappingStartEvent)) {
+                skipValue();
+                continue;
+            }
+            final SubjectSnapshot subject = readSubject();
+            if (this.type == EntityType.GROUP && name.startsWith("g:")) {
+                name = name.substring(2);
+                if (ret.containsKey(name)) {
+                    continue;
+                }
+            }
+            ret.put(this.symbols.intern(name), subject);
+        }
+        next();
+        return ImmutableMap.copyOf(ret);
+    }
+
+    private Set<String> readSectionNames(UserAliases.Builder aliases) throws UnsupportedDocumentException {
+        final Set<String> ret = new LinkedHashSet<>();
+        next();
+        while (!(peek() instanceof MappingEndEvent)) {
+            String name = readScalarKey();
+            if (name == null || !(peek() instanceof MappingStartEvent)) {
+                skipValue();
+                continue;
+            }
+            if (this.type == EntityType.USER && aliases != null) {
+                aliases.add(name, readLastName());
+            } else {
+                skipValue();
+            }
+            ret.add(this.type == EntityType.GROUP && name.startsWith("g:") ? name.substring(2) : name);
+        }
+        next();
+        return ImmutableSet.copyOf(ret);
+    }
+
+    private SubjectSnapshot readSubject() throws UnsupportedDocumentException {
+        List<String> permissions = new ArrayList<>();
+        List<String> parents = new ArrayList<>();
+        List<String> subgroups = ImmutableList.of();
+        Map<String, String> options = ImmutableMap.of();
+        String lastName = null;
+        next();
+        while (!(peek() instanceof MappingEndEvent)) {
+            final String key = readScalarKey();
+            if (this.type == EntityType.USER && "lastname".equals(key) && peek() instanceof ScalarEvent) {
+                lastName = readScalar();
+            } else if ("permissions".equals(key)) {
+                permissions = readStringList();
+            } else if (this.type.getInheritanceKey().equals(key)) {
+                parents = readStringList();
+            } else if (this.type == EntityType.USER && "subgroups".equals(key)) {
+                subgroups = readStringList();
+            } else if ("info".equals(key)) {
+                options = readStringMap();
+            } else {
+                skipValue();
+            }
+        }
+        next();
+        if (!subgroups.isEmpty()) { // Subgroups follow the main group, wherever they appear in the user's data
+            parents = ImmutableList.<String>builder().addAll(parents).addAll(subgroups).build();
+        }
+        return SubjectSnapshot.of(permissions, options, parents, lastName, this.symbols);
+    }
+
+    /**
+     * Read only the {@code lastname} field of a user, skipping over the rest of its data.
+     */
+    private String readLastName() throws UnsupportedDocumentException {
+        String ret = null;
+        next();
+        while (!(peek() instanceof MappingEndEvent)) {
+            final String key = readScalarKey();
+            if ("lastname".equals(key) && peek() instanceof ScalarEvent) {
+                ret = readScalar();
+            } else {
+                skipValue();
+            }
+        }
+        next();
+        return ret;
+    }
+
+    /**
+     * Read a sequence of scalars, or a single scalar as a one-element list. Nested collections are ignored.
+     */
+    private List<String> readStringList() throws UnsupportedDocumentException {
+        final List<String> ret = new ArrayList<>();
+        if (peek() instanceof ScalarEvent) {
+            final String value = readScalar();
+            if (value != null) {
+                ret.add(value);
+            }
+        } else if (peek() instanceof SequenceStartEvent) {
+            next();
+            while (!(peek() instanceof SequenceEndEvent)) {
+                if (peek() instanceof ScalarEvent) {
+                    ret.add(readScalar());
+                } else {
+                    skipValue();
+                }
+            }
+            next();
+        } else {
+            skipValue();
+        }
+        return ret;
+    }
+
+    private Map<String, String> readStringMap() throws UnsupportedDocumentException {
+        if (!(peek() instanceof MappingStartEvent)) {
+            skipValue();
+            return ImmutableMap.of();
+        }
+        final Map<String, String> ret = new LinkedHashMap<>();
+        next();
+        while (!(peek() instanceof MappingEndEvent)) {
+            final String key = readScalarKey();
+            if (key != null && peek() instanceof ScalarEvent) {
+                final String value = readScalar();
+                if (value != null) {
+                    ret.put(key, value);
+                }
+            } else {
+                skipValue();
+            }
+        }
+        next();
+        return ret;
+    }
+
+    /**
+     * Read a mapping key. Keys that are not scalars are skipped and reported as null.
+     */
+    private String readScalarKey() throws UnsupportedDocumentException {
+        if (peek() instanceof ScalarEvent) {
+            return readScalar();
+        }
+        skipValue();
+        return null;
+    }
+
+    private String readScalar() throws UnsupportedDocumentException {
+        final ScalarEvent event = (ScalarEvent) next();
+        if (event.getImplicit().canOmitTagInPlainScalar() && NULL_PATTERN.matcher(event.getValue()).matches()) {
+            return null;
+        }
+        return event.getValue();
+    }
+
+    private void skipValue() throws UnsupportedDocumentException {
+        int depth = 0;
+        do {
+            final Event event = next();
+            if (event instanceof CollectionStartEvent) {
+                depth++;
+            } else if (event instanceof CollectionEndEvent) {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+}
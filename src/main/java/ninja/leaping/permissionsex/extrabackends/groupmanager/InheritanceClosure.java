@@ -0,0 +1,196 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The precomputed transitive group inheritance of one world.
+ *
+ * <p>Every group is mapped to its ordered, duplicate-free list of ancestors, walking parents depth-first in declaration order.
+ * For users, the effective groups of every distinct parent list in the world are stored as well,
+ * so a user's full group set is a single lookup.</p>
+ *
+ * <p>A world's closure only holds ancestors for the groups defined in that world. Parents that are global groups
+ * are looked up in the closure of the global groups, see {@link #getAncestors(String, InheritanceClosure)}.</p>
+ */
+final class InheritanceClosure {
+    static final InheritanceClosure EMPTY = new InheritanceClosure(ImmutableSet.<String>of(), ImmutableMap.<String, List<Map.Entry<String, String>>>of(),
+            ImmutableMap.<List<Map.Entry<String, String>>, List<Map.Entry<String, String>>>of());
+    private final Set<String> groups;
+    private final Map<String, List<Map.Entry<String, String>>> groupAncestors;
+    private final Map<List<Map.Entry<String, String>>, List<Map.Entry<String, String>>> effectiveGroups;
+
+    private InheritanceClosure(Set<String> groups, Map<String, List<Map.Entry<String, String>>> groupAncestors,
+                               Map<List<Map.Entry<String, String>>, List<Map.Entry<String, String>>> effectiveGroups) {
+        this.groups = groups;
+        this.groupAncestors = groupAncestors;
+        this.effectiveGroups = effectiveGroups;
+    }
+
+    /**
+     * Compute the inheritance closure of a world.
+     *
+     * @param groups The groups defined in the world
+     * @param globalGroups Global groups, used for parents that are not defined in the world itself
+     * @param users The users defined in the world
+     * @param symbols The symbol table to canonicalize resulting lists into
+     * @param cycleReporter A callback receiving the group names forming each inheritance cycle that is found
+     * @return The computed closure
+     */
+    static InheritanceClosure build(Map<String, SubjectSnapshot> groups, Map<String, SubjectSnapshot> globalGroups, Collection<SubjectSnapshot> users,
+                                    SymbolTable symbols, Consumer<List<String>> cycleReporter) {
+        final Builder builder = new Builder(groups, globalGroups, symbols, cycleReporter);
+        final Map<String, List<Map.Entry<String, String>>> groupAncestors = new HashMap<>();
+        for (String group : groups.keySet()) {
+            final List<Map.Entry<String, String>> ancestors = builder.ancestors(group);
+            if (!ancestors.isEmpty()) {
+                groupAncestors.put(group, ancestors);
+            }
+        }
+
+        final Map<List<Map.Entry<String, String>>, List<Map.Entry<String, String>>> effectiveGroups = new HashMap<>();
+        for (SubjectSnapshot user : users) {
+            if (!user.getParents().isEmpty() && !effectiveGroups.containsKey(user.getParents())) {
+                effectiveGroups.put(user.getParents(), builder.effectiveGroups(user.getParents()));
+            }
+        }
+        return new InheritanceClosure(groups.keySet(), ImmutableMap.copyOf(groupAncestors), ImmutableMap.copyOf(effectiveGroups));
+    }
+
+    private static final class Builder {
+        private final Map<String, SubjectSnapshot> groups;
+        private final Map<String, SubjectSnapshot> globalGroups;
+        private final SymbolTable symbols;
+        private final Consumer<List<String>> cycleReporter;
+        private final Map<String, List<Map.Entry<String, String>>> resolved = new HashMap<>();
+        private final List<String> stack = new ArrayList<>();
+        private final Set<Set<String>> reportedCycles = new HashSet<>();
+        private int cutEdges;
+
+        private Builder(Map<String, SubjectSnapshot> groups, Map<String, SubjectSnapshot> globalGroups, SymbolTable symbols, Consumer<List<String>> cycleReporter) {
+            this.groups = groups;
+            this.globalGroups = globalGroups;
+            this.symbols = symbols;
+            this.cycleReporter = cycleReporter;
+        }
+
+        private List<Map.Entry<String, String>> ancestors(String group) {
+            final List<Map.Entry<String, String>> existing = this.resolved.get(group);
+            if (existing != null) {
+                return existing;
+            }
+
+            SubjectSnapshot snapshot = this.groups.get(group);
+            if (snapshot == null) {
+                snapshot = this.globalGroups.get(group);
+            }
+            if (snapshot == null || snapshot.getParents().isEmpty()) {
+                return ImmutableList.of();
+            }
+
+            this.stack.add(group);
+            final int cutBefore = this.cutEdges;
+            final Set<Map.Entry<String, String>> ret = new LinkedHashSet<>();
+            for (Map.Entry<String, String> parent : snapshot.getParents()) {
+                final int cycleStart = this.stack.indexOf(parent.getValue());
+                if (cycleStart != -1) {
+                    final List<String> cycle = new ArrayList<>(this.stack.subList(cycleStart, this.stack.size()));
+                    if (this.reportedCycles.add(new HashSet<>(cycle))) {
+                        cycle.add(parent.getValue());
+                        this.cycleReporter.accept(cycle);
+                    }
+                    this.cutEdges++;
+                    continue;
+                }
+                ret.add(parent);
+                ret.addAll(ancestors(parent.getValue()));
+            }
+            this.stack.remove(this.stack.size() - 1);
+
+            final List<Map.Entry<String, String>> result = this.symbols.internParents(ImmutableList.copyOf(ret));
+            if (this.cutEdges == cutBefore) { // Results computed while breaking a cycle depend on where the walk entered it, so are not reused
+                this.resolved.put(group, result);
+            }
+            return result;
+        }
+
+        private List<Map.Entry<String, String>> effectiveGroups(List<Map.Entry<String, String>> parents) {
+            final Set<Map.Entry<String, String>> ret = new LinkedHashSet<>();
+            for (Map.Entry<String, String> parent : parents) {
+                ret.add(parent);
+                ret.addAll(ancestors(parent.getValue()));
+            }
+            return this.symbols.internParents(ImmutableList.copyOf(ret));
+        }
+    }
+
+    /**
+     * Get the ordered ancestors of a group, not including the group itself.
+     *
+     * @param group The group's name
+     * @return The group's ancestors, or an empty list if the group has none or is not defined in this world
+     */
+    public List<Map.Entry<String, String>> getAncestors(String group) {
+        final List<Map.Entry<String, String>> ret = this.groupAncestors.get(group);
+        return ret == null ? ImmutableList.<Map.Entry<String, String>>of() : ret;
+    }
+
+    /**
+     * Get the ordered ancestors of a group as seen from this world, falling back to global groups for groups not defined in the world.
+     *
+     * @param group The group's name
+     * @param global The closure of the global groups
+     * @return The group's ancestors, or an empty list if the group has none or is not defined
+     */
+    public List<Map.Entry<String, String>> getAncestors(String group, InheritanceClosure global) {
+        return this.groups.contains(group) ? getAncestors(group) : global.getAncestors(group);
+    }
+
+    /**
+     * Get the full ordered set of groups a subject with the given direct parents belongs to.
+     * Parent lists that were not present when the closure was built are resolved on demand.
+     *
+     * @param parents The subject's direct parents
+     * @param global The closure of the global groups, for parents not defined in this world
+     * @return The direct parents followed by their ancestors
+     */
+    public List<Map.Entry<String, String>> getEffectiveGroups(List<Map.Entry<String, String>> parents, InheritanceClosure global) {
+        final List<Map.Entry<String, String>> ret = this.effectiveGroups.get(parents);
+        if (ret != null) {
+            return ret;
+        }
+        final Set<Map.Entry<String, String>> computed = new LinkedHashSet<>();
+        for (Map.Entry<String, String> parent : parents) {
+            computed.add(parent);
+            computed.addAll(getAncestors(parent.getValue(), global));
+        }
+        return ImmutableList.copyOf(computed);
+    }
+}
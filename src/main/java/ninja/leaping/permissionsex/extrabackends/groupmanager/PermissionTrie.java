@@ -0,0 +1,197 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableMap;
+import ninja.leaping.permissionsex.extrabackends.CompactPermissionMap;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * An immutable prefix tree of permission nodes split into their dot-separated segments.
+ *
+ * <p>A lookup walks the segments of the queried permission once, and resolves to the value of the most specific node
+ * that is set along the way. A node therefore applies to itself and every permission below it, which is how GroupManager's
+ * {@code node.*} wildcards are represented once converted.</p>
+ */
+public final class PermissionTrie {
+    static final PermissionTrie EMPTY = new PermissionTrie(ImmutableMap.<String, Integer>of(), new Node(new String[0], new Node[0], 0));
+    private final Map<String, Integer> permissions;
+    private final Node root;
+
+    private PermissionTrie(Map<String, Integer> permissions, Node root) {
+        this.permissions = permissions;
+        this.root = root;
+    }
+
+    private static final class Node {
+        private final String[] keys;
+        private final Node[] children;
+        private final int value;
+
+        private Node(String[] keys, Node[] children, int value) {
+            this.keys = keys;
+            this.children = children;
+            this.value = value;
+        }
+
+        private Node getChild(String permission, int start, int end) {
+            int low = 0, high = this.keys.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compareSegment(this.keys[mid], permission, start, end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return this.children[mid];
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class BuilderNode {
+        private final Map<String, BuilderNode> children = new TreeMap<>();
+        private int value;
+
+        private Node build() {
+            final String[] keys = new String[this.children.size()];
+            final Node[] children = new Node[keys.length];
+            int i = 0;
+            for (Map.Entry<String, BuilderNode> child : this.children.entrySet()) {
+                keys[i] = child.getKey();
+                children[i++] = child.getValue().build();
+            }
+            return new Node(keys, children, this.value);
+        }
+    }
+
+    /**
+     * Compare a trie key against the segment {@code [start, end)} of a permission, consistently with {@link String#compareTo(String)}.
+     */
+    private static int compareSegment(String key, String permission, int start, int end) {
+        final int segmentLength = end - start;
+        final int len = Math.min(key.length(), segmentLength);
+        for (int i = 0; i < len; ++i) {
+            final char a = key.charAt(i), b = permission.charAt(start + i);
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return key.length() - segmentLength;
+    }
+
+    /**
+     * Build a trie from converted permissions.
+     *
+     * @param permissions Permission nodes and their values. The map must be immutable
+     * @param symbols The symbol table to canonicalize segments into
+     * @return A new trie
+     */
+    static PermissionTrie build(Map<String, Integer> permissions, SymbolTable symbols) {
+        if (permissions.isEmpty()) {
+            return EMPTY;
+        }
+        final BuilderNode root = new BuilderNode();
+        CompactPermissionMap.forEachPermission(permissions, (permission, value) -> {
+            BuilderNode node = root;
+            for (String segment : permission.split("\\.", -1)) {
+                node = node.children.computeIfAbsent(symbols.intern(segment), k -> new BuilderNode());
+            }
+            node.value = value;
+        });
+        return new PermissionTrie(permissions, root.build());
+    }
+
+    /**
+     * Visit every key segment held by this trie.
+     *
+     * @param action The action to apply to each segment
+     */
+    void forEachSegment(Consumer<String> action) {
+        forEachSegment(this.root, action);
+    }
+
+    private static void forEachSegment(Node node, Consumer<String> action) {
+        for (int i = 0; i < node.keys.length; ++i) {
+            action.accept(node.keys[i]);
+            forEachSegment(node.children[i], action);
+        }
+    }
+
+    /**
+     * Estimate the heap used by this trie and its permissions map, not including the strings they refer to.
+     *
+     * @return The estimated size in bytes
+     */
+    long estimateRetainedBytes() {
+        final long permissions = this.permissions instanceof CompactPermissionMap ? ((CompactPermissionMap) this.permissions).estimateRetainedBytes()
+                : 32 + 32L * this.permissions.size();
+        return 16 + permissions + estimateRetainedBytes(this.root);
+    }
+
+    private static long estimateRetainedBytes(Node node) {
+        long ret = 24 + 2 * (16 + 4L * node.keys.length);
+        for (Node child : node.children) {
+            ret += estimateRetainedBytes(child);
+        }
+        return ret;
+    }
+
+    /**
+     * Get the permissions this trie was built from.
+     *
+     * @return An immutable map of permission to value
+     */
+    public Map<String, Integer> getPermissions() {
+        return this.permissions;
+    }
+
+    /**
+     * Resolve a permission against this trie.
+     *
+     * @param permission The permission to check
+     * @return The value of the most specific node matching the permission, or 0 if no node matches
+     */
+    public int get(String permission) {
+        Node node = this.root;
+        int ret = 0;
+        int start = 0;
+        while (true) {
+            int end = permission.indexOf('.', start);
+            if (end == -1) {
+                end = permission.length();
+            }
+            node = node.getChild(permission, start, end);
+            if (node == null) {
+                break;
+            }
+            if (node.value != 0) {
+                ret = node.value;
+            }
+            if (end == permission.length()) {
+                break;
+            }
+            start = end + 1;
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimates the heap used by loaded subjects. Canonicalized data shared between subjects is only counted once.
+ * Sizes assume a 64-bit JVM with compressed references and compact strings.
+ */
+final class RetainedSizeEstimator {
+    private final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    private long bytes;
+
+    /**
+     * Count a map of subjects and everything they refer to.
+     *
+     * @param subjects The subjects to count
+     * @return this
+     */
+    public RetainedSizeEstimator addSubjects(Map<String, SubjectSnapshot> subjects) {
+        for (Map.Entry<String, SubjectSnapshot> subject : subjects.entrySet()) {
+            this.bytes += 64; // Snapshot and map entry
+            addString(subject.getKey());
+            addSubject(subject.getValue());
+        }
+        return this;
+    }
+
+    private void addSubject(SubjectSnapshot subject) {
+        final PermissionTrie trie = subject.getPermissionTrie();
+        if (this.seen.add(trie)) {
+            this.bytes += trie.estimateRetainedBytes();
+            for (String permission : trie.getPermissions().keySet()) {
+                addString(permission);
+            }
+            trie.forEachSegment(this::addString);
+        }
+        final Map<String, String> options = subject.getOptions();
+        if (!options.isEmpty() && this.seen.add(options)) {
+            this.bytes += 32 + 32L * options.size();
+            for (Map.Entry<String, String> option : options.entrySet()) {
+                addString(option.getKey());
+                addString(option.getValue());
+            }
+        }
+        final List<Map.Entry<String, String>> parents = subject.getParents();
+        if (!parents.isEmpty() && this.seen.add(parents)) {
+            this.bytes += 32 + 4L * parents.size();
+            for (Map.Entry<String, String> parent : parents) {
+                if (this.seen.add(parent)) {
+                    this.bytes += 24;
+                    addString(parent.getValue());
+                }
+            }
+        }
+        if (subject.getLastName() != null) {
+            addString(subject.getLastName());
+        }
+    }
+
+    private void addString(String value) {
+        if (this.seen.add(value)) {
+            this.bytes += 40 + value.length();
+        }
+    }
+
+    /**
+     * Get the estimated size of everything counted so far.
+     *
+     * @return The estimated size in bytes
+     */
+    public long getBytes() {
+        return this.bytes;
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An on-disk cache of compiled GroupManager files.
+ *
+ * <p>Each source file has its own cache file, which records the source's path, size, modification time and content hash.
+ * A cache file is only used when all of these still match the source, so a change to one world only causes that world to be parsed again.
+ * The size and modification time are compared first, and the source is only hashed when they match.
+ * The fingerprint written with an entry describes the exact bytes that were parsed: a {@link Source} hashes the file as the parser streams through it.
+ * Cache files are small, and are read into a heap buffer so that no mapping keeps them open while they are being replaced.</p>
+ */
+final class SnapshotCache {
+    private static final int MAGIC = 0x474d4331; // GMC1
+    private static final int VERSION = 3; // 3: users inherit from their subgroups
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private final Path cacheDir;
+
+    SnapshotCache(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    private Path getCacheFile(Path source) {
+        return this.cacheDir.resolve(HASH.hashString(source.toAbsolutePath().toString(), StandardCharsets.UTF_8) + ".bin");
+    }
+
+    /**
+     * A source file being parsed, recording the fingerprint of the bytes read from it.
+     */
+    static final class Source implements Closeable {
+        private final Path path;
+        private final long lastModified;
+        private final InputStream file;
+        private final HashingInputStream hashing;
+        private final CountingInputStream counting;
+
+        private Source(Path path, long lastModified, InputStream file) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.file = file;
+            this.hashing = new HashingInputStream(HASH, new BufferedInputStream(file));
+            this.counting = new CountingInputStream(this.hashing);
+        }
+
+        /**
+         * Open a source file. The modification time is taken before the contents are read, so a file changed while
+         * being read is recorded with an outdated time, and its cache entry is not used.
+         *
+         * @param path The GroupManager file
+         * @return The opened file, or null if the file does not exist
+         * @throws IOException if the file could not be opened
+         */
+        static Source open(Path path) throws IOException {
+            if (!Files.isRegularFile(path)) {
+                return null;
+            }
+            final long lastModified = Files.getLastModifiedTime(path).toMillis();
+            return new Source(path, lastModified, Files.newInputStream(path));
+        }
+
+        public Path getPath() {
+            return this.path;
+        }
+
+        /**
+         * Get a reader over the file's contents. Closing the reader leaves the file open, so that the rest of it can still be fingerprinted.
+         *
+         * @return The reader
+         */
+        public Reader getReader() {
+            return new InputStreamReader(new FilterInputStream(this.counting) {
+                @Override
+                public void close() {
+                }
+            }, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Read whatever the parser left unread, so that the fingerprint covers the whole file.
+         */
+        private void finish() throws IOException {
+            ByteStreams.exhaust(this.counting);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.file.close();
+        }
+    }
+
+    private static HashCode hashContents(Path source) throws IOException {
+        try (InputStream in = Files.newInputStream(source)) {
+            final byte[] buffer = new byte[64 * 1024];
+            final Hasher hasher = HASH.newHasher();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                hasher.putBytes(buffer, 0, read);
+            }
+            return hasher.hash();
+        }
+    }
+
+    /**
+     * Get the cached subjects for a source file, if the cache is up to date.
+     *
+     * @param source The GroupManager file
+     * @param type The type of subject stored in the file
+     * @param symbols The symbol table to canonicalize data into
+     * @return The cached subjects, or null if there is no usable cache entry
+     * @throws IOException if the source file could not be read
+     */
+    Map<String, SubjectSnapshot> read(Path source, EntityType type, SymbolTable symbols) throws IOException {
+        final Path cacheFile = getCacheFile(source);
+        if (!Files.isRegularFile(cacheFile) || !Files.isRegularFile(source)) {
+            return null;
+        }
+
+        try {
+            final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(cacheFile));
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+                    || !readString(buf).equals(source.toAbsolutePath().toString())
+                    || buf.getLong() != Files.size(source)
+                    || buf.getLong() != Files.getLastModifiedTime(source).toMillis()
+                    || buf.getInt() != type.ordinal()) {
+                return null;
+            }
+            final byte[] hash = new byte[HASH.bits() / 8];
+            buf.get(hash);
+            if (!Arrays.equals(hash, hashContents(source).asBytes())) {
+                return null;
+            }
+
+            final int count = buf.getInt();
+            final ImmutableMap.Builder<String, SubjectSnapshot> ret = ImmutableMap.builder();
+            for (int i = 0; i < count; ++i) {
+                ret.put(symbols.intern(readString(buf)), readSubject(buf, symbols));
+            }
+            return ret.build();
+        } catch (BufferUnderflowException | IllegalArgumentException e) { // Truncated or otherwise corrupt cache file
+            return null;
+        }
+    }
+
+    /**
+     * Store the compiled subjects for a source file, once they have been parsed from it.
+     *
+     * @param source The source the subjects were parsed from
+     * @param type The type of subject stored in the file
+     * @param subjects The compiled subjects
+     * @throws IOException if the cache file could not be written
+     */
+    void write(Source source, EntityType type, Map<String, SubjectSnapshot> subjects) throws IOException {
+        source.finish();
+        Files.createDirectories(this.cacheDir);
+        final Path cacheFile = getCacheFile(source.getPath());
+        final Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, source.getPath().toAbsolutePath().toString());
+            out.writeLong(source.counting.getCount());
+            out.writeLong(source.lastModified);
+            out.writeInt(type.ordinal());
+            out.write(source.hashing.hash().asBytes());
+            out.writeInt(subjects.size());
+            for (Map.Entry<String, SubjectSnapshot> subject : subjects.entrySet()) {
+                writeString(out, subject.getKey());
+                writeSubject(out, subject.getValue());
+            }
+        }
+        try {
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeSubject(DataOutputStream out, SubjectSnapshot subject) throws IOException {
+        out.writeInt(subject.getPermissions().size());
+        for (Map.Entry<String, Integer> perm : subject.getPermissions().entrySet()) {
+            writeString(out, perm.getKey());
+            out.writeInt(perm.getValue());
+        }
+        out.writeInt(subject.getDefaultValue());
+        out.writeInt(subject.getOptions().size());
+        for (Map.Entry<String, String> option : subject.getOptions().entrySet()) {
+            writeString(out, option.getKey());
+            writeString(out, option.getValue());
+        }
+        out.writeInt(subject.getParents().size());
+        for (Map.Entry<String, String> parent : subject.getParents()) {
+            writeString(out, parent.getValue());
+        }
+        out.writeBoolean(subject.getLastName() != null);
+        if (subject.getLastName() != null) {
+            writeString(out, subject.getLastName());
+        }
+    }
+
+    private static SubjectSnapshot readSubject(ByteBuffer buf, SymbolTable symbols) {
+        final int permCount = buf.getInt();
+        final Map<String, Integer> permissions = new LinkedHashMap<>();
+        for (int i = 0; i < permCount; ++i) {
+            permissions.put(readString(buf), buf.getInt());
+        }
+        final int defaultValue = buf.getInt();
+        final int optionCount = buf.getInt();
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < optionCount; ++i) {
+            options.put(readString(buf), readString(buf));
+        }
+        final int parentCount = buf.getInt();
+        final List<String> parents = new ArrayList<>(parentCount);
+        for (int i = 0; i < parentCount; ++i) {
+            parents.add(readString(buf));
+        }
+        final String lastName = buf.get() != 0 ? readString(buf) : null;
+        return SubjectSnapshot.ofCompiled(permissions, defaultValue, options, parents, lastName, symbols);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        final int length = buf.getInt();
+        if (length < 0 || length > buf.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The subjects whose loaded data differs between two states of a data store.
+ *
+ * <p>A subject has changed when its data in any context was added, removed or modified, or when the groups it inherits
+ * from, directly or transitively, are different. Data shared between both states is compared by identity first, so worlds
+ * left untouched by a reload are skipped without looking at their subjects.</p>
+ */
+final class SubjectDiff {
+    private final Set<String> users = new HashSet<>();
+    private final Set<String> groups = new HashSet<>();
+
+    /**
+     * Compare the global groups of both states.
+     */
+    void compareGlobal(Map<String, SubjectSnapshot> oldGroups, InheritanceClosure oldInheritance,
+                       Map<String, SubjectSnapshot> newGroups, InheritanceClosure newInheritance) {
+        compareSubjects(oldGroups, newGroups, this.groups);
+        if (oldInheritance != newInheritance) {
+            compareAncestors(oldGroups.keySet(), oldInheritance, newInheritance, this.groups);
+            compareAncestors(newGroups.keySet(), oldInheritance, newInheritance, this.groups);
+        }
+    }
+
+    /**
+     * Compare the loaded data of one world in both states.
+     *
+     * @param oldWorld The world's previous data, or null if it was not defined
+     * @param oldGlobal The previous closure of the global groups
+     * @param newWorld The world's current data, or null if it is no longer defined
+     * @param newGlobal The current closure of the global groups
+     */
+    void compareWorld(WorldSnapshot oldWorld, InheritanceClosure oldGlobal, WorldSnapshot newWorld, InheritanceClosure newGlobal) {
+        if (oldWorld == newWorld && oldGlobal == newGlobal) {
+            return;
+        }
+        oldWorld = oldWorld == null ? WorldSnapshot.EMPTY : oldWorld;
+        newWorld = newWorld == null ? WorldSnapshot.EMPTY : newWorld;
+        compareSubjects(oldWorld.getUsers(), newWorld.getUsers(), this.users);
+        compareSubjects(oldWorld.getGroups(), newWorld.getGroups(), this.groups);
+
+        final InheritanceClosure oldInheritance = oldWorld.getInheritance(), newInheritance = newWorld.getInheritance();
+        if (oldInheritance == newInheritance && oldGlobal == newGlobal) {
+            return;
+        }
+        final Set<String> changedAncestry = new HashSet<>();
+        compareAncestors(oldWorld.getGroups().keySet(), oldInheritance, newInheritance, changedAncestry);
+        compareAncestors(newWorld.getGroups().keySet(), oldInheritance, newInheritance, changedAncestry);
+        this.groups.addAll(changedAncestry);
+        // Users inherit through their direct parents, which may also be global groups whose ancestors are only in the global closure
+        for (Map.Entry<String, SubjectSnapshot> user : newWorld.getUsers().entrySet()) {
+            if (this.users.contains(user.getKey())) {
+                continue;
+            }
+            for (Map.Entry<String, String> parent : user.getValue().getParents()) {
+                if (changedAncestry.contains(parent.getValue())
+                        || !oldInheritance.getAncestors(parent.getValue(), oldGlobal).equals(newInheritance.getAncestors(parent.getValue(), newGlobal))) {
+                    this.users.add(user.getKey());
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare the subjects defined in a world whose data was not loaded in the previous state.
+     * Only subjects that were added or removed can be detected.
+     *
+     * @param oldNames The world's previous subjects, or null if it was not defined
+     * @param newNames The world's current subjects, or null if it is no longer defined
+     */
+    void compareNames(WorldNames oldNames, WorldNames newNames) {
+        if (oldNames == newNames) {
+            return;
+        }
+        oldNames = oldNames == null ? WorldNames.EMPTY : oldNames;
+        newNames = newNames == null ? WorldNames.EMPTY : newNames;
+        compareNames(oldNames.getUsers(), newNames.getUsers(), this.users);
+        compareNames(oldNames.getGroups(), newNames.getGroups(), this.groups);
+    }
+
+    private static void compareNames(Set<String> oldNames, Set<String> newNames, Set<String> changed) {
+        if (oldNames.equals(newNames)) {
+            return;
+        }
+        for (String name : oldNames) {
+            if (!newNames.contains(name)) {
+                changed.add(name);
+            }
+        }
+        for (String name : newNames) {
+            if (!oldNames.contains(name)) {
+                changed.add(name);
+            }
+        }
+    }
+
+    private static void compareSubjects(Map<String, SubjectSnapshot> oldSubjects, Map<String, SubjectSnapshot> newSubjects, Set<String> changed) {
+        if (oldSubjects == newSubjects) {
+            return;
+        }
+        for (Map.Entry<String, SubjectSnapshot> subject : oldSubjects.entrySet()) {
+            if (!subject.getValue().equals(newSubjects.get(subject.getKey()))) {
+                changed.add(subject.getKey());
+            }
+        }
+        for (String subject : newSubjects.keySet()) {
+            if (!oldSubjects.containsKey(subject)) {
+                changed.add(subject);
+            }
+        }
+    }
+
+    private static void compareAncestors(Set<String> groups, InheritanceClosure oldInheritance, InheritanceClosure newInheritance, Set<String> changed) {
+        for (String group : groups) {
+            final List<Map.Entry<String, String>> oldAncestors = oldInheritance.getAncestors(group);
+            final List<Map.Entry<String, String>> newAncestors = newInheritance.getAncestors(group);
+            if (oldAncestors != newAncestors && !oldAncestors.equals(newAncestors)) {
+                changed.add(group);
+            }
+        }
+    }
+
+    /**
+     * Get whether a subject is affected by the changes, directly or because the identifier it was requested by now resolves differently.
+     *
+     * @param type The type of subject
+     * @param identifier The identifier the subject was requested by
+     * @param oldIndex The subject index of the previous state
+     * @param newIndex The subject index of the current state
+     * @return Whether data for the subject must be discarded
+     */
+    boolean isAffected(EntityType type, String identifier, SubjectIndex oldIndex, SubjectIndex newIndex) {
+        final String resolved = newIndex.resolve(type, identifier);
+        if (!Objects.equals(resolved, oldIndex.resolve(type, identifier))) {
+            return true;
+        }
+        return resolved != null && getChanged(type).contains(resolved);
+    }
+
+    /**
+     * Get the identifiers of the changed subjects of a type.
+     *
+     * @param type The type of subject
+     * @return The changed identifiers
+     */
+    Set<String> getChanged(EntityType type) {
+        switch (type) {
+            case USER:
+                return this.users;
+            case GROUP:
+                return this.groups;
+            default:
+                return ImmutableSet.of();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import ninja.leaping.permissionsex.PermissionsEx;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An inverted index from subject name to the contexts that subject is defined in.
+ *
+ * <p>Contexts are numbered, with the global context first followed by every loaded world in name order,
+ * and the contexts of each subject are stored as a bitset over those numbers.
+ * Most subjects are defined in the same few combinations of worlds, so each distinct combination is stored once,
+ * together with the context sets it stands for, which are the interned {@link WorldContext} instances of each world.</p>
+ *
+ * <p>Users are also present in worlds where they are only found by alias, which is tracked apart from the worlds actually storing them,
+ * since only the latter decide which world a subject belongs to.</p>
+ */
+final class SubjectIndex {
+    static final SubjectIndex EMPTY = new SubjectIndex(ImmutableList.<String>of(), ImmutableMap.<String, Presence>of(), ImmutableMap.<String, Presence>of(), UserAliases.EMPTY);
+    private static final Presence ABSENT = new Presence(new BitSet(), ImmutableSet.<Set<Map.Entry<String, String>>>of());
+    private final List<String> worlds;
+    private final Map<String, Presence> users;
+    private final Map<String, Presence> groups;
+    private final UserAliases userAliases;
+
+    /**
+     * The contexts a single subject is present in.
+     */
+    private static final class Presence {
+        private final BitSet stored; // Contexts whose files hold the subject under exactly this key
+        private final Set<Set<Map.Entry<String, String>>> contextSets; // Stored contexts, and for users the worlds they are found in by alias
+
+        private Presence(BitSet stored, Set<Set<Map.Entry<String, String>>> contextSets) {
+            this.stored = stored;
+            this.contextSets = contextSets;
+        }
+    }
+
+    private SubjectIndex(List<String> worlds, Map<String, Presence> users, Map<String, Presence> groups, UserAliases userAliases) {
+        this.worlds = worlds;
+        this.users = users;
+        this.groups = groups;
+        this.userAliases = userAliases;
+    }
+
+    static SubjectIndex build(Set<String> globalGroups, Map<String, WorldNames> worlds, WorldContexts worldContexts) {
+        final List<String> worldNames = ImmutableList.copyOf(new TreeSet<>(worlds.keySet()));
+        final List<Set<Map.Entry<String, String>>> contexts = new ArrayList<>(worldNames.size() + 1);
+        contexts.add(PermissionsEx.GLOBAL_CONTEXT);
+        for (String world : worldNames) {
+            contexts.add(worldContexts.intern(world));
+        }
+
+        final Map<String, BitSet> users = new HashMap<>();
+        final Map<String, BitSet> groups = new HashMap<>();
+        for (String group : globalGroups) {
+            groups.computeIfAbsent(group, k -> new BitSet()).set(0);
+        }
+        final UserAliases.Builder aliases = UserAliases.builder();
+        for (int i = 0; i < worldNames.size(); ++i) {
+            final WorldNames world = worlds.get(worldNames.get(i));
+            addAll(users, world.getUsers(), i + 1);
+            addAll(groups, world.getGroups(), i + 1);
+            aliases.addAll(world.getUserAliases());
+        }
+
+        // A user stored under a different key or case in some worlds is still found there by alias, so it is present in those worlds too
+        final UserAliases userAliases = aliases.build();
+        final Map<String, BitSet> userContexts = new HashMap<>();
+        for (Map.Entry<String, BitSet> user : users.entrySet()) {
+            userContexts.put(user.getKey(), (BitSet) user.getValue().clone());
+        }
+        for (int i = 0; i < worldNames.size(); ++i) {
+            for (String alias : worlds.get(worldNames.get(i)).getUserAliases().getNormalizedAliases()) {
+                final BitSet present = userContexts.get(userAliases.getKey(alias));
+                if (present != null) {
+                    present.set(i + 1);
+                }
+            }
+        }
+
+        final Map<List<BitSet>, Presence> canonical = new HashMap<>();
+        return new SubjectIndex(worldNames, freeze(users, userContexts, contexts, canonical), freeze(groups, groups, contexts, canonical), userAliases);
+    }
+
+    private static void addAll(Map<String, BitSet> index, Set<String> names, int context) {
+        for (String name : names) {
+            index.computeIfAbsent(name, k -> new BitSet()).set(context);
+        }
+    }
+
+    private static Map<String, Presence> freeze(Map<String, BitSet> stored, Map<String, BitSet> present, List<Set<Map.Entry<String, String>>> contexts,
+                                                Map<List<BitSet>, Presence> canonical) {
+        final ImmutableMap.Builder<String, Presence> ret = ImmutableMap.builder();
+        for (Map.Entry<String, BitSet> entry : stored.entrySet()) {
+            final BitSet storedBits = entry.getValue(), presentBits = present.get(entry.getKey());
+            ret.put(entry.getKey(), canonical.computeIfAbsent(ImmutableList.of(storedBits, presentBits), k -> {
+                final ImmutableSet.Builder<Set<Map.Entry<String, String>>> contextSets = ImmutableSet.builder();
+                for (int i = presentBits.nextSetBit(0); i >= 0; i = presentBits.nextSetBit(i + 1)) {
+                    contextSets.add(contexts.get(i));
+                }
+                return new Presence(storedBits, contextSets.build());
+            }));
+        }
+        return ret.build();
+    }
+
+    private Map<String, Presence> forType(EntityType type) {
+        switch (type) {
+            case USER:
+                return this.users;
+            case GROUP:
+                return this.groups;
+            default:
+                return ImmutableMap.of();
+        }
+    }
+
+    private Presence getPresence(EntityType type, String identifier) {
+        final Presence ret = forType(type).get(identifier);
+        return ret == null ? ABSENT : ret;
+    }
+
+    public boolean contains(EntityType type, String identifier) {
+        return forType(type).containsKey(identifier);
+    }
+
+    /**
+     * Find the identifier a subject is indexed under. Users are also found by UUID or last known name, ignoring case.
+     *
+     * @param type The type of subject
+     * @param identifier The requested identifier
+     * @return The indexed identifier, or null if no subject matches
+     */
+    public String resolve(EntityType type, String identifier) {
+        if (contains(type, identifier)) {
+            return identifier;
+        }
+        return type == EntityType.USER ? this.userAliases.resolve(identifier) : null;
+    }
+
+    /**
+     * Get every identifier of the given type.
+     *
+     * @param type The type of subject
+     * @return An immutable set of identifiers
+     */
+    public Set<String> getIdentifiers(EntityType type) {
+        return forType(type).keySet();
+    }
+
+    /**
+     * Get the contexts a subject is defined in. Equal results are shared between subjects.
+     *
+     * @param type The type of subject
+     * @param identifier The subject's identifier
+     * @return An immutable set of the global context and single world contexts, empty if the subject is unknown
+     */
+    public Set<Set<Map.Entry<String, String>>> getActiveContexts(EntityType type, String identifier) {
+        return getPresence(type, identifier).contextSets;
+    }
+
+    /**
+     * Get the first world, by name, that stores a subject under exactly this identifier. Worlds that only find the subject by alias are not considered.
+     *
+     * @param type The type of subject
+     * @param identifier The subject's identifier
+     * @return The world's name, or null if the subject is not stored in any world
+     */
+    public String getFirstWorld(EntityType type, String identifier) {
+        final int context = getPresence(type, identifier).stored.nextSetBit(1);
+        return context < 0 ? null : this.worlds.get(context - 1);
+    }
+}
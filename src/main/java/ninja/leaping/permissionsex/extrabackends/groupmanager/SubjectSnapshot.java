@@ -0,0 +1,226 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.objectmapping.ObjectMappingException;
+import ninja.leaping.permissionsex.backend.ConversionUtils;
+import ninja.leaping.permissionsex.extrabackends.CompactPermissionMap;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable, fully converted representation of a single GroupManager user or group entry.
+ */
+public final class SubjectSnapshot {
+    private static final TypeToken<Map<String, String>> TYPE_MAP_STRING_STRING = new TypeToken<Map<String, String>>() {};
+    private final PermissionTrie permissions;
+    private final int defaultValue;
+    private final Map<String, String> options;
+    private final List<Map.Entry<String, String>> parents;
+    private final String lastName;
+
+    private SubjectSnapshot(PermissionTrie permissions, int defaultValue, Map<String, String> options, List<Map.Entry<String, String>> parents, String lastName) {
+        this.permissions = permissions;
+        this.defaultValue = defaultValue;
+        this.options = options;
+        this.parents = parents;
+        this.lastName = lastName;
+    }
+
+    /**
+     * Compile the entry at {@code node} into a snapshot.
+     *
+     * @param node The node holding a single user or group
+     * @param type The type of subject stored in the node
+     * @param symbols The symbol table to canonicalize data into
+     * @return The compiled snapshot
+     */
+    static SubjectSnapshot fromNode(ConfigurationNode node, EntityType type, SymbolTable symbols) {
+        Map<String, String> options;
+        try {
+            options = node.getNode("info").getValue(TYPE_MAP_STRING_STRING, ImmutableMap.<String, String>of());
+        } catch (ObjectMappingException e) {
+            options = ImmutableMap.of();
+        }
+
+        final List<String> parents = new ArrayList<>();
+        try {
+            parents.addAll(node.getNode(type.getInheritanceKey()).getList(TypeToken.of(String.class)));
+            if (type == EntityType.USER) {
+                parents.addAll(node.getNode("subgroups").getList(TypeToken.of(String.class)));
+            }
+        } catch (ObjectMappingException e) {
+            // Keep the parents read so far
+        }
+
+        return of(node.getNode("permissions").getList(input -> input == null ? null : input.toString()), options, parents,
+                type == EntityType.USER ? node.getNode("lastname").getString() : null, symbols);
+    }
+
+    /**
+     * Compile raw GroupManager data into a snapshot.
+     *
+     * @param rawPermissions The permissions in GroupManager syntax. Null elements are ignored
+     * @param options The contents of the {@code info} section
+     * @param rawParents Names of parent groups, possibly with the {@code g:} prefix for global groups.
+     *                   For users, this is the main group followed by any subgroups. Repeated groups are only kept once
+     * @param lastName The user's last known name, or null if not recorded
+     * @param symbols The symbol table to canonicalize data into
+     * @return The compiled snapshot
+     */
+    static SubjectSnapshot of(List<String> rawPermissions, Map<String, String> options, List<String> rawParents, String lastName, SymbolTable symbols) {
+        final Map<String, Integer> permissions = new LinkedHashMap<>();
+        boolean wildcard = false, negatedWildcard = false;
+        for (String perm : rawPermissions) {
+            if (perm == null) {
+                continue;
+            }
+            if (perm.equals("*")) {
+                wildcard = true;
+                continue;
+            } else if (perm.equals("-*")) {
+                negatedWildcard = true;
+            }
+
+            int val = 1;
+            if (perm.startsWith("-")) {
+                val = -1;
+                perm = perm.substring(1);
+            }
+            permissions.put(ConversionUtils.convertLegacyPermission(perm), val);
+        }
+
+        final List<String> parents = new ArrayList<>(rawParents.size());
+        for (String parent : rawParents) {
+            if (parent == null) {
+                continue;
+            }
+            if (parent.startsWith("g:")) {
+                parent = parent.substring(2);
+            }
+            if (!parents.contains(parent)) {
+                parents.add(parent);
+            }
+        }
+
+        return ofCompiled(permissions, wildcard ? 1 : negatedWildcard ? -1 : 0, options, parents, lastName, symbols);
+    }
+
+    /**
+     * Create a snapshot from data that has already been converted, such as data read back from a {@link SnapshotCache}.
+     *
+     * @param permissions Converted permissions
+     * @param defaultValue The default permission value
+     * @param options Options
+     * @param parentGroups Names of parent groups, without any {@code g:} prefix
+     * @param lastName The user's last known name, or null if not recorded
+     * @param symbols The symbol table to canonicalize data into
+     * @return The snapshot
+     */
+    static SubjectSnapshot ofCompiled(Map<String, Integer> permissions, int defaultValue, Map<String, String> options, List<String> parentGroups, String lastName, SymbolTable symbols) {
+        final ImmutableMap.Builder<String, String> optionsBuilder = ImmutableMap.builder();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey() != null && option.getValue() != null) {
+                optionsBuilder.put(symbols.intern(option.getKey()), symbols.intern(option.getValue()));
+            }
+        }
+
+        final CompactPermissionMap.Builder permissionsBuilder = CompactPermissionMap.builder(permissions.size());
+        for (Map.Entry<String, Integer> permission : permissions.entrySet()) {
+            permissionsBuilder.put(symbols.intern(permission.getKey()), permission.getValue());
+        }
+
+        final ImmutableList.Builder<Map.Entry<String, String>> parentsBuilder = ImmutableList.builder();
+        for (String parent : parentGroups) {
+            parentsBuilder.add(symbols.groupReference(parent));
+        }
+
+        return new SubjectSnapshot(symbols.internPermissions(permissionsBuilder.build()), defaultValue,
+                symbols.internOptions(optionsBuilder.build()), symbols.internParents(parentsBuilder.build()), lastName == null ? null : symbols.intern(lastName));
+    }
+
+    public Map<String, Integer> getPermissions() {
+        return this.permissions.getPermissions();
+    }
+
+    public PermissionTrie getPermissionTrie() {
+        return this.permissions;
+    }
+
+    /**
+     * Resolve a permission for this subject, falling back to the default value when no permission node matches.
+     *
+     * @param permission The permission to check
+     * @return The resolved value
+     */
+    public int getPermissionValue(String permission) {
+        final int ret = this.permissions.get(permission);
+        return ret == 0 ? this.defaultValue : ret;
+    }
+
+    public int getDefaultValue() {
+        return this.defaultValue;
+    }
+
+    public Map<String, String> getOptions() {
+        return this.options;
+    }
+
+    public List<Map.Entry<String, String>> getParents() {
+        return this.parents;
+    }
+
+    /**
+     * Get the last known name of a user stored under its UUID, as recorded in GroupManager's {@code lastname} field.
+     *
+     * @return The last known name, or null if not recorded
+     */
+    public String getLastName() {
+        return this.lastName;
+    }
+
+    /**
+     * Compare the converted data of two snapshots. Components canonicalized through the same symbol table compare by identity.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (!(o instanceof SubjectSnapshot)) {
+            return false;
+        }
+        final SubjectSnapshot that = (SubjectSnapshot) o;
+        return this.defaultValue == that.defaultValue
+                && (this.permissions == that.permissions || getPermissions().equals(that.getPermissions()))
+                && this.options.equals(that.options)
+                && this.parents.equals(that.parents)
+                && Objects.equals(this.lastName, that.lastName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getPermissions(), this.defaultValue, this.options, this.parents, this.lastName);
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_GROUP;
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+
+/**
+ * A spliterator over every subject in a {@link GroupManagerDataStore}, partitioned from the names in the data store's world index.
+ *
+ * <p>Subjects are partitioned by type and by the world they are defined in, and splitting divides the remaining partitions.
+ * A subject defined in several worlds is only produced by the partition of the first of those worlds, and global groups only by
+ * the global partition, so each subject is produced exactly once across all splits.</p>
+ */
+class SubjectSpliterator implements Spliterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> {
+    private final GroupManagerDataStore dataStore;
+    private final SubjectIndex index;
+    private final Map<String, SubjectSnapshot> globalGroups;
+    private final List<Partition> partitions;
+    private int nextPartition;
+    private int endPartition;
+    private Partition current;
+    private Iterator<String> currentNames;
+
+    private static final class Partition {
+        private final EntityType type;
+        private final String world;
+        private final Collection<String> names;
+
+        private Partition(EntityType type, String world, Collection<String> names) {
+            this.type = type;
+            this.world = world;
+            this.names = names;
+        }
+    }
+
+    SubjectSpliterator(GroupManagerDataStore dataStore) {
+        this.dataStore = dataStore;
+        this.index = dataStore.getSubjectIndex();
+        this.globalGroups = dataStore.getGlobalGroups();
+        this.partitions = new ArrayList<>();
+
+        final Map<String, WorldNames> worlds = new TreeMap<>(dataStore.getWorldNames());
+        for (Map.Entry<String, WorldNames> world : worlds.entrySet()) {
+            this.partitions.add(new Partition(EntityType.USER, world.getKey(), world.getValue().getUsers()));
+        }
+        this.partitions.add(new Partition(EntityType.GROUP, null, this.globalGroups.keySet()));
+        for (Map.Entry<String, WorldNames> world : worlds.entrySet()) {
+            this.partitions.add(new Partition(EntityType.GROUP, world.getKey(), world.getValue().getGroups()));
+        }
+        this.endPartition = this.partitions.size();
+    }
+
+    private SubjectSpliterator(SubjectSpliterator parent, int startPartition, int endPartition) {
+        this.dataStore = parent.dataStore;
+        this.index = parent.index;
+        this.globalGroups = parent.globalGroups;
+        this.partitions = parent.partitions;
+        this.nextPartition = startPartition;
+        this.endPartition = endPartition;
+    }
+
+    /**
+     * Check whether a subject should be produced by the given partition, rather than by the partition of another world it is defined in.
+     */
+    private boolean isOwner(Partition partition, String name) {
+        if (partition.world == null) {
+            return true;
+        } else if (partition.type == EntityType.GROUP && this.globalGroups.containsKey(name)) {
+            return false;
+        }
+        final String firstWorld = this.index.getFirstWorld(partition.type, name);
+        return firstWorld == null || firstWorld.equals(partition.world);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> action) {
+        while (true) {
+            if (this.currentNames == null || !this.currentNames.hasNext()) {
+                if (this.nextPartition >= this.endPartition) {
+                    return false;
+                }
+                this.current = this.partitions.get(this.nextPartition++);
+                this.currentNames = this.current.names.iterator();
+                continue;
+            }
+
+            final String name = this.currentNames.next();
+            if (isOwner(this.current, name)) {
+                final String type = this.current.type == EntityType.USER ? SUBJECTS_USER : SUBJECTS_GROUP;
+                action.accept(Maps.immutableEntry(Maps.immutableEntry(type, name), this.dataStore.getBaseData(type, name).join()));
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public Spliterator<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> trySplit() {
+        final int remaining = this.endPartition - this.nextPartition;
+        if (remaining < 2) {
+            return null;
+        }
+        final int mid = this.nextPartition + remaining / 2;
+        final SubjectSpliterator ret = new SubjectSpliterator(this, mid, this.endPartition);
+        this.endPartition = mid;
+        return ret;
+    }
+
+    @Override
+    public long estimateSize() {
+        long ret = this.currentNames != null && this.currentNames.hasNext() ? this.current.names.size() : 0;
+        for (int i = this.nextPartition; i < this.endPartition; ++i) {
+            ret += this.partitions.get(i).names.size();
+        }
+        return ret;
+    }
+
+    @Override
+    public int characteristics() {
+        return DISTINCT | NONNULL | IMMUTABLE;
+    }
+}
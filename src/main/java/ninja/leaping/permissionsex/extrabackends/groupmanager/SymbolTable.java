@@ -0,0 +1,132 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.PermissionsEx;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool that all strings and small collections loaded by a data store are canonicalized into,
+ * so that data repeated across worlds and subjects is only held in memory once.
+ *
+ * <p>Canonical instances are only weakly held, so data that is no longer referenced by any loaded subject,
+ * for example after the file it was read from has been reloaded, can be collected.</p>
+ *
+ * <p>Permission nodes are interned as strings rather than numbered. A {@link ninja.leaping.permissionsex.extrabackends.CompactPermissionMap}
+ * holds a reference to each canonical node, which takes no more space than an integer symbol would, and lookups by a permission string
+ * need no translation to a symbol first. Integer symbols would also tie permission data to one table, while compact maps are shared
+ * with backends that have none.</p>
+ */
+final class SymbolTable {
+    private final Interner<String> strings = Interners.newWeakInterner();
+    private final Interner<Map.Entry<String, String>> groupReferences = Interners.newWeakInterner();
+    private final Interner<Map<String, String>> optionMaps = Interners.newWeakInterner();
+    private final Interner<List<Map.Entry<String, String>>> parentLists = Interners.newWeakInterner();
+    // The trie refers to its permissions map, so only the trie may be weakly held for the entry to ever be released
+    private final LoadingCache<Map<String, Integer>, PermissionTrie> permissionTries = CacheBuilder.newBuilder()
+            .weakValues()
+            .build(CacheLoader.from(permissions -> PermissionTrie.build(permissions, this)));
+    private final AtomicLong stringRequests = new AtomicLong();
+    private final AtomicLong uniqueStrings = new AtomicLong();
+
+    /**
+     * Get the canonical instance of a string.
+     *
+     * @param value The string to canonicalize
+     * @return An equal string, shared by all callers
+     */
+    public String intern(String value) {
+        this.stringRequests.incrementAndGet();
+        final String ret = this.strings.intern(value);
+        if (ret == value) {
+            this.uniqueStrings.incrementAndGet();
+        }
+        return ret;
+    }
+
+    public Map.Entry<String, String> groupReference(String group) {
+        return this.groupReferences.intern(Maps.immutableEntry(PermissionsEx.SUBJECTS_GROUP, intern(group)));
+    }
+
+    public Map<String, String> internOptions(ImmutableMap<String, String> options) {
+        if (options.isEmpty()) {
+            return ImmutableMap.of();
+        }
+        return this.optionMaps.intern(options);
+    }
+
+    public List<Map.Entry<String, String>> internParents(ImmutableList<Map.Entry<String, String>> parents) {
+        if (parents.isEmpty()) {
+            return ImmutableList.of();
+        }
+        return this.parentLists.intern(parents);
+    }
+
+    /**
+     * Get the trie for a permissions map. Subjects with equal permissions share both the trie
+     * and the permissions map it was built from, available through {@link PermissionTrie#getPermissions()}.
+     *
+     * @param permissions The permissions map
+     * @return The canonical trie for these permissions
+     */
+    public PermissionTrie internPermissions(Map<String, Integer> permissions) {
+        if (permissions.isEmpty()) {
+            return PermissionTrie.EMPTY;
+        }
+        return this.permissionTries.getUnchecked(permissions);
+    }
+
+    /**
+     * Get the number of strings that have been passed through this table.
+     *
+     * @return The number of canonicalization requests
+     */
+    public long getStringRequests() {
+        return this.stringRequests.get();
+    }
+
+    /**
+     * Get the number of strings that became canonical instances in this table.
+     * Strings that have since been collected are still counted.
+     *
+     * @return The number of unique strings
+     */
+    public long getUniqueStrings() {
+        return this.uniqueStrings.get();
+    }
+
+    /**
+     * Get the average number of times each unique string was requested.
+     *
+     * @return The deduplication ratio
+     */
+    public double getDeduplicationRatio() {
+        final long unique = getUniqueStrings();
+        return unique == 0 ? 1 : (double) getStringRequests() / unique;
+    }
+}
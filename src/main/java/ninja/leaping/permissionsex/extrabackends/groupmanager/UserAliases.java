@@ -0,0 +1,138 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Case-insensitive lookup of GroupManager users by any of the identifiers they may be requested by.
+ *
+ * <p>Newer GroupManager versions key users by UUID and record the player's name in a {@code lastname} field,
+ * while older files key users by name. Each user is indexed by its lower-cased key, which covers both UUIDs and names,
+ * and by its lower-cased last name. Keys take precedence over last names, and earlier entries over later ones.</p>
+ */
+final class UserAliases {
+    static final UserAliases EMPTY = new UserAliases(ImmutableMap.<String, String>of(), ImmutableMap.<String, String>of());
+    private final Map<String, String> keys;
+    private final Map<String, String> lastNames;
+
+    private UserAliases(Map<String, String> keys, Map<String, String> lastNames) {
+        this.keys = keys;
+        this.lastNames = lastNames;
+    }
+
+    /**
+     * Index the users of a single world.
+     *
+     * @param users The world's users
+     * @return The index
+     */
+    static UserAliases of(Map<String, SubjectSnapshot> users) {
+        final Builder ret = builder();
+        for (Map.Entry<String, SubjectSnapshot> user : users.entrySet()) {
+            ret.add(user.getKey(), user.getValue().getLastName());
+        }
+        return ret.build();
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static final class Builder {
+        private final Map<String, String> keys = new HashMap<>();
+        private final Map<String, String> lastNames = new HashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Add a single user.
+         *
+         * @param key The key the user is stored under
+         * @param lastName The user's last known name, or null if not recorded
+         * @return this
+         */
+        Builder add(String key, String lastName) {
+            this.keys.putIfAbsent(normalize(key), key);
+            if (lastName != null) {
+                this.lastNames.putIfAbsent(normalize(lastName), key);
+            }
+            return this;
+        }
+
+        /**
+         * Add every alias from another index, keeping existing entries.
+         *
+         * @param other The index to add
+         * @return this
+         */
+        Builder addAll(UserAliases other) {
+            for (Map.Entry<String, String> entry : other.keys.entrySet()) {
+                this.keys.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, String> entry : other.lastNames.entrySet()) {
+                this.lastNames.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        UserAliases build() {
+            return this.keys.isEmpty() ? EMPTY : new UserAliases(ImmutableMap.copyOf(this.keys), ImmutableMap.copyOf(this.lastNames));
+        }
+    }
+
+    private static String normalize(String identifier) {
+        return identifier.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Find the key a user is stored under.
+     *
+     * @param identifier A UUID or name, in any case
+     * @return The matching key, or null if no user matches
+     */
+    public String resolve(String identifier) {
+        final String normalized = normalize(identifier);
+        final String ret = this.keys.get(normalized);
+        return ret == null ? this.lastNames.get(normalized) : ret;
+    }
+
+    /**
+     * Get the key matching an identifier case-insensitively, without considering last names.
+     *
+     * @param identifier The normalized identifier
+     * @return The matching key, or null if no key matches
+     */
+    String getKey(String identifier) {
+        return this.keys.get(identifier);
+    }
+
+    /**
+     * Get every normalized key and last name in this index.
+     *
+     * @return An iterable over the normalized aliases
+     */
+    Iterable<String> getNormalizedAliases() {
+        return Iterables.concat(this.keys.keySet(), this.lastNames.keySet());
+    }
+}
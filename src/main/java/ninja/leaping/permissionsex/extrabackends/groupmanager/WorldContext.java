@@ -0,0 +1,97 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The canonical context set of a single world, {@code {world=<name>}}.
+ *
+ * <p>Instances are interned by a {@link WorldContexts} table, which assigns each world a fixed index.
+ * The set's hash is computed once, and the index lets a data store find the world's data without looking up its name.</p>
+ */
+final class WorldContext extends AbstractSet<Map.Entry<String, String>> {
+    static final String KEY = "world";
+    private final Map.Entry<String, String> entry;
+    private final int index;
+    private final int hashCode;
+
+    WorldContext(String world, int index) {
+        this.entry = Maps.immutableEntry(KEY, world);
+        this.index = index;
+        this.hashCode = this.entry.hashCode();
+    }
+
+    /**
+     * Get the name of this context's world.
+     *
+     * @return The world's name
+     */
+    public String getWorld() {
+        return this.entry.getValue();
+    }
+
+    /**
+     * Get the index assigned to this world by the table that interned it.
+     *
+     * @return The index, starting from 0
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return Iterators.singletonIterator(this.entry);
+    }
+
+    @Override
+    public int size() {
+        return 1;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return this.entry.equals(o);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (o instanceof WorldContext) {
+            return this.hashCode == o.hashCode() && getWorld().equals(((WorldContext) o).getWorld());
+        }
+        return o instanceof Set && ((Set<?>) o).size() == 1 && ((Set<?>) o).contains(this.entry);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The interned context sets of every world a data store has seen.
+ *
+ * <p>Worlds keep their context set and index for the lifetime of the table, so instances handed out before a reload
+ * still resolve directly afterwards.</p>
+ */
+final class WorldContexts {
+    private final ConcurrentMap<String, WorldContext> byName = new ConcurrentHashMap<>();
+    private volatile WorldContext[] byIndex = new WorldContext[0];
+
+    /**
+     * Get the canonical context set of a world, assigning it an index if it has not been seen before.
+     *
+     * @param world The world's name
+     * @return The world's context set
+     */
+    public WorldContext intern(String world) {
+        final WorldContext existing = this.byName.get(world);
+        if (existing != null) {
+            return existing;
+        }
+        synchronized (this) {
+            WorldContext ret = this.byName.get(world);
+            if (ret == null) {
+                final WorldContext[] byIndex = Arrays.copyOf(this.byIndex, this.byIndex.length + 1);
+                ret = byIndex[byIndex.length - 1] = new WorldContext(world, byIndex.length - 1);
+                this.byIndex = byIndex;
+                this.byName.put(world, ret);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Get the number of worlds interned so far. Every index is smaller than this.
+     *
+     * @return The number of worlds
+     */
+    public int size() {
+        return this.byIndex.length;
+    }
+
+    /**
+     * Find the interned world context equal to a context set.
+     * Sets previously returned by this table are recognized without any lookup.
+     *
+     * @param contexts The contexts to resolve
+     * @return The world context, or null if the contexts are not a single world context or the world has not been interned
+     */
+    public WorldContext lookup(Set<Map.Entry<String, String>> contexts) {
+        if (contexts instanceof WorldContext) {
+            final WorldContext world = (WorldContext) contexts;
+            final WorldContext[] byIndex = this.byIndex;
+            if (world.getIndex() < byIndex.length && byIndex[world.getIndex()] == world) {
+                return world;
+            }
+            return this.byName.get(world.getWorld());
+        } else if (contexts.size() != 1) {
+            return null;
+        }
+        final Map.Entry<String, String> context = contexts.iterator().next();
+        return WorldContext.KEY.equals(context.getKey()) ? this.byName.get(context.getValue()) : null;
+    }
+}
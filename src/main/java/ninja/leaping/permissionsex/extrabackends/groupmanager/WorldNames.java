@@ -0,0 +1,53 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
+/**
+ * The names of the subjects defined in a single GroupManager world, known even when the world's data is not loaded.
+ */
+final class WorldNames {
+    static final WorldNames EMPTY = new WorldNames(ImmutableSet.<String>of(), ImmutableSet.<String>of(), UserAliases.EMPTY);
+    private final Set<String> users;
+    private final Set<String> groups;
+    private final UserAliases userAliases;
+
+    WorldNames(Set<String> users, Set<String> groups, UserAliases userAliases) {
+        this.users = users;
+        this.groups = groups;
+        this.userAliases = userAliases;
+    }
+
+    static WorldNames of(WorldSnapshot world) {
+        return new WorldNames(world.getUsers().keySet(), world.getGroups().keySet(), world.getUserAliases());
+    }
+
+    public Set<String> getUsers() {
+        return this.users;
+    }
+
+    public Set<String> getGroups() {
+        return this.groups;
+    }
+
+    public UserAliases getUserAliases() {
+        return this.userAliases;
+    }
+}
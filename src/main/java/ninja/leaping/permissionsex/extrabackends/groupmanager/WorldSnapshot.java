@@ -0,0 +1,96 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableMap;
+import ninja.leaping.configurate.ConfigurationNode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The compiled contents of a single GroupManager world's {@code users.yml} and {@code groups.yml}.
+ */
+public final class WorldSnapshot {
+    static final WorldSnapshot EMPTY = new WorldSnapshot(ImmutableMap.<String, SubjectSnapshot>of(), ImmutableMap.<String, SubjectSnapshot>of(), InheritanceClosure.EMPTY);
+    private final Map<String, SubjectSnapshot> users;
+    private final Map<String, SubjectSnapshot> groups;
+    private final InheritanceClosure inheritance;
+    private final UserAliases userAliases;
+
+    WorldSnapshot(Map<String, SubjectSnapshot> users, Map<String, SubjectSnapshot> groups, InheritanceClosure inheritance) {
+        this.users = users;
+        this.groups = groups;
+        this.inheritance = inheritance;
+        this.userAliases = UserAliases.of(users);
+    }
+
+    /**
+     * Compile every child of {@code parent} into a snapshot.
+     * Global group references ({@code g:name}) are stored under their bare name, unless an entry with the bare name also exists.
+     *
+     * @param parent The node containing subjects
+     * @param type The type of subject contained
+     * @param symbols The symbol table to canonicalize data into
+     * @return An immutable map of subject name to compiled data
+     */
+    static Map<String, SubjectSnapshot> compileSubjects(ConfigurationNode parent, EntityType type, SymbolTable symbols) {
+        final Map<String, SubjectSnapshot> ret = new LinkedHashMap<>();
+        for (Map.Entry<Object, ? extends ConfigurationNode> entry : parent.getChildrenMap().entrySet()) {
+            String name = entry.getKey().toString();
+            if (type == EntityType.GROUP && name.startsWith("g:")) {
+                name = name.substring(2);
+                if (ret.containsKey(name)) {
+                    continue;
+                }
+            }
+            ret.put(symbols.intern(name), SubjectSnapshot.fromNode(entry.getValue(), type, symbols));
+        }
+        return ImmutableMap.copyOf(ret);
+    }
+
+    public Map<String, SubjectSnapshot> getUsers() {
+        return this.users;
+    }
+
+    /**
+     * Get a user by its exact key, or otherwise by UUID or last known name in any case.
+     *
+     * @param identifier The user's identifier
+     * @return The user's data, or null if no user matches
+     */
+    public SubjectSnapshot getUser(String identifier) {
+        final SubjectSnapshot ret = this.users.get(identifier);
+        if (ret != null) {
+            return ret;
+        }
+        final String key = this.userAliases.resolve(identifier);
+        return key == null ? null : this.users.get(key);
+    }
+
+    UserAliases getUserAliases() {
+        return this.userAliases;
+    }
+
+    public Map<String, SubjectSnapshot> getGroups() {
+        return this.groups;
+    }
+
+    InheritanceClosure getInheritance() {
+        return this.inheritance;
+    }
+}
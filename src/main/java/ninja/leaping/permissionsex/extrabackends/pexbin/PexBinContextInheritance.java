@@ -0,0 +1,50 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.pexbin;
+
+import com.google.common.collect.ImmutableList;
+import ninja.leaping.permissionsex.data.ContextInheritance;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The context inheritance stored in a pexbin file.
+ */
+class PexBinContextInheritance implements ContextInheritance {
+    private final Map<Map.Entry<String, String>, List<Map.Entry<String, String>>> parents;
+
+    PexBinContextInheritance(Map<Map.Entry<String, String>, List<Map.Entry<String, String>>> parents) {
+        this.parents = parents;
+    }
+
+    @Override
+    public List<Map.Entry<String, String>> getParents(Map.Entry<String, String> context) {
+        final List<Map.Entry<String, String>> ret = this.parents.get(context);
+        return ret == null ? ImmutableList.<Map.Entry<String, String>>of() : ret;
+    }
+
+    @Override
+    public ContextInheritance setParents(Map.Entry<String, String> context, List<Map.Entry<String, String>> parents) {
+        return this;
+    }
+
+    @Override
+    public Map<Map.Entry<String, String>, List<Map.Entry<String, String>>> getAllParents() {
+        return this.parents;
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.pexbin;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.configurate.objectmapping.Setting;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.data.ContextInheritance;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.extrabackends.BackendMetrics;
+import ninja.leaping.permissionsex.extrabackends.ReadOnlyDataStore;
+import ninja.leaping.permissionsex.rank.FixedRankLadder;
+import ninja.leaping.permissionsex.rank.RankLadder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_GROUP;
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+import static ninja.leaping.permissionsex.util.Translations.t;
+
+/**
+ * Backend reading a pexbin file, a compact binary snapshot of another data store written by {@link PexBinWriter}.
+ *
+ * <p>The file is memory-mapped read-only, and subject data is decoded from the mapping as it is requested.
+ * Several servers on one host using the same file therefore share a single copy of the data in the page cache,
+ * rather than each holding its own parsed copy on the heap.</p>
+ *
+ * <p>When {@code convert-from} names another data store of the PermissionsEx configuration, the file is written from that data store
+ * each time this data store is initialized, unless the file is already newer than that data store's data.
+ * Only one of the servers sharing a file should convert it.</p>
+ */
+public class PexBinDataStore extends ReadOnlyDataStore {
+    public static final Factory FACTORY = new Factory("pexbin", PexBinDataStore.class);
+
+    @Setting("file")
+    private String file = "permissions.pexbin";
+    @Setting("convert-from")
+    private String convertFrom = "";
+
+    private PexBinFile data;
+    private Map<String, List<Map.Entry<String, String>>> ladders;
+    private ContextInheritance contextInheritance;
+
+    protected PexBinDataStore() {
+        super(FACTORY);
+    }
+
+    @Override
+    protected String getMetricsIdentifier() {
+        return this.file;
+    }
+
+    @Override
+    protected void initializeBase() throws PermissionsLoadingException {
+        final Path path = getManager().getBaseDirectory().resolve(this.file);
+        if (!this.convertFrom.isEmpty()) {
+            convert(path);
+        }
+        if (!Files.isRegularFile(path)) {
+            throw new PermissionsLoadingException(t("pexbin file %s does not exist", path));
+        }
+        try {
+            final long start = System.nanoTime();
+            this.data = PexBinFile.open(path);
+            this.ladders = this.data.readLadders();
+            this.contextInheritance = new PexBinContextInheritance(this.data.readInheritance());
+            this.metrics.recordFullLoad(System.nanoTime() - start);
+            this.metrics.setSubjectCounts(ImmutableMap.of(BackendMetrics.GLOBAL_WORLD, this.data.getSubjects(SUBJECTS_USER).length),
+                    ImmutableMap.of(BackendMetrics.GLOBAL_WORLD, this.data.getSubjects(SUBJECTS_GROUP).length));
+            getManager().getLogger().info(t("Mapped pexbin file %s in %sms", path, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } catch (IOException e) {
+            throw new PermissionsLoadingException(t("Unable to read pexbin file %s", path), e);
+        }
+    }
+
+    /**
+     * Write the pexbin file from the data store named by {@code convert-from} in the PermissionsEx configuration.
+     * The source data store is only open for the duration of the conversion.
+     *
+     * @param path The pexbin file to write
+     * @throws PermissionsLoadingException if the source data store could not be loaded, or the file could not be written
+     */
+    private void convert(Path path) throws PermissionsLoadingException {
+        final DataStore source = getManager().getConfig().getDataStore(this.convertFrom);
+        if (source == null) {
+            throw new PermissionsLoadingException(t("Data store %s to convert to pexbin file %s is not defined", this.convertFrom, path));
+        }
+        try {
+            if (isUpToDate(source, path)) {
+                getManager().getLogger().info(t("pexbin file %s is newer than data store %s, not converting it", path, this.convertFrom));
+                return;
+            }
+        } catch (IOException e) {
+            getManager().getLogger().warn(t("Unable to compare pexbin file %s with data store %s, converting it", path, this.convertFrom), e);
+        }
+        final long start = System.nanoTime();
+        source.initialize(getManager());
+        try {
+            if (source instanceof ReadOnlyDataStore) {
+                ((ReadOnlyDataStore) source).getLoadFuture().join(); // getAll() does not list subjects before an asynchronous load completes
+            }
+            PexBinWriter.write(source, path);
+        } catch (IOException | CompletionException e) {
+            throw new PermissionsLoadingException(t("Unable to convert data store %s to pexbin file %s", this.convertFrom, path), e);
+        } finally {
+            source.close();
+        }
+        getManager().getLogger().info(t("Converted data store %s to pexbin file %s in %sms", this.convertFrom, path,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    /**
+     * Check whether the pexbin file was written after the source data store's data last changed.
+     * Data stores that can't tell when their data changed are always converted.
+     */
+    private boolean isUpToDate(DataStore source, Path path) throws IOException {
+        if (!(source instanceof ReadOnlyDataStore) || !Files.isRegularFile(path)) {
+            return false;
+        }
+        final FileTime sourceModified = ((ReadOnlyDataStore) source).getLastModified(getManager());
+        return sourceModified != null && Files.getLastModifiedTime(path).compareTo(sourceModified) > 0;
+    }
+
+    @Override
+    protected CompletableFuture<ImmutableSubjectData> getBaseData(String type, String identifier) {
+        final long start = System.nanoTime();
+        try {
+            return CompletableFuture.completedFuture(new PexBinSubjectData(this.data, this.data.findSubject(type, identifier)));
+        } finally {
+            this.metrics.record(BackendMetrics.Operation.GET_DATA, start);
+        }
+    }
+
+    @Override
+    protected CompletableFuture<RankLadder> getRankLadderInternal(String ladder) {
+        return CompletableFuture.completedFuture(new FixedRankLadder(ladder, this.ladders.getOrDefault(ladder, ImmutableList.<Map.Entry<String, String>>of())));
+    }
+
+    @Override
+    protected CompletableFuture<ContextInheritance> getContextInheritanceInternal() {
+        return CompletableFuture.completedFuture(this.contextInheritance);
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> isRegisteredInBase(String type, String identifier) {
+        final long start = System.nanoTime();
+        try {
+            return CompletableFuture.completedFuture(this.data.findSubject(type, identifier) != 0);
+        } finally {
+            this.metrics.record(BackendMetrics.Operation.IS_REGISTERED, start);
+        }
+    }
+
+    @Override
+    protected Set<String> getBaseIdentifiers(String type) {
+        final long start = System.nanoTime();
+        try {
+            final ImmutableSet.Builder<String> ret = ImmutableSet.builder();
+            for (int subject : this.data.getSubjects(type)) {
+                ret.add(this.data.getIdentifier(subject));
+            }
+            return ret.build();
+        } finally {
+            this.metrics.record(BackendMetrics.Operation.GET_ALL_IDENTIFIERS, start);
+        }
+    }
+
+    @Override
+    public Set<String> getRegisteredTypes() {
+        return this.data.getTypes();
+    }
+
+    @Override
+    protected Iterable<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> getBaseSubjects() {
+        final ImmutableList.Builder<Map.Entry<Map.Entry<String, String>, ImmutableSubjectData>> ret = ImmutableList.builder();
+        for (String type : this.data.getTypes()) {
+            for (int subject : this.data.getSubjects(type)) {
+                ret.add(Maps.immutableEntry(Maps.immutableEntry(type, this.data.getIdentifier(subject)), new PexBinSubjectData(this.data, subject)));
+            }
+        }
+        return ret.build();
+    }
+
+    @Override
+    public Iterable<String> getAllRankLadders() {
+        return this.ladders.keySet();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> hasRankLadder(String ladder) {
+        return CompletableFuture.completedFuture(this.ladders.containsKey(ladder));
+    }
+}
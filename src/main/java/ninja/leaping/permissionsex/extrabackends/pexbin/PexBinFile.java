@@ -0,0 +1,345 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.pexbin;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.extrabackends.CompactPermissionMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only view of a pexbin file, accessed through a memory-mapped buffer.
+ *
+ * <p>The file consists of a header followed by these sections. All integers are big-endian, and all offsets are absolute positions in the file.
+ * Strings are referred to by their index in the string table.</p>
+ * <pre>
+ * header:      int magic, int version, int stringTable, int typeTable, int ladders, int inheritance
+ * stringTable: int count, int[count + 1] start offsets (the last one is the end of the final string), UTF-8 bytes
+ * typeTable:   int count, then for each type: int name, int subjectCount, int slotCount, int[slotCount] slots
+ * subject:     int identifier, int segmentCount, then for each segment:
+ *                  int contextCount, (int key, int value)[contextCount],
+ *                  int defaultValue,
+ *                  int permissionCount, (int permission, int value)[permissionCount],
+ *                  int optionCount, (int key, int value)[optionCount],
+ *                  int parentCount, (int type, int identifier)[parentCount]
+ * ladders:     int count, then for each ladder: int name, int rankCount, (int type, int identifier)[rankCount]
+ * inheritance: int count, then for each context: int key, int value, int parentCount, (int key, int value)[parentCount]
+ * </pre>
+ *
+ * <p>The slots of each type form an open-addressed hash table of subject offsets, keyed by {@link #slot(String, int)} and probed linearly.
+ * Empty slots are 0.</p>
+ *
+ * <p>Only absolute reads are performed on the shared buffer, so a single instance can be used from any number of threads.
+ * Because the buffer is a read-only mapping, every process opening the same file shares one copy of it in the operating system's page cache.</p>
+ */
+final class PexBinFile {
+    static final int MAGIC = 0x50584231; // PXB1
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 6 * 4;
+    private final ByteBuffer buf;
+    private final int stringCount;
+    private final int stringOffsets;
+    private final Map<String, Integer> types;
+
+    private PexBinFile(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+            throw new IOException("Not a pexbin file");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException("Unsupported pexbin version " + buf.getInt(4));
+        }
+        for (int i = 2; i < 6; ++i) {
+            final int offset = buf.getInt(i * 4);
+            if (offset < HEADER_SIZE || offset > buf.limit() - 4) {
+                throw new IOException("Truncated pexbin file");
+            }
+        }
+
+        final int stringTable = buf.getInt(8);
+        this.stringCount = buf.getInt(stringTable);
+        this.stringOffsets = stringTable + 4;
+        final ImmutableMap.Builder<String, Integer> types = ImmutableMap.builder();
+        int pos = buf.getInt(12);
+        final int typeCount = buf.getInt(pos);
+        pos += 4;
+        for (int i = 0; i < typeCount; ++i) {
+            types.put(getString(buf.getInt(pos)), pos);
+            pos += 12 + 4 * buf.getInt(pos + 8);
+        }
+        this.types = types.build();
+    }
+
+    /**
+     * Map a pexbin file into memory.
+     *
+     * @param file The file to open
+     * @return The opened file
+     * @throws IOException if the file could not be mapped or is not a valid pexbin file
+     */
+    static PexBinFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("pexbin files may not be larger than 2 GiB");
+            }
+            return new PexBinFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Get the hash table slot an identifier is first probed at. This must stay stable between versions, since it is part of the format.
+     *
+     * @param identifier The identifier
+     * @param slotCount The number of slots in the table, a power of two
+     * @return The slot index
+     */
+    static int slot(String identifier, int slotCount) {
+        final int hash = identifier.hashCode();
+        return (hash ^ (hash >>> 16)) & (slotCount - 1);
+    }
+
+    int getInt(int offset) {
+        return this.buf.getInt(offset);
+    }
+
+    String getString(int index) {
+        final int start = this.buf.getInt(this.stringOffsets + 4 * index);
+        final byte[] bytes = new byte[this.buf.getInt(this.stringOffsets + 4 * (index + 1)) - start];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = this.buf.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compare a string in the string table to an encoded string, without decoding it.
+     */
+    private boolean stringEquals(int index, byte[] expected) {
+        final int start = this.buf.getInt(this.stringOffsets + 4 * index);
+        if (this.buf.getInt(this.stringOffsets + 4 * (index + 1)) - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; ++i) {
+            if (this.buf.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Map.Entry<String, String> getEntry(int offset) {
+        return Maps.immutableEntry(getString(this.buf.getInt(offset)), getString(this.buf.getInt(offset + 4)));
+    }
+
+    public Set<String> getTypes() {
+        return this.types.keySet();
+    }
+
+    /**
+     * Find the offset of a subject's record.
+     *
+     * @param type The subject's type
+     * @param identifier The subject's identifier
+     * @return The offset, or 0 if the subject is not stored in this file
+     */
+    int findSubject(String type, String identifier) {
+        final Integer table = this.types.get(type);
+        if (table == null) {
+            return 0;
+        }
+        final int slotCount = this.buf.getInt(table + 8);
+        final int slots = table + 12;
+        final byte[] encoded = identifier.getBytes(StandardCharsets.UTF_8);
+        for (int i = slot(identifier, slotCount), probes = 0; probes < slotCount; i = (i + 1) & (slotCount - 1), ++probes) {
+            final int subject = this.buf.getInt(slots + 4 * i);
+            if (subject == 0) {
+                return 0;
+            } else if (stringEquals(this.buf.getInt(subject), encoded)) {
+                return subject;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the offsets of every subject record of a type, in no particular order.
+     *
+     * @param type The type of subject
+     * @return The record offsets
+     */
+    int[] getSubjects(String type) {
+        final Integer table = this.types.get(type);
+        if (table == null) {
+            return new int[0];
+        }
+        final int[] ret = new int[this.buf.getInt(table + 4)];
+        final int slotCount = this.buf.getInt(table + 8);
+        for (int i = 0, found = 0; i < slotCount && found < ret.length; ++i) {
+            final int subject = this.buf.getInt(table + 12 + 4 * i);
+            if (subject != 0) {
+                ret[found++] = subject;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get the identifier of the subject stored at an offset.
+     *
+     * @param subject The offset of the subject's record
+     * @return The identifier
+     */
+    String getIdentifier(int subject) {
+        return getString(this.buf.getInt(subject));
+    }
+
+    /**
+     * Decode a list of pairs of strings.
+     *
+     * @param offset The offset of the list's count
+     * @return The decoded entries
+     */
+    List<Map.Entry<String, String>> getEntries(int offset) {
+        final int count = this.buf.getInt(offset);
+        final ImmutableList.Builder<Map.Entry<String, String>> ret = ImmutableList.builder();
+        for (int i = 0; i < count; ++i) {
+            ret.add(getEntry(offset + 4 + 8 * i));
+        }
+        return ret.build();
+    }
+
+    /**
+     * Decode the rank ladders stored in this file.
+     *
+     * @return A map of ladder name to ranks
+     */
+    Map<String, List<Map.Entry<String, String>>> readLadders() {
+        final ImmutableMap.Builder<String, List<Map.Entry<String, String>>> ret = ImmutableMap.builder();
+        int pos = this.buf.getInt(16);
+        final int count = this.buf.getInt(pos);
+        pos += 4;
+        for (int i = 0; i < count; ++i) {
+            final List<Map.Entry<String, String>> ranks = getEntries(pos + 4);
+            ret.put(getString(this.buf.getInt(pos)), ranks);
+            pos += 8 + 8 * ranks.size();
+        }
+        return ret.build();
+    }
+
+    /**
+     * Decode the context inheritance stored in this file.
+     *
+     * @return A map of context to parent contexts
+     */
+    Map<Map.Entry<String, String>, List<Map.Entry<String, String>>> readInheritance() {
+        final ImmutableMap.Builder<Map.Entry<String, String>, List<Map.Entry<String, String>>> ret = ImmutableMap.builder();
+        int pos = this.buf.getInt(20);
+        final int count = this.buf.getInt(pos);
+        pos += 4;
+        for (int i = 0; i < count; ++i) {
+            final List<Map.Entry<String, String>> parents = getEntries(pos + 8);
+            ret.put(getEntry(pos), parents);
+            pos += 12 + 8 * parents.size();
+        }
+        return ret.build();
+    }
+
+    // Segments of a subject record
+
+    int getSegmentCount(int subject) {
+        return this.buf.getInt(subject + 4);
+    }
+
+    int getFirstSegment(int subject) {
+        return subject + 8;
+    }
+
+    int getNextSegment(int segment) {
+        return getParentsOffset(segment) + 4 + 8 * this.buf.getInt(getParentsOffset(segment));
+    }
+
+    Set<Map.Entry<String, String>> getContexts(int segment) {
+        return ImmutableSet.copyOf(getEntries(segment));
+    }
+
+    /**
+     * Check whether a segment applies to exactly the given contexts, decoding as little as possible.
+     */
+    boolean contextsEqual(int segment, Set<Map.Entry<String, String>> contexts) {
+        final int count = this.buf.getInt(segment);
+        if (count != contexts.size()) {
+            return false;
+        }
+        for (int i = 0; i < count; ++i) {
+            if (!contexts.contains(getEntry(segment + 4 + 8 * i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getDefaultValue(int segment) {
+        return this.buf.getInt(segment + 4 + 8 * this.buf.getInt(segment));
+    }
+
+    int getPermissionsOffset(int segment) {
+        return segment + 8 + 8 * this.buf.getInt(segment);
+    }
+
+    Map<String, Integer> getPermissions(int segment) {
+        final int offset = getPermissionsOffset(segment);
+        final int count = this.buf.getInt(offset);
+        final CompactPermissionMap.Builder ret = CompactPermissionMap.builder(count);
+        for (int i = 0; i < count; ++i) {
+            ret.put(getString(this.buf.getInt(offset + 4 + 8 * i)), this.buf.getInt(offset + 8 + 8 * i));
+        }
+        return ret.build();
+    }
+
+    int getOptionsOffset(int segment) {
+        final int permissions = getPermissionsOffset(segment);
+        return permissions + 4 + 8 * this.buf.getInt(permissions);
+    }
+
+    Map<String, String> getOptions(int segment) {
+        final ImmutableMap.Builder<String, String> ret = ImmutableMap.builder();
+        for (Map.Entry<String, String> option : getEntries(getOptionsOffset(segment))) {
+            ret.put(option);
+        }
+        return ret.build();
+    }
+
+    int getParentsOffset(int segment) {
+        final int options = getOptionsOffset(segment);
+        return options + 4 + 8 * this.buf.getInt(options);
+    }
+
+    List<Map.Entry<String, String>> getParents(int segment) {
+        return getEntries(getParentsOffset(segment));
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.pexbin;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import ninja.leaping.permissionsex.extrabackends.ReadOnlySubjectData;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * The data of a single subject in a pexbin file. Nothing is copied out of the file until it is requested.
+ */
+class PexBinSubjectData extends ReadOnlySubjectData {
+    private final PexBinFile file;
+    private final int subject;
+
+    PexBinSubjectData(PexBinFile file, int subject) {
+        this.file = file;
+        this.subject = subject;
+    }
+
+    /**
+     * Find the segment holding data for exactly the given contexts.
+     *
+     * @return The segment's offset, or 0 if there is no data for the contexts
+     */
+    private int findSegment(Set<Map.Entry<String, String>> contexts) {
+        if (this.subject == 0) {
+            return 0;
+        }
+        int segment = this.file.getFirstSegment(this.subject);
+        for (int i = 0, count = this.file.getSegmentCount(this.subject); i < count; ++i) {
+            if (this.file.contextsEqual(segment, contexts)) {
+                return segment;
+            }
+            segment = this.file.getNextSegment(segment);
+        }
+        return 0;
+    }
+
+    private <T> T getSegmentValue(Set<Map.Entry<String, String>> contexts, IntFunction<T> getter, T def) {
+        final int segment = findSegment(contexts);
+        return segment == 0 ? def : getter.apply(segment);
+    }
+
+    private <T> Map<Set<Map.Entry<String, String>>, T> collectSegments(IntFunction<T> getter, Predicate<T> include) {
+        final ImmutableMap.Builder<Set<Map.Entry<String, String>>, T> ret = ImmutableMap.builder();
+        if (this.subject != 0) {
+            int segment = this.file.getFirstSegment(this.subject);
+            for (int i = 0, count = this.file.getSegmentCount(this.subject); i < count; ++i) {
+                final T value = getter.apply(segment);
+                if (include.test(value)) {
+                    ret.put(this.file.getContexts(segment), value);
+                }
+                segment = this.file.getNextSegment(segment);
+            }
+        }
+        return ret.build();
+    }
+
+    @Override
+    public Map<Set<Map.Entry<String, String>>, Map<String, String>> getAllOptions() {
+        return collectSegments(this.file::getOptions, input -> !input.isEmpty());
+    }
+
+    @Override
+    public Map<String, String> getOptions(Set<Map.Entry<String, String>> contexts) {
+        return getSegmentValue(contexts, this.file::getOptions, ImmutableMap.<String, String>of());
+    }
+
+    @Override
+    public Map<Set<Map.Entry<String, String>>, Map<String, Integer>> getAllPermissions() {
+        return collectSegments(this.file::getPermissions, input -> !input.isEmpty());
+    }
+
+    @Override
+    public Map<String, Integer> getPermissions(Set<Map.Entry<String, String>> contexts) {
+        return getSegmentValue(contexts, this.file::getPermissions, ImmutableMap.<String, Integer>of());
+    }
+
+    @Override
+    public Map<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> getAllParents() {
+        return collectSegments(this.file::getParents, input -> !input.isEmpty());
+    }
+
+    @Override
+    public List<Map.Entry<String, String>> getParents(Set<Map.Entry<String, String>> contexts) {
+        return getSegmentValue(contexts, this.file::getParents, ImmutableList.<Map.Entry<String, String>>of());
+    }
+
+    @Override
+    public int getDefaultValue(Set<Map.Entry<String, String>> contexts) {
+        return getSegmentValue(contexts, this.file::getDefaultValue, 0);
+    }
+
+    @Override
+    public Map<Set<Map.Entry<String, String>>, Integer> getAllDefaultValues() {
+        return collectSegments(this.file::getDefaultValue, input -> input != 0);
+    }
+
+    @Override
+    public Set<Set<Map.Entry<String, String>>> getActiveContexts() {
+        return collectSegments(segment -> Boolean.TRUE, input -> true).keySet();
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.pexbin;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.data.ContextInheritance;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.rank.RankLadder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converts the contents of any data store into a pexbin file, to be served by a {@link PexBinDataStore}.
+ *
+ * <p>Subjects are read through {@link DataStore#getAll()}, and rank ladders and context inheritance are copied as well.
+ * The file is written next to the target and moved into place once complete,
+ * so data stores that have the previous version mapped keep reading it unchanged.</p>
+ *
+ * <p>Server operators run a conversion by setting {@code convert-from} on a {@link PexBinDataStore}.</p>
+ */
+public final class PexBinWriter {
+    private final Map<String, Integer> stringIndices = new HashMap<>();
+    private final List<byte[]> strings = new ArrayList<>();
+    private long stringBytes;
+
+    private PexBinWriter() {
+    }
+
+    /**
+     * Write every subject, rank ladder and the context inheritance of a data store to a pexbin file.
+     *
+     * @param source The data store to convert
+     * @param target The file to write. Any existing file is replaced
+     * @throws IOException if the file could not be written, or the data is too large for the format
+     */
+    public static void write(DataStore source, Path target) throws IOException {
+        new PexBinWriter().writeFile(source, target);
+    }
+
+    private int string(String value) {
+        Integer ret = this.stringIndices.get(value);
+        if (ret == null) {
+            final byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            ret = this.strings.size();
+            this.strings.add(encoded);
+            this.stringBytes += encoded.length;
+            this.stringIndices.put(value, ret);
+        }
+        return ret;
+    }
+
+    private void writeEntries(DataOutputStream out, List<Map.Entry<String, String>> entries) throws IOException {
+        out.writeInt(entries.size());
+        for (Map.Entry<String, String> entry : entries) {
+            out.writeInt(string(entry.getKey()));
+            out.writeInt(string(entry.getValue()));
+        }
+    }
+
+    private void writeSubject(DataOutputStream out, String identifier, ImmutableSubjectData data) throws IOException {
+        final Map<Set<Map.Entry<String, String>>, Map<String, Integer>> permissions = data.getAllPermissions();
+        final Map<Set<Map.Entry<String, String>>, Map<String, String>> options = data.getAllOptions();
+        final Map<Set<Map.Entry<String, String>>, List<Map.Entry<String, String>>> parents = data.getAllParents();
+        final Map<Set<Map.Entry<String, String>>, Integer> defaultValues = data.getAllDefaultValues();
+        final Set<Set<Map.Entry<String, String>>> contexts = new LinkedHashSet<>();
+        for (Set<Map.Entry<String, String>> active : data.getActiveContexts()) {
+            contexts.add(active);
+        }
+        contexts.addAll(permissions.keySet());
+        contexts.addAll(options.keySet());
+        contexts.addAll(parents.keySet());
+        contexts.addAll(defaultValues.keySet());
+
+        out.writeInt(string(identifier));
+        out.writeInt(contexts.size());
+        for (Set<Map.Entry<String, String>> context : contexts) {
+            writeEntries(out, ImmutableList.copyOf(context));
+            out.writeInt(defaultValues.getOrDefault(context, 0));
+            final Map<String, Integer> segmentPermissions = permissions.getOrDefault(context, ImmutableMap.<String, Integer>of());
+            out.writeInt(segmentPermissions.size());
+            for (Map.Entry<String, Integer> permission : segmentPermissions.entrySet()) {
+                out.writeInt(string(permission.getKey()));
+                out.writeInt(permission.getValue());
+            }
+            writeEntries(out, ImmutableList.copyOf(options.getOrDefault(context, ImmutableMap.<String, String>of()).entrySet()));
+            writeEntries(out, parents.getOrDefault(context, ImmutableList.<Map.Entry<String, String>>of()));
+        }
+    }
+
+    private static int getSlotCount(int subjects) {
+        return Integer.highestOneBit(Math.max(1, subjects * 2 - 1)) << 1; // At most half full
+    }
+
+    private void writeFile(DataStore source, Path target) throws IOException {
+        // Everything after the string table is encoded first, so every string is known when the string table is written
+        final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        final DataOutputStream records = new DataOutputStream(recordBytes);
+        final Map<String, Map<String, Integer>> types = new LinkedHashMap<>();
+        for (Map.Entry<Map.Entry<String, String>, ImmutableSubjectData> subject : source.getAll()) {
+            final String type = subject.getKey().getKey();
+            final String identifier = subject.getKey().getValue();
+            string(type);
+            types.computeIfAbsent(type, k -> new LinkedHashMap<>()).put(identifier, records.size());
+            writeSubject(records, identifier, subject.getValue());
+        }
+
+        final ByteArrayOutputStream ladderBytes = new ByteArrayOutputStream();
+        final DataOutputStream ladders = new DataOutputStream(ladderBytes);
+        final List<String> ladderNames = ImmutableList.copyOf(source.getAllRankLadders());
+        ladders.writeInt(ladderNames.size());
+        for (String name : ladderNames) {
+            final RankLadder ladder = source.getRankLadder(name, null).join();
+            ladders.writeInt(string(name));
+            writeEntries(ladders, ImmutableList.<Map.Entry<String, String>>copyOf(ladder.getRanks()));
+        }
+
+        final ByteArrayOutputStream inheritanceBytes = new ByteArrayOutputStream();
+        final DataOutputStream inheritance = new DataOutputStream(inheritanceBytes);
+        final ContextInheritance contextInheritance = source.getContextInheritance(null).join();
+        final Map<Map.Entry<String, String>, List<Map.Entry<String, String>>> contextParents = contextInheritance == null
+                ? ImmutableMap.<Map.Entry<String, String>, List<Map.Entry<String, String>>>of() : contextInheritance.getAllParents();
+        inheritance.writeInt(contextParents.size());
+        for (Map.Entry<Map.Entry<String, String>, List<Map.Entry<String, String>>> context : contextParents.entrySet()) {
+            inheritance.writeInt(string(context.getKey().getKey()));
+            inheritance.writeInt(string(context.getKey().getValue()));
+            writeEntries(inheritance, context.getValue());
+        }
+
+        final long stringTable = PexBinFile.HEADER_SIZE;
+        final long typeTable = stringTable + 4 + 4L * (this.strings.size() + 1) + this.stringBytes;
+        long typeTableSize = 4;
+        for (Map<String, Integer> subjects : types.values()) {
+            typeTableSize += 12 + 4L * getSlotCount(subjects.size());
+        }
+        final long recordsStart = typeTable + typeTableSize;
+        final long laddersStart = recordsStart + records.size();
+        final long inheritanceStart = laddersStart + ladders.size();
+        if (inheritanceStart + inheritance.size() > Integer.MAX_VALUE) {
+            throw new IOException("Data is too large to be stored in a pexbin file");
+        }
+
+        final Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final Path tempFile = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        try {
+            if (Files.getFileStore(tempFile).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                // Temporary files are only readable by their owner, but servers run by other users may share this one
+                Files.setPosixFilePermissions(tempFile, PosixFilePermissions.fromString("rw-r--r--"));
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(PexBinFile.MAGIC);
+                out.writeInt(PexBinFile.VERSION);
+                out.writeInt((int) stringTable);
+                out.writeInt((int) typeTable);
+                out.writeInt((int) laddersStart);
+                out.writeInt((int) inheritanceStart);
+
+                out.writeInt(this.strings.size());
+                long offset = typeTable - this.stringBytes;
+                for (byte[] string : this.strings) {
+                    out.writeInt((int) offset);
+                    offset += string.length;
+                }
+                out.writeInt((int) offset);
+                for (byte[] string : this.strings) {
+                    out.write(string);
+                }
+
+                out.writeInt(types.size());
+                for (Map.Entry<String, Map<String, Integer>> type : types.entrySet()) {
+                    final int slotCount = getSlotCount(type.getValue().size());
+                    final int[] slots = new int[slotCount];
+                    for (Map.Entry<String, Integer> subject : type.getValue().entrySet()) {
+                        int slot = PexBinFile.slot(subject.getKey(), slotCount);
+                        while (slots[slot] != 0) {
+                            slot = (slot + 1) & (slotCount - 1);
+                        }
+                        slots[slot] = (int) recordsStart + subject.getValue();
+                    }
+                    out.writeInt(string(type.getKey()));
+                    out.writeInt(type.getValue().size());
+                    out.writeInt(slotCount);
+                    for (int slot : slots) {
+                        out.writeInt(slot);
+                    }
+                }
+
+                recordBytes.writeTo(out);
+                ladderBytes.writeTo(out);
+                inheritanceBytes.writeTo(out);
+            }
+            try {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+}
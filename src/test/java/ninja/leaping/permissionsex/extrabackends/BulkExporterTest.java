@@ -0,0 +1,174 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.extrabackends.groupmanager.GroupManagerDataStore;
+import ninja.leaping.permissionsex.extrabackends.pexbin.PexBinDataStore;
+import ninja.leaping.permissionsex.extrabackends.pexbin.PexBinWriter;
+import ninja.leaping.permissionsex.logging.TranslatableLogger;
+import ninja.leaping.permissionsex.rank.FixedRankLadder;
+import ninja.leaping.permissionsex.rank.RankLadder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_GROUP;
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Exports a pexbin data store, written from the GroupManager fixture with a rank ladder added, into a memory data store.
+ */
+public class BulkExporterTest {
+    private static final List<Map.Entry<String, String>> STAFF_LADDER = ImmutableList.of(Maps.immutableEntry(SUBJECTS_GROUP, "default"),
+            Maps.immutableEntry(SUBJECTS_GROUP, "moderator"), Maps.immutableEntry(SUBJECTS_GROUP, "admin"));
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private PermissionsEx manager;
+    private PexBinDataStore source;
+
+    @Before
+    public void setUp() throws Exception {
+        this.manager = mock(PermissionsEx.class);
+        when(this.manager.getLogger()).thenReturn(mock(TranslatableLogger.class));
+        when(this.manager.getBaseDirectory()).thenReturn(this.folder.getRoot().toPath());
+        when(this.manager.getAsyncExecutor()).thenReturn(ForkJoinPool.commonPool());
+
+        final ConfigurationNode groupManagerConfig = SimpleConfigurationNode.root();
+        groupManagerConfig.getNode("group-manager-root").setValue(Paths.get(getClass().getResource("pexbin/groupmanager").toURI()).toString());
+        groupManagerConfig.getNode("parse-cache-dir").setValue("");
+        final DataStore groupManager = GroupManagerDataStore.FACTORY.createDataStore("groupmanager", groupManagerConfig);
+        groupManager.initialize(this.manager);
+        try {
+            final DataStore withLadder = mock(DataStore.class, delegatesTo(groupManager));
+            doReturn(ImmutableList.of("staff")).when(withLadder).getAllRankLadders();
+            doReturn(CompletableFuture.<RankLadder>completedFuture(new FixedRankLadder("staff", STAFF_LADDER))).when(withLadder).getRankLadder("staff", null);
+            PexBinWriter.write(withLadder, this.folder.getRoot().toPath().resolve("source.pexbin"));
+        } finally {
+            groupManager.close();
+        }
+
+        final ConfigurationNode config = SimpleConfigurationNode.root();
+        config.getNode("file").setValue("source.pexbin");
+        this.source = (PexBinDataStore) PexBinDataStore.FACTORY.createDataStore("pexbin", config);
+        this.source.initialize(this.manager);
+        this.source.getLoadFuture().join();
+    }
+
+    @After
+    public void tearDown() {
+        this.source.close();
+    }
+
+    private DataStore createTarget() throws Exception {
+        final DataStore target = new MemoryDataStore();
+        target.initialize(this.manager);
+        return target;
+    }
+
+    private BulkExporter exporter(DataStore target) {
+        return new BulkExporter(this.source, target)
+                .setBatchSize(2)
+                .setMaxBatchesInFlight(3);
+    }
+
+    @Test
+    public void testAllSubjectsCopied() throws Exception {
+        final DataStore target = createTarget();
+        final BulkExporter.Progress progress = exporter(target).run().join();
+
+        int subjects = 0;
+        for (Map.Entry<Map.Entry<String, String>, ImmutableSubjectData> subject : this.source.getAll()) {
+            final String type = subject.getKey().getKey(), identifier = subject.getKey().getValue();
+            final ImmutableSubjectData expected = subject.getValue();
+            final ImmutableSubjectData actual = target.getData(type, identifier, null).join();
+            assertTrue(type + " " + identifier, target.isRegistered(type, identifier).join());
+            assertEquals(type + " " + identifier, expected.getAllPermissions(), actual.getAllPermissions());
+            assertEquals(type + " " + identifier, expected.getAllOptions(), actual.getAllOptions());
+            assertEquals(type + " " + identifier, expected.getAllParents(), actual.getAllParents());
+            assertEquals(type + " " + identifier, expected.getAllDefaultValues(), actual.getAllDefaultValues());
+            ++subjects;
+        }
+        assertTrue(subjects > 2);
+        assertEquals(subjects, progress.getExportedSubjects());
+        assertEquals(this.source.getAllIdentifiers(SUBJECTS_USER), target.getAllIdentifiers(SUBJECTS_USER));
+        assertEquals(this.source.getAllIdentifiers(SUBJECTS_GROUP), target.getAllIdentifiers(SUBJECTS_GROUP));
+    }
+
+    @Test
+    public void testRankLaddersAndContextInheritanceCopied() throws Exception {
+        final DataStore target = createTarget();
+        exporter(target).run().join();
+
+        assertEquals(ImmutableList.of("staff"), ImmutableList.copyOf(target.getAllRankLadders()));
+        assertEquals(STAFF_LADDER, target.getRankLadder("staff", null).join().getRanks());
+        assertEquals(this.source.getContextInheritance(null).join().getAllParents(), target.getContextInheritance(null).join().getAllParents());
+        assertEquals(ImmutableList.of(Maps.immutableEntry("world", "world")),
+                target.getContextInheritance(null).join().getParents(Maps.immutableEntry("world", "world_nether")));
+    }
+
+    @Test
+    public void testFailedBatchFailsExport() throws Exception {
+        final IOException failure = new IOException("Disk full");
+        final DataStore target = new MemoryDataStore() {
+            @Override
+            protected CompletableFuture<ImmutableSubjectData> setDataInternal(String type, String identifier, ImmutableSubjectData data) {
+                if (identifier.equals("carol")) {
+                    final CompletableFuture<ImmutableSubjectData> ret = new CompletableFuture<>();
+                    ret.completeExceptionally(failure);
+                    return ret;
+                }
+                return super.setDataInternal(type, identifier, data);
+            }
+        };
+        target.initialize(this.manager);
+
+        try {
+            exporter(target).run().join();
+            fail("Export completed despite a failed write");
+        } catch (CompletionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompactPermissionMapTest {
+    private static Map<String, Integer> permissions(int count) {
+        final Map<String, Integer> ret = new HashMap<>();
+        for (int i = 0; i < count; ++i) {
+            ret.put("plugin" + (i % 7) + ".node" + i, i % 3 == 0 ? -1 : i % 256 - 128);
+        }
+        return ret;
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        final Map<String, Integer> expected = permissions(500);
+        final Map<String, Integer> compact = CompactPermissionMap.copyOf(expected);
+        assertTrue(compact instanceof CompactPermissionMap);
+        assertEquals(expected, compact);
+        assertEquals(compact, expected);
+        assertEquals(expected.hashCode(), compact.hashCode());
+        assertEquals(expected.entrySet(), compact.entrySet());
+        assertEquals(expected.size(), compact.size());
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), compact.get(entry.getKey()));
+            assertEquals(entry.getValue().intValue(), ((CompactPermissionMap) compact).getValue(entry.getKey(), 0));
+        }
+        assertNull(compact.get("plugin0.missing"));
+        assertFalse(compact.containsKey("plugin0.missing"));
+        assertFalse(compact.containsKey(null));
+        assertEquals(5, ((CompactPermissionMap) compact).getValue("plugin0.missing", 5));
+
+        final Map<String, Integer> visited = new HashMap<>();
+        CompactPermissionMap.forEachPermission(compact, visited::put);
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    public void testUnequalMaps() {
+        final Map<String, Integer> compact = CompactPermissionMap.copyOf(ImmutableMap.of("essentials.fly", 1, "essentials.kick", -1));
+        assertFalse(compact.equals(ImmutableMap.of("essentials.fly", 1, "essentials.kick", 1)));
+        assertFalse(compact.equals(ImmutableMap.of("essentials.fly", 1)));
+        assertFalse(compact.equals(ImmutableMap.of("essentials.fly", 1, "essentials.kick", -1, "essentials.home", 1)));
+    }
+
+    @Test
+    public void testValuesOutsideByteFallBack() {
+        assertTrue(CompactPermissionMap.builder(2).put("a", Byte.MAX_VALUE).put("b", Byte.MIN_VALUE).build() instanceof CompactPermissionMap);
+        for (int value : new int[] {Byte.MAX_VALUE + 1, Byte.MIN_VALUE - 1, Integer.MAX_VALUE}) {
+            final Map<String, Integer> expected = ImmutableMap.of("essentials.fly", 1, "essentials.kick", value);
+            final Map<String, Integer> map = CompactPermissionMap.copyOf(expected);
+            assertTrue(map instanceof ImmutableMap);
+            assertEquals(expected, map);
+            assertEquals(value, map.get("essentials.kick").intValue());
+        }
+    }
+
+    @Test
+    public void testBuilderGrowsAndLaterValuesWin() {
+        final CompactPermissionMap.Builder builder = CompactPermissionMap.builder(1);
+        for (int i = 0; i < 100; ++i) {
+            builder.put("node" + i, 1);
+        }
+        builder.put("node0", -1).put("node99", 0);
+        final Map<String, Integer> map = builder.build();
+        assertEquals(100, map.size());
+        assertEquals(-1, map.get("node0").intValue());
+        assertEquals(1, map.get("node50").intValue());
+        assertEquals(0, map.get("node99").intValue());
+        assertEquals(map.size(), map.entrySet().size());
+    }
+
+    @Test
+    public void testEmpty() {
+        assertSame(ImmutableMap.of(), CompactPermissionMap.builder(0).build());
+        assertSame(ImmutableMap.of(), CompactPermissionMap.copyOf(new HashMap<>()));
+    }
+}
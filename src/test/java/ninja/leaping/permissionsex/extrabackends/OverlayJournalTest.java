@@ -0,0 +1,201 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.logging.TranslatableLogger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class OverlayJournalTest {
+    private static final Set<Map.Entry<String, String>> WORLD = ImmutableSet.of(Maps.immutableEntry("world", "world"));
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static OverlaySubjectData data(String permission, int value) {
+        return OverlaySubjectData.copyOf(OverlaySubjectData.EMPTY.setPermission(WORLD, permission, value)
+                .setOption(WORLD, "prefix", "[" + permission + "]")
+                .addParent(WORLD, "group", "default")
+                .setDefaultValue(WORLD, -1));
+    }
+
+    private static void assertData(OverlaySubjectData expected, OverlaySubjectData actual) {
+        assertEquals(expected.getAllPermissions(), actual.getAllPermissions());
+        assertEquals(expected.getAllOptions(), actual.getAllOptions());
+        assertEquals(expected.getAllParents(), actual.getAllParents());
+        assertEquals(expected.getAllDefaultValues(), actual.getAllDefaultValues());
+    }
+
+    private Path getJournal() {
+        return this.folder.getRoot().toPath().resolve("overlay.journal");
+    }
+
+    private OverlayJournal open(int compactThreshold) throws IOException {
+        return OverlayJournal.open(getJournal(), compactThreshold, mock(TranslatableLogger.class));
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        try (OverlayJournal journal = open(1000)) {
+            journal.write("user", "alice", data("essentials.fly", 1));
+            journal.write("user", "bob", data("essentials.kick", 1));
+            journal.write("user", "alice", data("essentials.fly", -1));
+            journal.write("group", "default", null);
+        }
+
+        try (OverlayJournal journal = open(1000)) {
+            assertEquals(4, journal.getRecordCount());
+            assertData(data("essentials.fly", -1), journal.get("user", "alice"));
+            assertData(data("essentials.kick", 1), journal.get("user", "bob"));
+            assertTrue(journal.get("group", "default").isEmpty());
+            assertNull(journal.get("user", "carol"));
+        }
+    }
+
+    @Test
+    public void testTornTailDiscarded() throws IOException {
+        try (OverlayJournal journal = open(1000)) {
+            journal.write("user", "alice", data("essentials.fly", 1));
+            journal.write("user", "bob", data("essentials.kick", 1));
+        }
+        final long completeSize = Files.size(getJournal());
+        try (FileChannel channel = FileChannel.open(getJournal(), StandardOpenOption.WRITE)) {
+            channel.truncate(completeSize - 5); // A crash while bob's record was written
+        }
+
+        final long aliceEnd;
+        try (OverlayJournal journal = open(1000)) {
+            assertEquals(1, journal.getRecordCount());
+            assertData(data("essentials.fly", 1), journal.get("user", "alice"));
+            assertNull(journal.get("user", "bob"));
+            aliceEnd = Files.size(getJournal());
+            assertTrue(aliceEnd < completeSize - 5);
+            journal.write("user", "carol", data("essentials.tp", 1));
+        }
+
+        try (OverlayJournal journal = open(1000)) {
+            assertEquals(2, journal.getRecordCount());
+            assertData(data("essentials.tp", 1), journal.get("user", "carol"));
+        }
+    }
+
+    @Test
+    public void testCorruptRecordDiscarded() throws IOException {
+        final long aliceEnd;
+        try (OverlayJournal journal = open(1000)) {
+            journal.write("user", "alice", data("essentials.fly", 1));
+            aliceEnd = Files.size(getJournal());
+            journal.write("user", "bob", data("essentials.kick", 1));
+        }
+        try (FileChannel channel = FileChannel.open(getJournal(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0x7f}), aliceEnd + 12); // Inside the payload of bob's record, which fails its checksum
+        }
+        final byte[] damaged = Files.readAllBytes(getJournal());
+
+        try (OverlayJournal journal = open(1000)) {
+            assertEquals(1, journal.getRecordCount());
+            assertNull(journal.get("user", "bob"));
+            assertEquals(aliceEnd, Files.size(getJournal()));
+        }
+        final List<Path> copies;
+        try (Stream<Path> files = Files.list(this.folder.getRoot().toPath())) {
+            copies = files.filter(file -> file.getFileName().toString().startsWith("overlay.journal.corrupt-")).collect(Collectors.toList());
+        }
+        assertEquals(1, copies.size());
+        assertArrayEquals(damaged, Files.readAllBytes(copies.get(0)));
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        try (OverlayJournal journal = open(4)) {
+            for (int i = 0; i < 4; ++i) {
+                journal.write("user", "alice", data("essentials.fly", i % 2 == 0 ? 1 : -1));
+            }
+            assertEquals(4, journal.getRecordCount());
+            journal.write("user", "bob", data("essentials.kick", 1));
+            assertEquals(2, journal.getRecordCount()); // 5 records for 2 subjects
+            journal.write("user", "alice", data("essentials.fly", 1));
+            assertEquals(3, journal.getRecordCount());
+        }
+        assertFalse(Files.exists(getJournal().resolveSibling("overlay.journal.tmp")));
+
+        try (OverlayJournal journal = open(4)) {
+            assertEquals(3, journal.getRecordCount());
+            assertData(data("essentials.fly", 1), journal.get("user", "alice"));
+            assertData(data("essentials.kick", 1), journal.get("user", "bob"));
+        }
+    }
+
+    @Test
+    public void testFailedCompactionKeepsJournal() throws IOException {
+        final Path tempFile = getJournal().resolveSibling("overlay.journal.tmp");
+        Files.createDirectory(tempFile); // The compacted journal can't be created
+        try (OverlayJournal journal = open(2)) {
+            for (int i = 0; i < 4; ++i) {
+                assertData(data("essentials.fly", i), journal.write("user", "alice", data("essentials.fly", i)));
+            }
+            assertEquals(4, journal.getRecordCount());
+
+            Files.delete(tempFile);
+            journal.write("user", "alice", data("essentials.fly", 4));
+            assertEquals(1, journal.getRecordCount());
+        }
+
+        try (OverlayJournal journal = open(2)) {
+            assertData(data("essentials.fly", 4), journal.get("user", "alice"));
+        }
+    }
+
+    @Test
+    public void testCompactedJournalMatches() throws IOException {
+        try (OverlayJournal journal = open(1000)) {
+            journal.write("user", "alice", data("essentials.fly", 1));
+            journal.write("user", "bob", null);
+            journal.compact();
+            journal.write("user", "carol", data("essentials.tp", 1));
+        }
+
+        try (OverlayJournal journal = open(1000)) {
+            assertEquals(3, journal.getRecordCount());
+            assertData(data("essentials.fly", 1), journal.get("user", "alice"));
+            assertTrue(journal.get("user", "bob").isEmpty());
+            assertData(data("essentials.tp", 1), journal.get("user", "carol"));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.backend.DataStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+/**
+ * Closes a GroupManager data store while its data is still being loaded in the background.
+ */
+public class GroupManagerCloseTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadsFailAfterCloseDuringLoad() throws Exception {
+        final PermissionsEx manager = GroupManagerFixtures.createManager(this.folder.getRoot().toPath());
+        final Executor never = task -> {}; // The background load never gets to run
+        when(manager.getAsyncExecutor()).thenReturn(never);
+        final ConfigurationNode config = GroupManagerFixtures.createConfig(GroupManagerFixtures.getFixture("aliases"));
+        config.getNode("async-load").setValue(true);
+        final DataStore store = GroupManagerDataStore.FACTORY.createDataStore("groupmanager", config);
+        store.initialize(manager);
+        assertFalse(((GroupManagerDataStore) store).getLoadFuture().isDone());
+
+        store.close();
+        assertTrue(((GroupManagerDataStore) store).getLoadFuture().isDone());
+        try {
+            store.getData(SUBJECTS_USER, "jeb_", null).join();
+            fail("Subject data was served after close");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        try {
+            store.isRegistered(SUBJECTS_USER, "jeb_").join();
+            fail("Registration was answered after close");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        try {
+            store.getAllIdentifiers(SUBJECTS_USER);
+            fail("Identifiers were served after close");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
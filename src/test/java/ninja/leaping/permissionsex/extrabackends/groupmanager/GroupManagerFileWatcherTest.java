@@ -0,0 +1,149 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import ninja.leaping.configurate.ConfigurationNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Watches a copy of a GroupManager directory for changes.
+ */
+public class GroupManagerFileWatcherTest {
+    private static final long DEBOUNCE_MILLIS = 200;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private final BlockingQueue<Path> changes = new LinkedBlockingQueue<>();
+    private GroupManagerFileWatcher watcher;
+
+    @Before
+    public void setUp() throws Exception {
+        this.root = GroupManagerFixtures.copyFixture("reload", this.folder.newFolder("groupmanager").toPath());
+        this.watcher = new GroupManagerFileWatcher(this.root, DEBOUNCE_MILLIS, this.changes::add);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.watcher.close();
+    }
+
+    private static void append(Path file, String text) throws Exception {
+        Files.write(file, (new String(Files.readAllBytes(file), StandardCharsets.UTF_8) + text).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static <T> WatchEvent<T> event(WatchEvent.Kind<T> kind, T context) {
+        return new WatchEvent<T>() {
+            @Override
+            public Kind<T> kind() {
+                return kind;
+            }
+
+            @Override
+            public int count() {
+                return 1;
+            }
+
+            @Override
+            public T context() {
+                return context;
+            }
+        };
+    }
+
+    @Test
+    public void testBurstOfWritesDebounced() throws Exception {
+        this.watcher.start();
+        final Path users = this.root.resolve("worlds").resolve("world").resolve("users.yml");
+        final long start = System.nanoTime();
+        for (int i = 0; i < 5; ++i) {
+            append(users, "# edit " + i + "\n");
+        }
+        assertEquals(users, this.changes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= DEBOUNCE_MILLIS);
+        assertNull(this.changes.poll(3 * DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testNewWorldWatched() throws Exception {
+        this.watcher.start();
+        final Path world = Files.createDirectory(this.root.resolve("worlds").resolve("world_nether"));
+        assertEquals(world, this.changes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        // Files in the new world are only reported if its directory was registered
+        final Path users = world.resolve("users.yml");
+        Files.write(users, "users: {}\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(users, this.changes.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testOverflowReloadsEverything() {
+        final Path worlds = this.root.resolve("worlds");
+        final Set<Path> pending = new LinkedHashSet<>();
+        this.watcher.collectChanges(worlds, ImmutableList.of(event(StandardWatchEventKinds.ENTRY_MODIFY, worlds.relativize(worlds.resolve("world"))),
+                event(StandardWatchEventKinds.OVERFLOW, null)), pending);
+        assertEquals(ImmutableSet.of(worlds.resolve("world"), this.root), pending);
+
+        pending.clear();
+        this.watcher.collectChanges(null, ImmutableList.of(event(StandardWatchEventKinds.ENTRY_MODIFY, this.root.getFileSystem().getPath("users.yml"))), pending);
+        assertEquals(ImmutableSet.of(this.root), pending);
+    }
+
+    @Test
+    public void testDataStoreLoadsNewWorld() throws Exception {
+        final ConfigurationNode config = GroupManagerFixtures.createConfig(this.root);
+        config.getNode("watch-files").setValue(true);
+        config.getNode("watch-debounce-ms").setValue(DEBOUNCE_MILLIS);
+        final GroupManagerDataStore store = GroupManagerFixtures.load(GroupManagerFixtures.createManager(this.folder.getRoot().toPath()), config);
+        try {
+            final Path world = this.root.resolve("worlds").resolve("world_nether");
+            GroupManagerFixtures.copyFixture("reload/worlds/world", world);
+            append(world.resolve("users.yml"), "  carol:\n    group: default\n    subgroups: []\n    permissions: []\n");
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (!store.getAllIdentifiers(SUBJECTS_USER).contains("carol") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(ImmutableSet.of("alice", "bob", "carol"), store.getAllIdentifiers(SUBJECTS_USER));
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.logging.TranslatableLogger;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Shared setup for tests that load the GroupManager directories under this package's test resources.
+ */
+final class GroupManagerFixtures {
+    private GroupManagerFixtures() {
+    }
+
+    public static PermissionsEx createManager(Path baseDir) {
+        final PermissionsEx manager = mock(PermissionsEx.class);
+        when(manager.getLogger()).thenReturn(mock(TranslatableLogger.class));
+        when(manager.getBaseDirectory()).thenReturn(baseDir);
+        when(manager.getAsyncExecutor()).thenReturn(ForkJoinPool.commonPool());
+        return manager;
+    }
+
+    public static Path getFixture(String name) throws URISyntaxException {
+        return Paths.get(GroupManagerFixtures.class.getResource(name).toURI());
+    }
+
+    /**
+     * Copy a fixture to a directory where a test may modify it.
+     */
+    public static Path copyFixture(String name, Path target) throws IOException, URISyntaxException {
+        final Path source = getFixture(name);
+        try (Stream<Path> files = Files.walk(source)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                final Path dest = target.resolve(source.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(dest);
+                } else {
+                    Files.copy(file, dest);
+                }
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Create a configuration for a data store reading {@code root}, with the parse cache disabled.
+     */
+    public static ConfigurationNode createConfig(Path root) {
+        final ConfigurationNode config = SimpleConfigurationNode.root();
+        config.getNode("group-manager-root").setValue(root.toString());
+        config.getNode("parse-cache-dir").setValue("");
+        return config;
+    }
+
+    public static GroupManagerDataStore load(PermissionsEx manager, ConfigurationNode config) throws PermissionsLoadingException {
+        final GroupManagerDataStore ret = (GroupManagerDataStore) GroupManagerDataStore.FACTORY.createDataStore("groupmanager", config);
+        ret.initialize(manager);
+        ret.getLoadFuture().join();
+        return ret;
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableSet;
+import ninja.leaping.configurate.ConfigurationNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads GroupManager worlds on first use and evicts the least recently used ones once a limit is reached.
+ */
+public class GroupManagerLazyWorldsTest {
+    private static final int WORLD_USERS = 400; // Estimated at about 400kB
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private GroupManagerDataStore store;
+
+    /**
+     * Write a world whose users each have a few permissions of their own, so that the world's size grows with its users.
+     */
+    private void writeWorld(String world, int users) throws IOException {
+        final Path dir = Files.createDirectories(this.root.resolve("worlds").resolve(world));
+        final StringBuilder yaml = new StringBuilder("users:\n");
+        for (int i = 0; i < users; ++i) {
+            yaml.append("  ").append(world).append("_user").append(i).append(":\n")
+                    .append("    group: default\n")
+                    .append("    subgroups: []\n")
+                    .append("    permissions:\n");
+            for (int j = 0; j < 4; ++j) {
+                yaml.append("    - ").append(world).append(".user").append(i).append(".node").append(j).append('\n');
+            }
+        }
+        Files.write(dir.resolve("users.yml"), yaml.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("groups.yml"), "groups:\n  default:\n    default: true\n    permissions: []\n    inheritance: []\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        this.root = this.folder.newFolder("groupmanager").toPath();
+        Files.write(this.root.resolve("config.yml"), "settings:\n  mirrors: {}\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(this.root.resolve("globalgroups.yml"), "groups: {}\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() {
+        if (this.store != null) {
+            this.store.close();
+        }
+    }
+
+    private void load(String limit, long value) throws Exception {
+        final ConfigurationNode config = GroupManagerFixtures.createConfig(this.root);
+        config.getNode("lazy-worlds").setValue(true);
+        config.getNode(limit).setValue(value);
+        this.store = GroupManagerFixtures.load(GroupManagerFixtures.createManager(this.folder.getRoot().toPath()), config);
+    }
+
+    private void use(String world) {
+        assertTrue(world, this.store.getUserGroupsConfigForWorld(world).getUsers().containsKey(world + "_user0"));
+    }
+
+    @Test
+    public void testWorldsLoadedOnFirstUse() throws Exception {
+        writeWorld("world", 10);
+        writeWorld("world_nether", 10);
+        load("lazy-max-loaded-worlds", 0);
+        assertEquals(ImmutableSet.of(), this.store.getLazyLoadedWorlds());
+        assertTrue(this.store.getSubjectIndex().contains(EntityType.USER, "world_nether_user3")); // Indexed without loading the world
+
+        use("world_nether");
+        assertEquals(ImmutableSet.of("world_nether"), this.store.getLazyLoadedWorlds());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedWorldEvictedByCount() throws Exception {
+        for (String world : new String[] {"a", "b", "c", "d"}) {
+            writeWorld(world, 10);
+        }
+        load("lazy-max-loaded-worlds", 2);
+        use("a");
+        use("b");
+        assertEquals(ImmutableSet.of("a", "b"), this.store.getLazyLoadedWorlds());
+        use("a");
+        use("c");
+        assertEquals(ImmutableSet.of("a", "c"), this.store.getLazyLoadedWorlds());
+        use("d");
+        assertEquals(ImmutableSet.of("c", "d"), this.store.getLazyLoadedWorlds());
+
+        use("b"); // Evicted worlds are loaded again when next used
+        assertEquals(ImmutableSet.of("d", "b"), this.store.getLazyLoadedWorlds());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedWorldEvictedByMemory() throws Exception {
+        // Each world is estimated at a bit less than half of the limit, so two fit and a third evicts the least recently used
+        for (String world : new String[] {"a", "b", "c"}) {
+            writeWorld(world, WORLD_USERS);
+        }
+        load("lazy-max-memory-mb", 1);
+        use("a");
+        use("b");
+        assertEquals(ImmutableSet.of("a", "b"), this.store.getLazyLoadedWorlds());
+        use("a");
+        use("c");
+        assertEquals(ImmutableSet.of("a", "c"), this.store.getLazyLoadedWorlds());
+        assertTrue(this.store.getMetrics().getEstimatedRetainedBytes() <= 1024 * 1024);
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Map;
+import java.util.Set;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes to the overlay journal of a GroupManager data store through the aliases users can be requested by.
+ */
+public class GroupManagerOverlayTest {
+    private static final String NOTCH_UUID = "069a79f4-44e9-4726-a5be-fca90e38aaf5";
+    private static final Set<Map.Entry<String, String>> WORLD = ImmutableSet.of(Maps.immutableEntry("world", "world"));
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private PermissionsEx manager;
+    private DataStore store;
+
+    private DataStore load() throws Exception {
+        final ConfigurationNode config = GroupManagerFixtures.createConfig(GroupManagerFixtures.getFixture("aliases"));
+        config.getNode("overlay-journal").setValue("overlay.journal");
+        return GroupManagerFixtures.load(this.manager, config);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.manager = GroupManagerFixtures.createManager(this.folder.getRoot().toPath());
+        this.store = load();
+    }
+
+    @After
+    public void tearDown() {
+        this.store.close();
+    }
+
+    @Test
+    public void testWriteThroughLastName() throws Exception {
+        final ImmutableSubjectData changed = this.store.getData(SUBJECTS_USER, "notch", null).join().setPermission(WORLD, "essentials.kick", 1);
+        this.store.setData(SUBJECTS_USER, "Notch", changed).join();
+
+        assertEquals(ImmutableSet.of(NOTCH_UUID, "jeb_", "OldNotch"), this.store.getAllIdentifiers(SUBJECTS_USER));
+        assertEquals(changed.getAllPermissions(), this.store.getData(SUBJECTS_USER, NOTCH_UUID, null).join().getAllPermissions());
+        assertEquals(changed.getAllPermissions(), this.store.getData(SUBJECTS_USER, "NOTCH", null).join().getAllPermissions());
+        int users = 0;
+        for (Map.Entry<Map.Entry<String, String>, ImmutableSubjectData> subject : this.store.getAll()) {
+            if (subject.getKey().getKey().equals(SUBJECTS_USER)) {
+                ++users;
+            }
+        }
+        assertEquals(3, users);
+
+        this.store.close();
+        this.store = load();
+        assertEquals(changed.getAllPermissions(), this.store.getData(SUBJECTS_USER, NOTCH_UUID, null).join().getAllPermissions());
+    }
+
+    @Test
+    public void testRemoveThroughAlias() {
+        this.store.setData(SUBJECTS_USER, "JEB_", null).join();
+
+        assertFalse(this.store.isRegistered(SUBJECTS_USER, "jeb_").join());
+        assertEquals(ImmutableSet.of(NOTCH_UUID, "OldNotch"), this.store.getAllIdentifiers(SUBJECTS_USER));
+        assertTrue(this.store.isRegistered(SUBJECTS_USER, "notch").join());
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_GROUP;
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Reloads files of a GroupManager directory and checks which subjects are republished.
+ */
+public class GroupManagerReloadTest {
+    private static final Set<Map.Entry<String, String>> WORLD = ImmutableSet.of(Maps.immutableEntry("world", "world"));
+    private static final Map.Entry<String, String> STAFF = Maps.immutableEntry(SUBJECTS_GROUP, "staff");
+    private static final Map.Entry<String, String> MODERATION = Maps.immutableEntry(SUBJECTS_GROUP, "moderation");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private GroupManagerDataStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        this.root = GroupManagerFixtures.copyFixture("reload", this.folder.newFolder("groupmanager").toPath());
+        this.store = GroupManagerFixtures.load(GroupManagerFixtures.createManager(this.folder.getRoot().toPath()), GroupManagerFixtures.createConfig(this.root));
+    }
+
+    @After
+    public void tearDown() {
+        this.store.close();
+    }
+
+    private CompletableFuture<ImmutableSubjectData> listen(String type, String identifier) {
+        final CompletableFuture<ImmutableSubjectData> ret = new CompletableFuture<>();
+        this.store.getData(type, identifier, ret::complete).join();
+        return ret;
+    }
+
+    @Test
+    public void testGlobalGroupInheritanceRepublishesWorldUsers() throws Exception {
+        final CompletableFuture<ImmutableSubjectData> alice = listen(SUBJECTS_USER, "alice");
+        final CompletableFuture<ImmutableSubjectData> bob = listen(SUBJECTS_USER, "bob");
+        assertEquals(ImmutableList.of(STAFF), this.store.getEffectiveGroups("world", "alice"));
+
+        final Path globalGroups = this.root.resolve("globalgroups.yml");
+        final String contents = new String(Files.readAllBytes(globalGroups), StandardCharsets.UTF_8);
+        Files.write(globalGroups, contents.replaceFirst("inheritance: \\[\\]", "inheritance:\n    - g:moderation").getBytes(StandardCharsets.UTF_8));
+        this.store.handleFileChange(globalGroups);
+
+        assertNotNull(alice.get(5, TimeUnit.SECONDS));
+        assertFalse(bob.isDone());
+        assertEquals(ImmutableList.of(STAFF, MODERATION), this.store.getEffectiveGroups("world", "alice"));
+        assertEquals(ImmutableList.of(MODERATION), this.store.getGroupAncestors("world", "staff"));
+    }
+
+    @Test
+    public void testHeldDataFollowsReload() throws Exception {
+        final ImmutableSubjectData alice = this.store.getData(SUBJECTS_USER, "alice", null).join();
+        assertEquals(ImmutableMap.of(WORLD, ImmutableList.of(STAFF)), alice.getAllParents());
+
+        final Path users = this.root.resolve("worlds").resolve("world").resolve("users.yml");
+        final String contents = new String(Files.readAllBytes(users), StandardCharsets.UTF_8);
+        Files.write(users, contents.replace("group: g:staff", "group: default").getBytes(StandardCharsets.UTF_8));
+        this.store.handleFileChange(users);
+
+        assertEquals(ImmutableMap.of(WORLD, ImmutableList.of(Maps.immutableEntry(SUBJECTS_GROUP, "default"))), alice.getAllParents());
+    }
+
+    @Test
+    public void testEffectiveGroupsResolvedThroughGlobalGroups() {
+        final SymbolTable symbols = new SymbolTable();
+        final Map<String, SubjectSnapshot> globalGroups = ImmutableMap.of(
+                "staff", SubjectSnapshot.of(ImmutableList.<String>of(), ImmutableMap.<String, String>of(), ImmutableList.of("g:moderation"), null, symbols),
+                "moderation", SubjectSnapshot.of(ImmutableList.<String>of(), ImmutableMap.<String, String>of(), ImmutableList.<String>of(), null, symbols));
+        final InheritanceClosure global = InheritanceClosure.build(globalGroups, ImmutableMap.<String, SubjectSnapshot>of(), ImmutableList.<SubjectSnapshot>of(),
+                symbols, cycle -> {});
+        // No users, so no parent list is precomputed in the world
+        final InheritanceClosure world = InheritanceClosure.build(ImmutableMap.<String, SubjectSnapshot>of(), globalGroups, ImmutableList.<SubjectSnapshot>of(),
+                symbols, cycle -> {});
+
+        final List<Map.Entry<String, String>> parents = ImmutableList.of(STAFF);
+        assertEquals(ImmutableList.of(STAFF, MODERATION), world.getEffectiveGroups(parents, global));
+        assertEquals(ImmutableList.of(MODERATION), world.getAncestors("staff", global));
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import ninja.leaping.configurate.yaml.YAMLConfigurationLoader;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_GROUP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the subjects read by the streaming {@link GroupManagerYamlReader} with those compiled from a full Configurate tree.
+ */
+public class GroupManagerYamlReaderTest {
+    private static List<Path> getFixtureFiles() throws Exception {
+        final List<Path> ret = new ArrayList<>();
+        for (Path fixture : ImmutableList.of(GroupManagerFixtures.getFixture("aliases"), GroupManagerFixtures.getFixture("reload"),
+                Paths.get(GroupManagerYamlReaderTest.class.getResource("/ninja/leaping/permissionsex/extrabackends/pexbin/groupmanager").toURI()))) {
+            try (Stream<Path> files = Files.walk(fixture)) {
+                ret.addAll(files.filter(file -> file.getFileName().toString().equals("users.yml") || file.getFileName().toString().equals("groups.yml")
+                        || file.getFileName().toString().equals("globalgroups.yml")).collect(Collectors.toList()));
+            }
+        }
+        return ret;
+    }
+
+    private static Map<String, SubjectSnapshot> readTree(Path file, EntityType type) throws Exception {
+        return WorldSnapshot.compileSubjects(YAMLConfigurationLoader.builder().setPath(file).build().load()
+                .getNode(type == EntityType.USER ? "users" : "groups"), type, new SymbolTable());
+    }
+
+    @Test
+    public void testMatchesConfigurateLoader() throws Exception {
+        final List<Path> files = getFixtureFiles();
+        assertTrue(files.size() > 5);
+        for (Path file : files) {
+            final EntityType type = file.getFileName().toString().equals("users.yml") ? EntityType.USER : EntityType.GROUP;
+            final Map<String, SubjectSnapshot> streamed = GroupManagerYamlReader.read(file, type, new SymbolTable());
+            assertTrue(file.toString(), !streamed.isEmpty() || file.getFileName().toString().equals("globalgroups.yml"));
+            assertEquals(file.toString(), readTree(file, type), streamed);
+        }
+    }
+
+    @Test
+    public void testSubgroupsFollowMainGroup() throws Exception {
+        final Path users = Paths.get(GroupManagerYamlReaderTest.class.getResource("/ninja/leaping/permissionsex/extrabackends/pexbin/groupmanager/worlds/world/users.yml").toURI());
+        final Map<String, SubjectSnapshot> streamed = GroupManagerYamlReader.read(users, EntityType.USER, new SymbolTable());
+        assertEquals(ImmutableList.of(Maps.immutableEntry(SUBJECTS_GROUP, "moderator"), Maps.immutableEntry(SUBJECTS_GROUP, "staff")),
+                streamed.get("bob").getParents());
+        assertEquals(ImmutableList.of(Maps.immutableEntry(SUBJECTS_GROUP, "default")), streamed.get("carol").getParents());
+    }
+}
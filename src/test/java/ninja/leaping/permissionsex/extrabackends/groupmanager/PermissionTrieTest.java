@@ -0,0 +1,94 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Resolves permissions against compiled permission tries.
+ */
+public class PermissionTrieTest {
+    private static PermissionTrie trie(Map<String, Integer> permissions) {
+        return PermissionTrie.build(permissions, new SymbolTable());
+    }
+
+    @Test
+    public void testMostSpecificNodeWins() {
+        final PermissionTrie trie = trie(ImmutableMap.of("essentials", 1, "essentials.fly", -1, "essentials.fly.other", 1));
+        assertEquals(1, trie.get("essentials"));
+        assertEquals(1, trie.get("essentials.home"));
+        assertEquals(-1, trie.get("essentials.fly"));
+        assertEquals(-1, trie.get("essentials.fly.safe"));
+        assertEquals(1, trie.get("essentials.fly.other"));
+        assertEquals(1, trie.get("essentials.fly.other.world"));
+        assertEquals(0, trie.get("worldedit.wand"));
+    }
+
+    @Test
+    public void testNegatedNodeBelowUnsetParent() {
+        final PermissionTrie trie = trie(ImmutableMap.of("worldedit.navigation.jumpto", -1));
+        assertEquals(0, trie.get("worldedit"));
+        assertEquals(0, trie.get("worldedit.navigation"));
+        assertEquals(-1, trie.get("worldedit.navigation.jumpto"));
+        assertEquals(-1, trie.get("worldedit.navigation.jumpto.tool"));
+        assertEquals(0, trie.get("worldedit.navigation.thru"));
+    }
+
+    @Test
+    public void testOnlyWholeSegmentsMatch() {
+        final PermissionTrie trie = trie(ImmutableMap.of("node.a", 1, "node.a-b", -1, "node.ab", 1, "node.B", -1));
+        assertEquals(1, trie.get("node.a"));
+        assertEquals(-1, trie.get("node.a-b"));
+        assertEquals(1, trie.get("node.ab"));
+        assertEquals(-1, trie.get("node.B"));
+        assertEquals(0, trie.get("node.b"));
+        assertEquals(0, trie.get("node.abc"));
+        assertEquals(0, trie.get("node"));
+        assertEquals(0, trie.get("nodes.a"));
+    }
+
+    @Test
+    public void testGroupManagerNegationsAndWildcard() {
+        final SymbolTable symbols = new SymbolTable();
+        final SubjectSnapshot subject = SubjectSnapshot.of(ImmutableList.of("-*", "essentials.spawn", "-essentials.spawn.others"),
+                ImmutableMap.<String, String>of(), ImmutableList.<String>of(), null, symbols);
+        assertEquals(-1, subject.getDefaultValue());
+        assertEquals(1, subject.getPermissionValue("essentials.spawn"));
+        assertEquals(-1, subject.getPermissionValue("essentials.spawn.others"));
+        assertEquals(-1, subject.getPermissionValue("essentials.home"));
+
+        final SubjectSnapshot admin = SubjectSnapshot.of(ImmutableList.of("*", "-essentials.kick.exempt"),
+                ImmutableMap.<String, String>of(), ImmutableList.<String>of(), null, symbols);
+        assertEquals(1, admin.getPermissionValue("essentials.kick"));
+        assertEquals(-1, admin.getPermissionValue("essentials.kick.exempt"));
+    }
+
+    @Test
+    public void testEqualPermissionsShareTrie() {
+        final SymbolTable symbols = new SymbolTable();
+        final PermissionTrie trie = symbols.internPermissions(ImmutableMap.of("essentials.fly", 1, "essentials.kick", -1));
+        assertSame(trie, symbols.internPermissions(ImmutableMap.of("essentials.kick", -1, "essentials.fly", 1)));
+        assertSame(PermissionTrie.EMPTY, symbols.internPermissions(ImmutableMap.<String, Integer>of()));
+    }
+}
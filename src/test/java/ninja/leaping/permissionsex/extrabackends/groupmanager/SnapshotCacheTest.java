@@ -0,0 +1,82 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Writes and validates parse cache entries for a GroupManager users file.
+ */
+public class SnapshotCacheTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path users;
+    private SnapshotCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        final Path root = GroupManagerFixtures.copyFixture("aliases", this.folder.newFolder("groupmanager").toPath());
+        this.users = root.resolve("worlds").resolve("world").resolve("users.yml");
+        this.cache = new SnapshotCache(this.folder.getRoot().toPath().resolve("cache"));
+    }
+
+    private Map<String, SubjectSnapshot> parseAndCache() throws Exception {
+        try (SnapshotCache.Source source = SnapshotCache.Source.open(this.users)) {
+            final Map<String, SubjectSnapshot> ret = GroupManagerYamlReader.read(source.getReader(), this.users, EntityType.USER, new SymbolTable());
+            this.cache.write(source, EntityType.USER, ret);
+            return ret;
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final Map<String, SubjectSnapshot> parsed = parseAndCache();
+        assertEquals(parsed, this.cache.read(this.users, EntityType.USER, new SymbolTable()));
+        assertNull(this.cache.read(this.users, EntityType.GROUP, new SymbolTable()));
+    }
+
+    @Test
+    public void testChangedContentsInvalidate() throws Exception {
+        parseAndCache();
+        final FileTime modified = Files.getLastModifiedTime(this.users);
+        final String contents = new String(Files.readAllBytes(this.users), StandardCharsets.UTF_8);
+        // Same size and modification time, so only the content hash tells the files apart
+        Files.write(this.users, contents.replace("essentials.fly", "essentials.fl_").getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(this.users, modified);
+        assertNull(this.cache.read(this.users, EntityType.USER, new SymbolTable()));
+
+        parseAndCache();
+        assertNotNull(this.cache.read(this.users, EntityType.USER, new SymbolTable()));
+        Files.write(this.users, (contents + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(this.users, modified);
+        assertNull(this.cache.read(this.users, EntityType.USER, new SymbolTable()));
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import ninja.leaping.permissionsex.PermissionsEx;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Looks up the contexts subjects are defined in from an index of global groups and three worlds.
+ */
+public class SubjectIndexTest {
+    private final WorldContexts worldContexts = new WorldContexts();
+    private SubjectIndex index;
+
+    private static WorldNames world(Set<String> users, Set<String> groups) {
+        final UserAliases.Builder aliases = UserAliases.builder();
+        for (String user : users) {
+            aliases.add(user, null);
+        }
+        return new WorldNames(users, groups, aliases.build());
+    }
+
+    @Before
+    public void setUp() {
+        this.index = SubjectIndex.build(ImmutableSet.of("staff"), ImmutableMap.of(
+                "world", world(ImmutableSet.of("alice", "bob", "carol"), ImmutableSet.of("default")),
+                "world_nether", world(ImmutableSet.of("alice", "carol"), ImmutableSet.of("default", "builder")),
+                "creative", world(ImmutableSet.<String>of(), ImmutableSet.of("builder", "staff"))), this.worldContexts);
+    }
+
+    private Set<Map.Entry<String, String>> world(String name) {
+        return this.worldContexts.intern(name);
+    }
+
+    @Test
+    public void testActiveContexts() {
+        assertEquals(ImmutableSet.of(world("world"), world("world_nether")), this.index.getActiveContexts(EntityType.USER, "alice"));
+        assertEquals(ImmutableSet.of(world("world")), this.index.getActiveContexts(EntityType.USER, "bob"));
+        assertEquals(ImmutableSet.of(world("world"), world("world_nether")), this.index.getActiveContexts(EntityType.GROUP, "default"));
+        assertEquals(ImmutableSet.of(world("world_nether"), world("creative")), this.index.getActiveContexts(EntityType.GROUP, "builder"));
+        assertEquals(ImmutableSet.of(PermissionsEx.GLOBAL_CONTEXT, world("creative")), this.index.getActiveContexts(EntityType.GROUP, "staff"));
+    }
+
+    @Test
+    public void testUnknownSubjects() {
+        assertTrue(this.index.getActiveContexts(EntityType.USER, "dave").isEmpty());
+        assertTrue(this.index.getActiveContexts(EntityType.USER, "default").isEmpty());
+        assertFalse(this.index.contains(EntityType.GROUP, "alice"));
+        assertNull(this.index.getFirstWorld(EntityType.USER, "dave"));
+    }
+
+    @Test
+    public void testContextSetsAreInterned() {
+        for (Set<Map.Entry<String, String>> contexts : this.index.getActiveContexts(EntityType.USER, "alice")) {
+            assertSame(this.worldContexts.lookup(contexts), contexts);
+        }
+        // Subjects defined in the same worlds share one result
+        assertSame(this.index.getActiveContexts(EntityType.USER, "alice"), this.index.getActiveContexts(EntityType.USER, "carol"));
+    }
+
+    @Test
+    public void testFirstWorldByName() {
+        assertEquals("world", this.index.getFirstWorld(EntityType.USER, "alice"));
+        assertEquals("world", this.index.getFirstWorld(EntityType.USER, "bob"));
+        assertEquals("creative", this.index.getFirstWorld(EntityType.GROUP, "builder"));
+        assertEquals("creative", this.index.getFirstWorld(EntityType.GROUP, "staff"));
+    }
+
+    @Test
+    public void testIdentifiers() {
+        assertEquals(ImmutableSet.of("alice", "bob", "carol"), this.index.getIdentifiers(EntityType.USER));
+        assertEquals(ImmutableSet.of("staff", "default", "builder"), this.index.getIdentifiers(EntityType.GROUP));
+    }
+}
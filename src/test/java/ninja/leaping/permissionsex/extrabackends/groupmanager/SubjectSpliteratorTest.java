@@ -0,0 +1,67 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Map;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Iterates every subject of a GroupManager data store through {@link SubjectSpliterator}.
+ */
+public class SubjectSpliteratorTest {
+    private static final String NOTCH_UUID = "069a79f4-44e9-4726-a5be-fca90e38aaf5";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private GroupManagerDataStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        this.store = GroupManagerFixtures.load(GroupManagerFixtures.createManager(this.folder.getRoot().toPath()),
+                GroupManagerFixtures.createConfig(GroupManagerFixtures.getFixture("aliases")));
+    }
+
+    @After
+    public void tearDown() {
+        this.store.close();
+    }
+
+    @Test
+    public void testUserFoundByAliasInEarlierWorld() {
+        // The creative world sorts first and lists the user stored in world under a lastname, which must not take ownership
+        final Multiset<String> users = HashMultiset.create();
+        for (Map.Entry<Map.Entry<String, String>, ImmutableSubjectData> subject : this.store.getAll()) {
+            if (subject.getKey().getKey().equals(SUBJECTS_USER)) {
+                users.add(subject.getKey().getValue());
+            }
+        }
+        assertEquals(ImmutableMultiset.of(NOTCH_UUID, "jeb_", "OldNotch"), users);
+    }
+}
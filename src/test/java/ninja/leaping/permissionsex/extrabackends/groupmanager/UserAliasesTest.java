@@ -0,0 +1,97 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Map;
+import java.util.Set;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Finds GroupManager users by UUID or last known name, in any case.
+ */
+public class UserAliasesTest {
+    private static final String NOTCH_UUID = "069a79f4-44e9-4726-a5be-fca90e38aaf5";
+    private static final Set<Map.Entry<String, String>> WORLD = ImmutableSet.of(Maps.immutableEntry("world", "world"));
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResolveByKeyAndLastName() {
+        final UserAliases aliases = UserAliases.builder()
+                .add(NOTCH_UUID, "Notch")
+                .add("jeb_", null)
+                .build();
+        assertEquals(NOTCH_UUID, aliases.resolve(NOTCH_UUID));
+        assertEquals(NOTCH_UUID, aliases.resolve(NOTCH_UUID.toUpperCase()));
+        assertEquals(NOTCH_UUID, aliases.resolve("notch"));
+        assertEquals(NOTCH_UUID, aliases.resolve("NOTCH"));
+        assertEquals("jeb_", aliases.resolve("Jeb_"));
+        assertNull(aliases.resolve("Dinnerbone"));
+    }
+
+    @Test
+    public void testKeysTakePrecedenceOverLastNames() {
+        // A user keyed by name in an old world, and a different user whose last name is that name
+        final UserAliases aliases = UserAliases.builder()
+                .add("8667ba71-b85a-4004-af54-457a9734eed7", "Steve")
+                .add("steve", null)
+                .build();
+        assertEquals("steve", aliases.resolve("Steve"));
+        assertEquals("8667ba71-b85a-4004-af54-457a9734eed7", aliases.resolve("8667BA71-B85A-4004-AF54-457A9734EED7"));
+    }
+
+    @Test
+    public void testEarlierEntriesTakePrecedence() {
+        final UserAliases first = UserAliases.builder().add(NOTCH_UUID, "Notch").build();
+        final UserAliases second = UserAliases.builder().add("Notch2", "notch").add("NOTCH_ALT", null).build();
+        final UserAliases merged = UserAliases.builder().addAll(first).addAll(second).build();
+        assertEquals(NOTCH_UUID, merged.resolve("Notch"));
+        assertEquals("Notch2", merged.resolve("notch2"));
+        assertEquals("NOTCH_ALT", merged.resolve("notch_alt"));
+    }
+
+    @Test
+    public void testDataStoreResolvesAliases() throws Exception {
+        final GroupManagerDataStore store = GroupManagerFixtures.load(GroupManagerFixtures.createManager(this.folder.getRoot().toPath()),
+                GroupManagerFixtures.createConfig(GroupManagerFixtures.getFixture("aliases")));
+        try {
+            // OldNotch's last name in creative is Notch's UUID, which must still resolve to Notch's own key
+            for (String identifier : new String[] {NOTCH_UUID, NOTCH_UUID.toUpperCase(), "Notch", "nOtCh"}) {
+                assertTrue(identifier, store.isRegistered(SUBJECTS_USER, identifier).join());
+                assertEquals(identifier, 1, store.getData(SUBJECTS_USER, identifier, null).join().getPermissions(WORLD).get("essentials.fly").intValue());
+            }
+            assertTrue(store.isRegistered(SUBJECTS_USER, "JEB_").join());
+            assertFalse(store.isRegistered(SUBJECTS_USER, "Dinnerbone").join());
+            assertTrue(store.getData(SUBJECTS_USER, "oldnotch", null).join().getPermissions(WORLD).isEmpty());
+            assertEquals(ImmutableSet.of(NOTCH_UUID, "jeb_", "OldNotch"), store.getAllIdentifiers(SUBJECTS_USER));
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.groupmanager;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Map;
+import java.util.Set;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Interns world context sets and resolves equal context sets to them.
+ */
+public class WorldContextsTest {
+    private static final String NOTCH_UUID = "069a79f4-44e9-4726-a5be-fca90e38aaf5";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Set<Map.Entry<String, String>> world(String name) {
+        return ImmutableSet.of(Maps.immutableEntry("world", name));
+    }
+
+    @Test
+    public void testInternedOncePerWorld() {
+        final WorldContexts contexts = new WorldContexts();
+        final WorldContext world = contexts.intern("world");
+        final WorldContext nether = contexts.intern("world_nether");
+        assertSame(world, contexts.intern("world"));
+        assertEquals(0, world.getIndex());
+        assertEquals(1, nether.getIndex());
+        assertEquals(2, contexts.size());
+        assertEquals(world("world"), world);
+        assertEquals(world, world("world"));
+        assertEquals(world("world").hashCode(), world.hashCode());
+    }
+
+    @Test
+    public void testLookup() {
+        final WorldContexts contexts = new WorldContexts();
+        final WorldContext world = contexts.intern("world");
+        assertSame(world, contexts.lookup(world));
+        assertSame(world, contexts.lookup(world("world")));
+        assertNull(contexts.lookup(world("creative")));
+        assertNull(contexts.lookup(PermissionsEx.GLOBAL_CONTEXT));
+        assertNull(contexts.lookup(ImmutableSet.of(Maps.immutableEntry("server", "world"))));
+        assertNull(contexts.lookup(ImmutableSet.of(Maps.immutableEntry("world", "world"), Maps.immutableEntry("server", "lobby"))));
+    }
+
+    @Test
+    public void testLookupOfInstanceFromAnotherTable() {
+        final WorldContexts other = new WorldContexts();
+        other.intern("creative");
+        final WorldContext foreign = other.intern("world"); // Index 1, which the table below assigns to a different world
+        final WorldContexts contexts = new WorldContexts();
+        final WorldContext world = contexts.intern("world");
+        contexts.intern("creative");
+        assertSame(world, contexts.lookup(foreign));
+        assertNull(new WorldContexts().lookup(foreign));
+    }
+
+    @Test
+    public void testDataStoreAcceptsEqualContextSets() throws Exception {
+        final GroupManagerDataStore store = GroupManagerFixtures.load(GroupManagerFixtures.createManager(this.folder.getRoot().toPath()),
+                GroupManagerFixtures.createConfig(GroupManagerFixtures.getFixture("aliases")));
+        try {
+            final ImmutableSubjectData data = store.getData(SUBJECTS_USER, NOTCH_UUID, null).join();
+            assertEquals(ImmutableSet.of(world("world"), world("creative")), data.getActiveContexts());
+            for (Set<Map.Entry<String, String>> interned : data.getActiveContexts()) {
+                assertTrue(interned instanceof WorldContext);
+                final Set<Map.Entry<String, String>> equal = ImmutableSet.copyOf(interned);
+                assertEquals(data.getPermissions(interned), data.getPermissions(equal));
+                assertEquals(data.getOptions(interned), data.getOptions(equal));
+                assertEquals(data.getParents(interned), data.getParents(equal));
+                assertEquals(data.getDefaultValue(interned), data.getDefaultValue(equal));
+            }
+            assertEquals(1, data.getPermissions(world("world")).get("essentials.fly").intValue());
+            assertTrue(data.getPermissions(world("world_nether")).isEmpty());
+        } finally {
+            store.close();
+        }
+    }
+}
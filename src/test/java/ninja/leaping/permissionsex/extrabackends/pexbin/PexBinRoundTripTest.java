@@ -0,0 +1,225 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.extrabackends.pexbin;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
+import ninja.leaping.permissionsex.data.ImmutableSubjectData;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.extrabackends.groupmanager.GroupManagerDataStore;
+import ninja.leaping.permissionsex.logging.TranslatableLogger;
+import ninja.leaping.permissionsex.rank.FixedRankLadder;
+import ninja.leaping.permissionsex.rank.RankLadder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_GROUP;
+import static ninja.leaping.permissionsex.PermissionsEx.SUBJECTS_USER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Converts a GroupManager directory to a pexbin file through the {@code convert-from} setting,
+ * and checks that the pexbin data store serves the same data as the GroupManager data store.
+ */
+public class PexBinRoundTripTest {
+    private static final Set<Map.Entry<String, String>> WORLD = ImmutableSet.of(Maps.immutableEntry("world", "world"));
+    private static final Set<Map.Entry<String, String>> CREATIVE = ImmutableSet.of(Maps.immutableEntry("world", "creative"));
+    private static final List<Map.Entry<String, String>> STAFF_LADDER = ImmutableList.of(Maps.immutableEntry(SUBJECTS_GROUP, "default"),
+            Maps.immutableEntry(SUBJECTS_GROUP, "moderator"), Maps.immutableEntry(SUBJECTS_GROUP, "admin"));
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private PermissionsEx manager;
+    private DataStore groupManager;
+    private DataStore pexbin;
+
+    private static Path getFixture() throws Exception {
+        return Paths.get(PexBinRoundTripTest.class.getResource("groupmanager").toURI());
+    }
+
+    private static DataStore createGroupManager(Path root) throws PermissionsLoadingException {
+        final ConfigurationNode config = SimpleConfigurationNode.root();
+        config.getNode("group-manager-root").setValue(root.toAbsolutePath().toString());
+        config.getNode("parse-cache-dir").setValue("");
+        return GroupManagerDataStore.FACTORY.createDataStore("groupmanager", config);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.manager = mock(PermissionsEx.class);
+        when(this.manager.getLogger()).thenReturn(mock(TranslatableLogger.class));
+        when(this.manager.getBaseDirectory()).thenReturn(this.folder.getRoot().toPath());
+        when(this.manager.getAsyncExecutor()).thenReturn(ForkJoinPool.commonPool());
+
+        // GroupManager has no rank ladders, so the converted data store gets one added
+        final DataStore source = mock(DataStore.class, delegatesTo(createGroupManager(getFixture())));
+        doReturn(ImmutableList.of("staff")).when(source).getAllRankLadders();
+        doReturn(CompletableFuture.<RankLadder>completedFuture(new FixedRankLadder("staff", STAFF_LADDER))).when(source).getRankLadder("staff", null);
+        final PermissionsExConfiguration config = mock(PermissionsExConfiguration.class);
+        when(config.getDataStore("groupmanager")).thenReturn(source);
+        when(this.manager.getConfig()).thenReturn(config);
+
+        final ConfigurationNode pexbinConfig = SimpleConfigurationNode.root();
+        pexbinConfig.getNode("file").setValue("converted.pexbin");
+        pexbinConfig.getNode("convert-from").setValue("groupmanager");
+        this.pexbin = PexBinDataStore.FACTORY.createDataStore("pexbin", pexbinConfig);
+        this.pexbin.initialize(this.manager);
+
+        this.groupManager = createGroupManager(getFixture());
+        this.groupManager.initialize(this.manager);
+    }
+
+    @After
+    public void tearDown() {
+        this.pexbin.close();
+        this.groupManager.close();
+    }
+
+    @Test
+    public void testFileWritten() {
+        assertTrue(Files.isRegularFile(this.folder.getRoot().toPath().resolve("converted.pexbin")));
+    }
+
+    @Test
+    public void testAllSubjectsMatch() {
+        int subjects = 0;
+        for (Map.Entry<Map.Entry<String, String>, ImmutableSubjectData> subject : this.groupManager.getAll()) {
+            final String type = subject.getKey().getKey(), identifier = subject.getKey().getValue();
+            final ImmutableSubjectData expected = subject.getValue();
+            final ImmutableSubjectData actual = this.pexbin.getData(type, identifier, null).join();
+            assertTrue(type + " " + identifier, this.pexbin.isRegistered(type, identifier).join());
+            assertEquals(type + " " + identifier, expected.getAllPermissions(), actual.getAllPermissions());
+            assertEquals(type + " " + identifier, expected.getAllOptions(), actual.getAllOptions());
+            assertEquals(type + " " + identifier, expected.getAllParents(), actual.getAllParents());
+            assertEquals(type + " " + identifier, expected.getAllDefaultValues(), actual.getAllDefaultValues());
+            ++subjects;
+        }
+        assertTrue(subjects > 0);
+        assertEquals(this.groupManager.getAllIdentifiers(SUBJECTS_USER), this.pexbin.getAllIdentifiers(SUBJECTS_USER));
+        assertEquals(this.groupManager.getAllIdentifiers(SUBJECTS_GROUP), this.pexbin.getAllIdentifiers(SUBJECTS_GROUP));
+    }
+
+    @Test
+    public void testConversionSkippedWhenFileNewer() throws Exception {
+        final Path root = this.folder.newFolder("groupmanager").toPath();
+        try (Stream<Path> files = Files.walk(getFixture())) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, root.resolve(getFixture().relativize(file).toString()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        final Path file = this.folder.getRoot().toPath().resolve("skipped.pexbin");
+        final FileTime converted = FileTime.fromMillis(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        final ConfigurationNode pexbinConfig = SimpleConfigurationNode.root();
+        pexbinConfig.getNode("file").setValue("skipped.pexbin");
+        pexbinConfig.getNode("convert-from").setValue("groupmanager");
+
+        convertFrom(root, pexbinConfig);
+        assertTrue(Files.isRegularFile(file));
+        Files.setLastModifiedTime(file, converted);
+        convertFrom(root, pexbinConfig);
+        assertEquals(converted, Files.getLastModifiedTime(file));
+
+        Files.setLastModifiedTime(root.resolve("worlds").resolve("world").resolve("users.yml"), FileTime.fromMillis(converted.toMillis() + 1000));
+        convertFrom(root, pexbinConfig);
+        assertNotEquals(converted, Files.getLastModifiedTime(file));
+    }
+
+    /**
+     * Initialize and close a pexbin data store converting from a new GroupManager data store, since closed data stores can't be reused.
+     */
+    private void convertFrom(Path groupManagerRoot, ConfigurationNode pexbinConfig) throws PermissionsLoadingException {
+        final PermissionsExConfiguration config = mock(PermissionsExConfiguration.class);
+        when(config.getDataStore("groupmanager")).thenReturn(createGroupManager(groupManagerRoot));
+        when(this.manager.getConfig()).thenReturn(config);
+        final DataStore store = PexBinDataStore.FACTORY.createDataStore("pexbin", pexbinConfig);
+        store.initialize(this.manager);
+        store.close();
+    }
+
+    @Test
+    public void testOptions() {
+        final ImmutableSubjectData admin = this.pexbin.getData(SUBJECTS_GROUP, "admin", null).join();
+        assertEquals(ImmutableMap.of("prefix", "&c[Admin] ", "build", "true"), admin.getOptions(WORLD));
+        assertEquals(" (owner)", this.pexbin.getData(SUBJECTS_USER, "alice", null).join().getOptions(WORLD).get("suffix"));
+    }
+
+    @Test
+    public void testParents() {
+        final ImmutableSubjectData alice = this.pexbin.getData(SUBJECTS_USER, "alice", null).join();
+        assertEquals(ImmutableList.of(Maps.immutableEntry(SUBJECTS_GROUP, "admin")), alice.getParents(WORLD));
+        assertEquals(ImmutableList.of(Maps.immutableEntry(SUBJECTS_GROUP, "builder")), alice.getParents(CREATIVE));
+        assertEquals(ImmutableList.of(Maps.immutableEntry(SUBJECTS_GROUP, "default"), Maps.immutableEntry(SUBJECTS_GROUP, "staff")),
+                this.pexbin.getData(SUBJECTS_GROUP, "moderator", null).join().getParents(WORLD));
+    }
+
+    @Test
+    public void testPermissionsAndDefaultValues() {
+        final ImmutableSubjectData admin = this.pexbin.getData(SUBJECTS_GROUP, "admin", null).join();
+        assertEquals(-1, admin.getDefaultValue(WORLD));
+        assertEquals(1, admin.getPermissions(WORLD).get("essentials.god").intValue());
+        assertEquals(1, this.pexbin.getData(SUBJECTS_GROUP, "owner", null).join().getDefaultValue(PermissionsEx.GLOBAL_CONTEXT));
+        final ImmutableSubjectData carol = this.pexbin.getData(SUBJECTS_USER, "carol", null).join();
+        assertEquals(0, carol.getDefaultValue(WORLD));
+        assertEquals(-1, carol.getPermissions(WORLD).get("essentials.spawn").intValue());
+    }
+
+    @Test
+    public void testRankLadders() {
+        assertEquals(ImmutableList.of("staff"), ImmutableList.copyOf(this.pexbin.getAllRankLadders()));
+        assertTrue(this.pexbin.hasRankLadder("staff").join());
+        assertFalse(this.pexbin.hasRankLadder("donors").join());
+        assertEquals(STAFF_LADDER, this.pexbin.getRankLadder("staff", null).join().getRanks());
+    }
+
+    @Test
+    public void testContextInheritance() {
+        assertEquals(this.groupManager.getContextInheritance(null).join().getAllParents(), this.pexbin.getContextInheritance(null).join().getAllParents());
+        assertEquals(ImmutableList.of(Maps.immutableEntry("world", "world")),
+                this.pexbin.getContextInheritance(null).join().getParents(Maps.immutableEntry("world", "world_nether")));
+    }
+}